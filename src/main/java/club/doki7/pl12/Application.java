@@ -2,14 +2,22 @@ package club.doki7.pl12;
 
 import club.doki7.pl12.drv.ANSIColor;
 import club.doki7.pl12.exc.ParseException;
+import club.doki7.pl12.exc.UncheckedParseException;
 import club.doki7.pl12.syntax.Command;
-import club.doki7.pl12.syntax.ParseContext;
+import club.doki7.pl12.syntax.ExprPrinter;
+import club.doki7.pl12.syntax.OperatorTable;
+import club.doki7.pl12.syntax.ParseCache;
 import club.doki7.pl12.syntax.Parser;
-import club.doki7.pl12.syntax.Program;
+import club.doki7.pl12.syntax.TokenStream;
+import club.doki7.pl12.syntax.Utf8Lexer;
+import club.doki7.pl12.util.Doc;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Scanner;
 
 public final class Application implements ANSIColor {
@@ -18,6 +26,15 @@ public final class Application implements ANSIColor {
     === Project-PL12 ===
     """;
 
+    /// Set with `-Dpl12.parseCache=<directory>` to reuse the parse results of unchanged files.
+    private static final ParseCache PARSE_CACHE =
+        System.getProperty("pl12.parseCache") != null
+            ? ParseCache.in(Path.of(System.getProperty("pl12.parseCache")))
+            : null;
+
+    private static final int WIDTH = 100;
+    private static final long MAX_CHARS = 4000;
+
     private static void print(String color, String message) {
         System.out.print(color + message + ANSI_RESET);
     }
@@ -30,6 +47,38 @@ public final class Application implements ANSIColor {
         System.out.println(color + "[" + counter + "] => " + output + ANSI_RESET);
     }
 
+    /// Print a loaded command, laid out within {@link #WIDTH} columns, and cut off once it gets
+    /// longer than {@link #MAX_CHARS}.
+    private static void printCommand(Command cmd) {
+        Doc doc = Doc.cat(Doc.text("    "), Doc.nest(4, ExprPrinter.doc(cmd)));
+        System.out.print(ANSI_CYAN);
+        try {
+            doc.render(System.out, WIDTH, MAX_CHARS);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println(ANSI_RESET);
+    }
+
+    /// Parse every command in `path`, through {@link #PARSE_CACHE} when it is set. Commands are
+    /// streamed from the file otherwise, but all of them are parsed before any is shown, so that
+    /// nothing is printed for a file with a syntax error.
+    private static List<Command> load(Path path) throws IOException, ParseException {
+        if (PARSE_CACHE != null) {
+            return PARSE_CACHE.parse(path, OperatorTable.empty()).commands();
+        }
+
+        Iterator<Command> iterator =
+            Parser.commandIterator(TokenStream.memoize(Utf8Lexer.map(path)));
+        List<Command> commands = new ArrayList<>();
+        try {
+            iterator.forEachRemaining(commands::add);
+        } catch (UncheckedParseException e) {
+            throw e.getCause();
+        }
+        return commands;
+    }
+
     static void main(String[] ignored) {
         System.out.println(SPLASH);
 
@@ -64,25 +113,20 @@ public final class Application implements ANSIColor {
                         continue;
                     }
 
-                    String content;
+                    List<Command> commands;
                     try {
-                        content = Files.readString(path);
+                        commands = load(path);
                     } catch (IOException e) {
                         println(ANSI_RED, counter, "找不到 " + filename);
                         continue;
-                    }
-
-                    Program program;
-                    try {
-                        program = Parser.parseProgram(ParseContext.of(content, filename));
                     } catch (ParseException e) {
                         println(ANSI_RED, counter, e.getMessage());
                         continue;
                     }
 
                     println(ANSI_GREEN, counter, "成功加载 " + filename);
-                    for (Command cmd : program.commands()) {
-                        println(ANSI_CYAN, "\t" + cmd);
+                    for (Command cmd : commands) {
+                        printCommand(cmd);
                     }
                 }
                 default -> println(ANSI_RED,
@@ -9,7 +9,12 @@ import org.jetbrains.annotations.TestOnly;
 import java.util.Objects;
 
 public sealed interface Term {
-    record Ann(@NotNull Term term, @NotNull Term type) implements Term {}
+    record Ann(@NotNull Term term, @NotNull Term type) implements Term {
+        @Override
+        public @NotNull String toString() {
+            return TermPrinter.doc(this).renderFlat();
+        }
+    }
 
     record Bound(int index, @NotNull String name) implements Term {
         @Override
@@ -29,12 +34,22 @@ public sealed interface Term {
         }
     }
 
-    record Free(@NotNull Name name) implements Term, Value.RigidHead {}
+    record Free(@NotNull Name name) implements Term, Value.RigidHead {
+        @Override
+        public @NotNull String toString() {
+            return TermPrinter.doc(this).renderFlat();
+        }
+    }
 
     record Lam(ImmSeq<String> paramNames, @NotNull Term body) implements Term {
         public static @NotNull Lam of(ImmSeq<String> paramNames, @NotNull Term body) {
             return new Lam(paramNames, body);
         }
+
+        @Override
+        public @NotNull String toString() {
+            return TermPrinter.doc(this).renderFlat();
+        }
     }
 
     final class Univ implements Term {
@@ -51,13 +66,24 @@ public sealed interface Term {
     record Pi(@Nullable String pramName,
               @NotNull Term type,
               @NotNull Term body)
-        implements Term {}
+        implements Term
+    {
+        @Override
+        public @NotNull String toString() {
+            return TermPrinter.doc(this).renderFlat();
+        }
+    }
 
     record App(@NotNull Term func, @NotNull ImmSeq<Term> args) implements Term {
         @TestOnly
         public App(@NotNull Term func, @NotNull Term... args) {
             this(func, ImmSeq.of(args));
         }
+
+        @Override
+        public @NotNull String toString() {
+            return TermPrinter.doc(this).renderFlat();
+        }
     }
 
     record Meta(int id, @NotNull String name) implements Term {
@@ -78,7 +104,12 @@ public sealed interface Term {
         }
     }
 
-    record SolvedMeta(int id, @NotNull Term solution) implements Term {}
+    record SolvedMeta(int id, @NotNull Term solution) implements Term {
+        @Override
+        public @NotNull String toString() {
+            return TermPrinter.doc(this).renderFlat();
+        }
+    }
 
     @NotNull Univ UNIV = Univ.UNIV;
 }
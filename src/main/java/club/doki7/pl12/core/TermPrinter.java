@@ -0,0 +1,182 @@
+package club.doki7.pl12.core;
+
+import club.doki7.pl12.util.Doc;
+import club.doki7.pl12.util.ImmSeq;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/// Builds {@link Doc}s for core {@link Term}s and {@link Value}s, in a syntax close to the surface
+/// one. The `toString` methods of terms and values go through here.
+///
+/// Closures are printed as their bodies, without the captured environment, glued values folded,
+/// and thunks as the values they stand for once forced, but as `<thunk>` before: printing never
+/// evaluates anything. Subtrees nested deeper than `maxDepth` are printed as `…`.
+public final class TermPrinter {
+    public static @NotNull Doc doc(@NotNull Term term) {
+        return new TermPrinter(Integer.MAX_VALUE).term(term, 0);
+    }
+
+    public static @NotNull Doc doc(@NotNull Term term, int maxDepth) {
+        return new TermPrinter(maxDepth).term(term, 0);
+    }
+
+    public static @NotNull Doc doc(@NotNull Value value) {
+        return new TermPrinter(Integer.MAX_VALUE).value(value, 0);
+    }
+
+    public static @NotNull Doc doc(@NotNull Value value, int maxDepth) {
+        return new TermPrinter(maxDepth).value(value, 0);
+    }
+
+    private @NotNull Doc term(@NotNull Term term, int depth) {
+        if (depth > maxDepth) {
+            return ELLIPSIS;
+        }
+
+        return switch (term) {
+            case Term.Ann(Term t, Term type) -> parens(Doc.group(Doc.cat(
+                term(t, depth + 1),
+                Doc.text(" :"),
+                Doc.nest(INDENT, Doc.cat(Doc.line(), term(type, depth + 1)))
+            )));
+            case Term.Bound bound -> Doc.text(bound.toString());
+            case Term.Free(Name name) -> Doc.text(name.toString());
+            case Term.Lam(ImmSeq<String> paramNames, Term body) ->
+                lam(paramNames, term(body, depth + 1));
+            case Term.Univ _ -> Doc.text("type");
+            case Term.Pi(String paramName, Term type, Term body) -> pi(
+                paramName,
+                term(type, depth + 1),
+                isAtomic(type),
+                term(body, depth + 1)
+            );
+            case Term.App(Term func, ImmSeq<Term> args) -> {
+                List<Doc> docs = new ArrayList<>(args.size());
+                for (Term arg : args) {
+                    docs.add(atomic(term(arg, depth + 1), isAtomic(arg)));
+                }
+                yield app(atomic(term(func, depth + 1), isAtomic(func)), docs);
+            }
+            case Term.Meta meta -> Doc.text(meta.toString());
+            case Term.SolvedMeta(_, Term solution) -> term(solution, depth);
+        };
+    }
+
+    private @NotNull Doc value(@NotNull Value value, int depth) {
+        if (depth > maxDepth) {
+            return ELLIPSIS;
+        }
+
+        return switch (value) {
+            case Value.Flex(Term.Meta head, ImmSeq<Value> args) ->
+                app(Doc.text(head.toString()), values(args, depth));
+            case Value.Rigid(Value.RigidHead head, ImmSeq<Value> args) -> {
+                Doc headDoc = switch (head) {
+                    case Term.Free(Name name) -> Doc.text(name.toString());
+                    case Value.Lam(_, ImmSeq<String> paramNames, Term body, _) ->
+                        parens(lam(paramNames, term(body, depth + 1)));
+                };
+                yield app(headDoc, values(args, depth));
+            }
+            case Value.Glued(Term.Free head, ImmSeq<Value> spine, _) ->
+                app(Doc.text(head.name().toString()), values(spine, depth));
+            case Value.Pi(_, String paramName, Type paramType, Term body) -> pi(
+                paramName,
+                value(paramType.value(), depth + 1),
+                isAtomic(paramType.value()),
+                term(body, depth + 1)
+            );
+            case Value.Univ _ -> Doc.text("type");
+            case Value.Thunk thunk -> thunk.isForced() ? value(thunk.force(), depth) : THUNK;
+        };
+    }
+
+    private @NotNull List<Doc> values(@NotNull ImmSeq<Value> args, int depth) {
+        List<Doc> docs = new ArrayList<>(args.size());
+        for (Value arg : args) {
+            docs.add(atomic(value(arg, depth + 1), isAtomic(arg)));
+        }
+        return docs;
+    }
+
+    private static @NotNull Doc lam(@NotNull ImmSeq<String> paramNames, @NotNull Doc body) {
+        return Doc.group(Doc.cat(
+            Doc.text("fun " + String.join(" ", paramNames) + " =>"),
+            Doc.nest(INDENT, Doc.cat(Doc.line(), body))
+        ));
+    }
+
+    private static @NotNull Doc pi(@Nullable String paramName,
+                                   @NotNull Doc type,
+                                   boolean typeIsAtomic,
+                                   @NotNull Doc body) {
+        if (paramName == null) {
+            return Doc.group(Doc.cat(
+                atomic(type, typeIsAtomic),
+                Doc.text(" ->"),
+                Doc.line(),
+                body
+            ));
+        }
+        return Doc.group(Doc.cat(
+            Doc.text("∀(" + paramName + " : "),
+            type,
+            Doc.text("),"),
+            Doc.nest(INDENT, Doc.cat(Doc.line(), body))
+        ));
+    }
+
+    private static @NotNull Doc app(@NotNull Doc func, @NotNull List<Doc> args) {
+        if (args.isEmpty()) {
+            return func;
+        }
+
+        List<Doc> docs = new ArrayList<>(args.size() * 2 + 1);
+        docs.add(func);
+        for (Doc arg : args) {
+            docs.add(Doc.line());
+            docs.add(arg);
+        }
+        return Doc.group(Doc.nest(INDENT, Doc.cat(docs)));
+    }
+
+    private static boolean isAtomic(@NotNull Term term) {
+        return switch (term) {
+            case Term.Bound _, Term.Free _, Term.Univ _, Term.Meta _, Term.Ann _ -> true;
+            case Term.SolvedMeta(_, Term solution) -> isAtomic(solution);
+            case Term.Lam _, Term.Pi _, Term.App _ -> false;
+        };
+    }
+
+    private static boolean isAtomic(@NotNull Value value) {
+        return switch (value) {
+            case Value.Flex(_, ImmSeq<Value> args) -> args.isEmpty();
+            case Value.Rigid(_, ImmSeq<Value> args) -> args.isEmpty();
+            case Value.Glued(_, ImmSeq<Value> spine, _) -> spine.isEmpty();
+            case Value.Univ _ -> true;
+            case Value.Pi _ -> false;
+            case Value.Thunk thunk -> !thunk.isForced() || isAtomic(thunk.force());
+        };
+    }
+
+    private static @NotNull Doc atomic(@NotNull Doc doc, boolean isAtomic) {
+        return isAtomic ? doc : parens(doc);
+    }
+
+    private static @NotNull Doc parens(@NotNull Doc doc) {
+        return Doc.cat(Doc.text("("), doc, Doc.text(")"));
+    }
+
+    private TermPrinter(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    private static final int INDENT = 2;
+    private static final Doc ELLIPSIS = Doc.text("…");
+    private static final Doc THUNK = Doc.text("<thunk>");
+
+    private final int maxDepth;
+}
@@ -4,6 +4,7 @@ import org.jetbrains.annotations.NotNull;
 
 public record Type(Value value) {
     public static Type ofVal(Value value) {
+        value = Value.force(value);
         if (value == Value.UNIV) {
             return UNIV;
         }
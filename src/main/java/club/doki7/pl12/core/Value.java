@@ -1,29 +1,156 @@
 package club.doki7.pl12.core;
 
-import club.doki7.pl12.util.SnocList;
 import club.doki7.pl12.util.ImmSeq;
+import club.doki7.pl12.util.SkewList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Objects;
+import java.util.function.Supplier;
+
 public sealed interface Value {
-    record Flex(Term.Meta head, @NotNull ImmSeq<Value> args) implements Value {}
+    record Flex(Term.Meta head, @NotNull ImmSeq<Value> args) implements Value {
+        @Override
+        public @NotNull String toString() {
+            return TermPrinter.doc(this).renderFlat();
+        }
+    }
 
     sealed interface RigidHead permits Term.Free, Lam {}
 
-    record Rigid(RigidHead head, @NotNull ImmSeq<Value> args) implements Value {}
+    record Rigid(RigidHead head, @NotNull ImmSeq<Value> args) implements Value {
+        @Override
+        public @NotNull String toString() {
+            return TermPrinter.doc(this).renderFlat();
+        }
+    }
 
-    record Lam(@NotNull SnocList<ImmSeq<Value>> localEnv,
+    /// `code`, if present, is `body` compiled by one of the {@link club.doki7.pl12.elab.Backend}s,
+    /// and is run instead of evaluating `body`.
+    record Lam(@NotNull SkewList<Value> localEnv,
                @NotNull ImmSeq<String> paramNames,
-               @NotNull Term body)
+               @NotNull Term body,
+               @Nullable Code code)
         implements RigidHead
-    {}
+    {
+        public Lam(@NotNull SkewList<Value> localEnv,
+                   @NotNull ImmSeq<String> paramNames,
+                   @NotNull Term body) {
+            this(localEnv, paramNames, body, null);
+        }
 
-    record Pi(@NotNull SnocList<ImmSeq<Value>> localEnv,
+        /// `code` is left out: it is just a faster way to evaluate `body`.
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Lam(SkewList<Value> otherEnv,
+                                   ImmSeq<String> otherNames,
+                                   Term otherBody,
+                                   _))) {
+                return false;
+            }
+            return localEnv.equals(otherEnv)
+                   && paramNames.equals(otherNames)
+                   && body.equals(otherBody);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(Lam.class, localEnv, paramNames, body);
+        }
+    }
+
+    /// A global applied to `spine`, kept folded, together with what it unfolds to: the value with
+    /// the global replaced by its definition.
+    ///
+    /// The folded form is what gets printed and compared first, and is usually far smaller. The
+    /// unfolded form is only computed when something needs it.
+    record Glued(@NotNull Term.Free head, @NotNull ImmSeq<Value> spine, @NotNull Thunk unfolded)
+        implements Value
+    {
+        /// `unfolded` is left out, so that comparing does not unfold.
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Glued(Term.Free otherHead, ImmSeq<Value> otherSpine, _))) {
+                return false;
+            }
+            return head.equals(otherHead) && spine.equals(otherSpine);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(Glued.class, head, spine);
+        }
+
+        @Override
+        public @NotNull String toString() {
+            return TermPrinter.doc(this).renderFlat();
+        }
+    }
+
+    record Pi(@NotNull SkewList<Value> localEnv,
               @Nullable String paramName,
               @NotNull Type paramType,
               @NotNull Term body)
         implements Value
-    {}
+    {
+        @Override
+        public @NotNull String toString() {
+            return TermPrinter.doc(this).renderFlat();
+        }
+    }
+
+    /// A {@link Term} compiled to a tree of closures, that evaluates it in `localEnv`.
+    @FunctionalInterface
+    interface Code {
+        @NotNull Value run(@NotNull SkewList<Value> localEnv);
+    }
+
+    /// A value that is only computed when it is first needed, and then remembered.
+    ///
+    /// A lazy {@link club.doki7.pl12.elab.Eval} makes these for arguments, so they show up in local
+    /// environments and spines, and every one makes them for the unfolded form of {@link Glued}
+    /// values. Whatever inspects a value has to {@link #force} it first.
+    ///
+    /// Nothing else forces a thunk: equality and hashing are by identity, and one that has not been
+    /// forced yet prints as `<thunk>`. Values that may contain thunks are compared with
+    /// {@link club.doki7.pl12.elab.Conv}.
+    final class Thunk implements Value {
+        public Thunk(@NotNull Supplier<Value> compute) {
+            this.compute = compute;
+        }
+
+        private Thunk(@NotNull Value value) {
+            this.value = value;
+        }
+
+        /// A thunk that is forced already, to `value`.
+        public static @NotNull Thunk forced(@NotNull Value value) {
+            return new Thunk(Value.force(value));
+        }
+
+        public @NotNull Value force() {
+            Value value = this.value;
+            if (value == null) {
+                assert compute != null;
+                value = Value.force(compute.get());
+                this.value = value;
+                compute = null;
+            }
+            return value;
+        }
+
+        public boolean isForced() {
+            return value != null;
+        }
+
+        @Override
+        public @NotNull String toString() {
+            return TermPrinter.doc(this).renderFlat();
+        }
+
+        private @Nullable Supplier<Value> compute;
+        private @Nullable Value value;
+    }
 
     final class Univ implements Value {
         private static final @NotNull Univ UNIV = new Univ();
@@ -36,5 +163,10 @@ public sealed interface Value {
         }
     }
 
+    /// The value itself, or what it stands for if it is a {@link Thunk}.
+    static @NotNull Value force(@NotNull Value value) {
+        return value instanceof Thunk thunk ? thunk.force() : value;
+    }
+
     @NotNull Univ UNIV = Univ.UNIV;
 }
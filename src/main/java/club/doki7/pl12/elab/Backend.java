@@ -0,0 +1,66 @@
+package club.doki7.pl12.elab;
+
+import club.doki7.pl12.core.Term;
+import club.doki7.pl12.core.Value;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/// The ways of evaluating core terms. They all give the same values, and only differ in how long
+/// it takes to get them.
+///
+/// One backend is used for a whole session, see {@link #ofSession()}: {@link Env#define} compiles
+/// every definition with it, once, when the definition is added.
+public enum Backend {
+    /// {@link Eval}, which walks the term every time.
+    INTERPRETER,
+    /// {@link ClosureCompiler}.
+    CLOSURE,
+    /// {@link BytecodeCompiler}, for closed computations that run long enough to pay for loading a
+    /// class.
+    BYTECODE;
+
+    /// Set with `-Dpl12.backend=<interpreter|closure|bytecode>` for the whole session. An unknown
+    /// name is reported on `System.err`, and the {@link #INTERPRETER} is used instead.
+    public static @NotNull Backend ofSession() {
+        String name = System.getProperty("pl12.backend");
+        if (name == null) {
+            return INTERPRETER;
+        }
+
+        Backend backend = named(name);
+        if (backend == null) {
+            System.err.println("未知的后端 '" + name + "'，可选的后端有 "
+                               + Arrays.stream(values())
+                                       .map(b -> b.name().toLowerCase(Locale.ROOT))
+                                       .collect(Collectors.joining(", "))
+                               + "，改用 interpreter");
+            return INTERPRETER;
+        }
+        return backend;
+    }
+
+    /// The backend called `name`, in any case, or `null` if there is none.
+    static @Nullable Backend named(@NotNull String name) {
+        for (Backend backend : values()) {
+            if (backend.name().equalsIgnoreCase(name.trim())) {
+                return backend;
+            }
+        }
+        return null;
+    }
+
+    /// `term` compiled for this backend, or `null` for the {@link #INTERPRETER}, which has nothing
+    /// to compile. Compiling takes far longer than evaluating once, and loads a class for
+    /// {@link #BYTECODE}, so the code is meant to be kept.
+    public @Nullable Value.Code compile(@NotNull Env env, @NotNull Term term) {
+        return switch (this) {
+            case INTERPRETER -> null;
+            case CLOSURE -> ClosureCompiler.make(env).compile(term);
+            case BYTECODE -> BytecodeCompiler.make(env).compile(term);
+        };
+    }
+}
@@ -0,0 +1,378 @@
+package club.doki7.pl12.elab;
+
+import club.doki7.pl12.core.Name;
+import club.doki7.pl12.core.Term;
+import club.doki7.pl12.core.Type;
+import club.doki7.pl12.core.Value;
+import club.doki7.pl12.util.ImmSeq;
+import club.doki7.pl12.util.SkewList;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.Label;
+import java.lang.classfile.TypeKind;
+import java.lang.classfile.instruction.SwitchCase;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DynamicConstantDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/// Compiles {@link Term}s to JVM bytecode, one hidden class per term, so that closed computations
+/// get compiled further by the JIT.
+///
+/// Every lambda body in the term, and the term itself, becomes a static method of the class that
+/// takes the local environment and returns the value. The class implements {@link Value.Code}, with
+/// an instance for each method, and lambdas evaluate to {@link Value.Lam}s that carry the instance
+/// for their body, just like those made by {@link ClosureCompiler}.
+///
+/// Applications of a lambda literal to enough arguments are direct calls of its method. So are
+/// those of a global to enough arguments, when the global is defined as a lambda with compiled
+/// code: that code is called with `invokeinterface` on a constant receiver, and only the result is
+/// glued into a {@link Value.Glued}, which reads back as the folded application just like the ones
+/// {@link Eval} makes. All other applications go through {@link Eval}. Constants, such as the
+/// glued values of globals and the code of their definitions, are passed in as class data and
+/// loaded with `ldc`, so the JIT sees them as constants too.
+///
+/// Terms that do not fit in a class file, with a method over 64 KiB for example, are compiled with
+/// the {@link ClosureCompiler} instead.
+public final class BytecodeCompiler {
+    public static BytecodeCompiler make(Env env) {
+        return new BytecodeCompiler(env);
+    }
+
+    public @NotNull Value.Code compile(@NotNull Term term) {
+        Unit unit = new Unit(term);
+        byte[] bytes;
+        try {
+            bytes = unit.build();
+        } catch (IllegalArgumentException e) {
+            return ClosureCompiler.make(env).compile(term);
+        }
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                .defineHiddenClassWithClassData(bytes, List.copyOf(unit.constants), true);
+            return (Value.Code) lookup.lookupClass()
+                .getDeclaredConstructor(int.class)
+                .newInstance(0);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load compiled term " + term, e);
+        }
+    }
+
+    static @NotNull Value lam(@NotNull SkewList<Value> localEnv,
+                              @NotNull Term.Lam lam,
+                              @NotNull Value.Code code) {
+        return new Value.Rigid(new Value.Lam(localEnv, lam.paramNames(), lam.body(), code),
+                               ImmSeq.nil());
+    }
+
+    static @NotNull Value pi(@NotNull SkewList<Value> localEnv,
+                             @NotNull Term.Pi pi,
+                             @NotNull Value type) {
+        return new Value.Pi(localEnv, pi.pramName(), Type.ofVal(type), pi.body());
+    }
+
+    static @NotNull Value glued(@NotNull Term.Free global,
+                                @NotNull ImmSeq<Value> args,
+                                @NotNull Value result) {
+        return new Value.Glued(global, args, Value.Thunk.forced(result));
+    }
+
+    static @NotNull Value unbound(@NotNull String name) {
+        throw new IllegalStateException("Unbound global: " + name);
+    }
+
+    /// The class compiled for a single term.
+    private final class Unit {
+        Unit(@NotNull Term term) {
+            bodies.add(term);
+        }
+
+        byte[] build() {
+            return ClassFile.of().build(CD_COMPILED, clb -> {
+                clb.withFlags(ClassFile.ACC_FINAL | ClassFile.ACC_SYNTHETIC)
+                    .withSuperclass(ConstantDescs.CD_Object)
+                    .withInterfaceSymbols(CD_CODE)
+                    .withField(INDEX,
+                               ConstantDescs.CD_int,
+                               ClassFile.ACC_PRIVATE | ClassFile.ACC_FINAL)
+                    .withMethodBody(ConstantDescs.INIT_NAME, MTD_INIT, 0, code -> code
+                        .aload(0)
+                        .invokespecial(ConstantDescs.CD_Object,
+                                       ConstantDescs.INIT_NAME,
+                                       ConstantDescs.MTD_void)
+                        .aload(0)
+                        .iload(1)
+                        .putfield(CD_COMPILED, INDEX, ConstantDescs.CD_int)
+                        .return_());
+
+                // compiling a body may add the bodies of the lambdas in it
+                for (int i = 0; i < bodies.size(); i++) {
+                    Term body = bodies.get(i);
+                    clb.withMethodBody(method(i),
+                                       MTD_RUN,
+                                       ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC,
+                                       code -> {
+                                           emit(code, body);
+                                           code.areturn();
+                                       });
+                }
+
+                clb.withMethodBody("run", MTD_RUN, ClassFile.ACC_PUBLIC, this::emitRun);
+            });
+        }
+
+        /// `Value.Code.run`, which runs the method with the index of this instance.
+        private void emitRun(@NotNull CodeBuilder code) {
+            Label invalid = code.newLabel();
+            List<SwitchCase> cases = new ArrayList<>(bodies.size());
+            for (int i = 0; i < bodies.size(); i++) {
+                cases.add(SwitchCase.of(i, code.newLabel()));
+            }
+
+            code.aload(0)
+                .getfield(CD_COMPILED, INDEX, ConstantDescs.CD_int)
+                .tableswitch(invalid, cases);
+            for (SwitchCase switchCase : cases) {
+                code.labelBinding(switchCase.target())
+                    .aload(1)
+                    .invokestatic(CD_COMPILED, method(switchCase.caseValue()), MTD_RUN)
+                    .areturn();
+            }
+            code.labelBinding(invalid)
+                .new_(CD_ILLEGAL_STATE)
+                .dup()
+                .invokespecial(CD_ILLEGAL_STATE, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void)
+                .athrow();
+        }
+
+        private void emit(@NotNull CodeBuilder code, @NotNull Term term) {
+            while (true) {
+                switch (term) {
+                    case Term.Ann(Term annotated, _) -> term = annotated;
+                    case Term.SolvedMeta(_, Term solution) -> term = solution;
+
+                    case Term.Bound(int index, _) -> {
+                        code.aload(0)
+                            .loadConstant(index)
+                            .invokevirtual(CD_SKEW_LIST, "get", MTD_GET)
+                            .checkcast(CD_VALUE);
+                        return;
+                    }
+                    case Term.Free free -> {
+                        if (free.name() instanceof Name.Global(String name)) {
+                            Env.Entry entry = env.lookup(name);
+                            if (entry == null) {
+                                constant(code, name, ConstantDescs.CD_String);
+                                code.invokestatic(CD_COMPILER, "unbound", MTD_UNBOUND);
+                            } else {
+                                Value glued = new Value.Glued(free,
+                                                              ImmSeq.nil(),
+                                                              new Value.Thunk(entry::value));
+                                constant(code, glued, CD_VALUE);
+                            }
+                            return;
+                        }
+                        constant(code, new Value.Rigid(free, ImmSeq.nil()), CD_VALUE);
+                        return;
+                    }
+                    case Term.Meta meta -> {
+                        constant(code, new Value.Flex(meta, ImmSeq.nil()), CD_VALUE);
+                        return;
+                    }
+                    case Term.Lam lam -> {
+                        code.aload(0);
+                        constant(code, lam, CD_TERM_LAM);
+                        code.new_(CD_COMPILED)
+                            .dup()
+                            .loadConstant(lambda(lam))
+                            .invokespecial(CD_COMPILED, ConstantDescs.INIT_NAME, MTD_INIT)
+                            .invokestatic(CD_COMPILER, "lam", MTD_LAM);
+                        return;
+                    }
+                    case Term.Pi pi -> {
+                        code.aload(0);
+                        constant(code, pi, CD_TERM_PI);
+                        emit(code, pi.type());
+                        code.invokestatic(CD_COMPILER, "pi", MTD_PI);
+                        return;
+                    }
+                    case Term.Univ _ -> {
+                        constant(code, Value.UNIV, CD_VALUE);
+                        return;
+                    }
+                    case Term.App(Term func, ImmSeq<Term> args) -> {
+                        emitApp(code, func, args);
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void emitApp(@NotNull CodeBuilder code,
+                             @NotNull Term func,
+                             @NotNull ImmSeq<Term> args) {
+            Term head = ClosureCompiler.unwrap(func);
+            Term.Lam lam = null;
+            Value.Lam linked = null;
+            if (head instanceof Term.Lam headLam && headLam.paramNames().size() <= args.size()) {
+                lam = headLam;
+            } else {
+                linked = ClosureCompiler.linked(env, head, args.size());
+            }
+            int arity = lam != null
+                ? lam.paramNames().size()
+                : linked != null ? linked.paramNames().size() : 0;
+
+            ImmSeq<Term> rest = args.subList(arity);
+            if (!rest.isEmpty()) {
+                constant(code, eval, CD_EVAL);
+            }
+
+            if (lam != null) {
+                code.aload(0);
+                emitPush(code, args.subList(0, arity));
+                code.invokestatic(CD_COMPILED, method(lambda(lam)), MTD_RUN);
+            } else if (linked != null) {
+                emitCall(code, (Term.Free) head, linked, args.subList(0, arity));
+            } else {
+                emit(code, func);
+            }
+
+            if (rest.isEmpty()) {
+                return;
+            }
+            emitArray(code, rest);
+            code.invokestatic(CD_IMM_SEQ, "ofUnsafe", MTD_OF_UNSAFE)
+                .invokevirtual(CD_EVAL, "apply", MTD_APPLY);
+        }
+
+        /// Call the compiled code of `lam`, the definition of `global`, with the values of `args`,
+        /// and glue the result.
+        private void emitCall(@NotNull CodeBuilder code,
+                              @NotNull Term.Free global,
+                              @NotNull Value.Lam lam,
+                              @NotNull ImmSeq<Term> args) {
+            Value.Code lamCode = lam.code();
+            assert lamCode != null;
+
+            int argValues = code.allocateLocal(TypeKind.REFERENCE);
+            emitArray(code, args);
+            code.invokestatic(CD_IMM_SEQ, "ofUnsafe", MTD_OF_UNSAFE)
+                .astore(argValues);
+
+            constant(code, global, CD_TERM_FREE);
+            code.aload(argValues);
+            constant(code, lamCode, CD_CODE);
+            constant(code, lam.localEnv(), CD_SKEW_LIST);
+            code.aload(argValues)
+                .invokevirtual(CD_SKEW_LIST, "pushAll", MTD_PUSH_ALL)
+                .invokeinterface(CD_CODE, "run", MTD_RUN)
+                .invokestatic(CD_COMPILER, "glued", MTD_GLUED);
+        }
+
+        /// A `Value[]` of the values of `args`.
+        private void emitArray(@NotNull CodeBuilder code, @NotNull ImmSeq<Term> args) {
+            code.loadConstant(args.size()).anewarray(CD_VALUE);
+            for (int i = 0; i < args.size(); i++) {
+                code.dup().loadConstant(i);
+                emit(code, args.get(i));
+                code.aastore();
+            }
+        }
+
+        /// Push the values of `args` onto the local environment on top of the stack.
+        private void emitPush(@NotNull CodeBuilder code, @NotNull ImmSeq<Term> args) {
+            for (Term arg : args) {
+                emit(code, arg);
+                code.invokevirtual(CD_SKEW_LIST, "push", MTD_PUSH);
+            }
+        }
+
+        private void constant(@NotNull CodeBuilder code, @NotNull Object value, ClassDesc type) {
+            Integer index = constantIndices.get(value);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                constantIndices.put(value, index);
+            }
+            code.loadConstant(DynamicConstantDesc.ofNamed(ConstantDescs.BSM_CLASS_DATA_AT,
+                                                          ConstantDescs.DEFAULT_NAME,
+                                                          type,
+                                                          index));
+        }
+
+        /// The index of the method compiled for the body of `lam`.
+        private int lambda(@NotNull Term.Lam lam) {
+            Integer index = lambdaIndices.get(lam);
+            if (index == null) {
+                index = bodies.size();
+                bodies.add(lam.body());
+                lambdaIndices.put(lam, index);
+            }
+            return index;
+        }
+
+        final List<Object> constants = new ArrayList<>();
+
+        private final IdentityHashMap<Object, Integer> constantIndices = new IdentityHashMap<>();
+        private final List<Term> bodies = new ArrayList<>();
+        private final IdentityHashMap<Term.Lam, Integer> lambdaIndices = new IdentityHashMap<>();
+    }
+
+    private static @NotNull String method(int index) {
+        return "code" + index;
+    }
+
+    private BytecodeCompiler(Env env) {
+        this.env = env;
+        this.eval = Eval.make(env);
+    }
+
+    private static final String INDEX = "index";
+
+    private static final ClassDesc CD_COMPILED =
+        ClassDesc.of(BytecodeCompiler.class.getPackageName(), "Compiled");
+    private static final ClassDesc CD_COMPILER = ClassDesc.of(BytecodeCompiler.class.getName());
+    private static final ClassDesc CD_EVAL = ClassDesc.of(Eval.class.getName());
+    private static final ClassDesc CD_VALUE = ClassDesc.of(Value.class.getName());
+    private static final ClassDesc CD_CODE = ClassDesc.of(Value.Code.class.getName());
+    private static final ClassDesc CD_TERM_FREE = ClassDesc.of(Term.Free.class.getName());
+    private static final ClassDesc CD_TERM_LAM = ClassDesc.of(Term.Lam.class.getName());
+    private static final ClassDesc CD_TERM_PI = ClassDesc.of(Term.Pi.class.getName());
+    private static final ClassDesc CD_SKEW_LIST = ClassDesc.of(SkewList.class.getName());
+    private static final ClassDesc CD_IMM_SEQ = ClassDesc.of(ImmSeq.class.getName());
+    private static final ClassDesc CD_ILLEGAL_STATE =
+        ClassDesc.of(IllegalStateException.class.getName());
+
+    private static final MethodTypeDesc MTD_INIT =
+        MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_int);
+    private static final MethodTypeDesc MTD_RUN = MethodTypeDesc.of(CD_VALUE, CD_SKEW_LIST);
+    private static final MethodTypeDesc MTD_GET =
+        MethodTypeDesc.of(ConstantDescs.CD_Object, ConstantDescs.CD_int);
+    private static final MethodTypeDesc MTD_PUSH =
+        MethodTypeDesc.of(CD_SKEW_LIST, ConstantDescs.CD_Object);
+    private static final MethodTypeDesc MTD_PUSH_ALL =
+        MethodTypeDesc.of(CD_SKEW_LIST, ConstantDescs.CD_List);
+    private static final MethodTypeDesc MTD_OF_UNSAFE =
+        MethodTypeDesc.of(CD_IMM_SEQ, ConstantDescs.CD_Object.arrayType());
+    private static final MethodTypeDesc MTD_APPLY =
+        MethodTypeDesc.of(CD_VALUE, CD_VALUE, CD_IMM_SEQ);
+    private static final MethodTypeDesc MTD_LAM =
+        MethodTypeDesc.of(CD_VALUE, CD_SKEW_LIST, CD_TERM_LAM, CD_CODE);
+    private static final MethodTypeDesc MTD_PI =
+        MethodTypeDesc.of(CD_VALUE, CD_SKEW_LIST, CD_TERM_PI, CD_VALUE);
+    private static final MethodTypeDesc MTD_GLUED =
+        MethodTypeDesc.of(CD_VALUE, CD_TERM_FREE, CD_IMM_SEQ, CD_VALUE);
+    private static final MethodTypeDesc MTD_UNBOUND =
+        MethodTypeDesc.of(CD_VALUE, ConstantDescs.CD_String);
+
+    private final Env env;
+    private final Eval eval;
+}
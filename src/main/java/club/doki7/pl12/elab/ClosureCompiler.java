@@ -0,0 +1,234 @@
+package club.doki7.pl12.elab;
+
+import club.doki7.pl12.core.Name;
+import club.doki7.pl12.core.Term;
+import club.doki7.pl12.core.Type;
+import club.doki7.pl12.core.Value;
+import club.doki7.pl12.util.ImmSeq;
+import club.doki7.pl12.util.SkewList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/// Compiles {@link Term}s to trees of closures ({@link Value.Code}), so that a term evaluated many
+/// times is only analysed once.
+///
+/// {@link Eval} walks the term on every evaluation: it switches on the node kind, looks up every
+/// variable in the local environment, and every global by name. Here that happens once, at compile
+/// time:
+///
+/// - Each binder group, the parameters of one lambda, gets a {@link Frame}: an array of their
+///   values. A {@link Term.Bound} is resolved to a slot of the frame of its binder, so looking it
+///   up is following a fixed number of parent links and reading the array.
+/// - Globals are resolved to their {@link Env.Entry} and become constant {@link Value.Glued}
+///   values, folded like those {@link Eval} makes. A global applied to enough arguments, whose
+///   definition is a lambda with compiled code, runs that code directly, and only the result gets
+///   glued.
+///
+/// The body of every lambda is compiled along with the lambda, then carried by the
+/// {@link Value.Lam}s it evaluates to, so applying them runs the compiled body as well.
+///
+/// The values produced are exactly those {@link Eval#eval(Term)} produces, up to the compiled code
+/// they carry, so they can be freely mixed: {@link Eval} applies and reifies compiled lambdas, and
+/// the bodies of {@link Value.Pi}s are still evaluated by it. To that end every frame also keeps
+/// the local environment it stands for, which closures are made with.
+///
+/// Compiling costs more than evaluating once, so code is meant to be kept: {@link Env#define}
+/// compiles every definition once, when it is added, see {@link Backend}.
+public final class ClosureCompiler {
+    public static ClosureCompiler make(Env env) {
+        return new ClosureCompiler(env);
+    }
+
+    public @NotNull Value.Code compile(@NotNull Term term) {
+        Node node = compile(term, null);
+        return localEnv -> node.run(new Frame(NO_SLOTS, null, localEnv));
+    }
+
+    /// The lambda that `head` is defined as, if `head` is a global whose definition is a compiled
+    /// lambda taking at most `argCount` parameters. Applying `head` to `argCount` arguments may
+    /// then call the code of the lambda directly.
+    static @Nullable Value.Lam linked(@NotNull Env env, @NotNull Term head, int argCount) {
+        if (!(head instanceof Term.Free(Name.Global(String name)))) {
+            return null;
+        }
+
+        Env.Entry entry = env.lookup(name);
+        if (entry != null
+            && entry.value() instanceof Value.Rigid(Value.Lam lam, ImmSeq<Value> spine)
+            && spine.isEmpty()
+            && lam.code() != null
+            && lam.paramNames().size() <= argCount) {
+            return lam;
+        }
+        return null;
+    }
+
+    /// The values bound by one binder group, in the order they were bound, and the frame of the
+    /// group around it. `localEnv` holds the same values and all those around, as {@link Eval}
+    /// expects them.
+    private record Frame(Value @NotNull[] slots,
+                         @Nullable Frame parent,
+                         @NotNull SkewList<Value> localEnv) {}
+
+    /// The binder groups around a term at compile time, innermost first, by their sizes.
+    private record Scope(int size, @Nullable Scope parent) {}
+
+    /// A compiled term, which evaluates it in a {@link Frame}.
+    @FunctionalInterface
+    private interface Node {
+        @NotNull Value run(@NotNull Frame frame);
+    }
+
+    private @NotNull Node compile(@NotNull Term term, @Nullable Scope scope) {
+        while (true) {
+            switch (term) {
+                case Term.Ann(Term annotated, _) -> term = annotated;
+                case Term.SolvedMeta(_, Term solution) -> term = solution;
+
+                case Term.Bound(int index, _) -> {
+                    return bound(index, scope);
+                }
+                case Term.Free free -> {
+                    if (free.name() instanceof Name.Global(String name)) {
+                        Env.Entry entry = env.lookup(name);
+                        if (entry == null) {
+                            return _ -> {
+                                throw new IllegalStateException("Unbound global: " + name);
+                            };
+                        }
+                        Value glued = new Value.Glued(free,
+                                                      ImmSeq.nil(),
+                                                      new Value.Thunk(entry::value));
+                        return _ -> glued;
+                    }
+                    Value value = new Value.Rigid(free, ImmSeq.nil());
+                    return _ -> value;
+                }
+                case Term.Meta meta -> {
+                    Value value = new Value.Flex(meta, ImmSeq.nil());
+                    return _ -> value;
+                }
+                case Term.Lam(ImmSeq<String> names, Term body) -> {
+                    int size = names.size();
+                    Node bodyNode = compile(body, new Scope(size, scope));
+                    return frame -> {
+                        Value.Code code = localEnv -> {
+                            Value[] slots = new Value[size];
+                            for (int i = 0; i < size; i++) {
+                                slots[i] = localEnv.get(size - 1 - i);
+                            }
+                            return bodyNode.run(new Frame(slots, frame, localEnv));
+                        };
+                        return new Value.Rigid(
+                            new Value.Lam(frame.localEnv(), names, body, code),
+                            ImmSeq.nil()
+                        );
+                    };
+                }
+                case Term.Pi(String paramName, Term type, Term body) -> {
+                    Node typeNode = compile(type, scope);
+                    return frame -> new Value.Pi(frame.localEnv(),
+                                                 paramName,
+                                                 Type.ofVal(typeNode.run(frame)),
+                                                 body);
+                }
+                case Term.Univ _ -> {
+                    return _ -> Value.UNIV;
+                }
+                case Term.App(Term func, ImmSeq<Term> args) -> {
+                    return compileApp(func, args, scope);
+                }
+            }
+        }
+    }
+
+    /// Look up a variable in the slot its binder gave it, or in the local environment the term is
+    /// evaluated in if it is bound outside the term.
+    private static @NotNull Node bound(int index, @Nullable Scope scope) {
+        int depth = 0;
+        int offset = index;
+        while (scope != null && offset >= scope.size()) {
+            offset -= scope.size();
+            scope = scope.parent();
+            depth += 1;
+        }
+        if (scope == null) {
+            return frame -> frame.localEnv().get(index);
+        }
+
+        int slot = scope.size() - 1 - offset;
+        if (depth == 0) {
+            return frame -> frame.slots()[slot];
+        }
+        int parents = depth;
+        return frame -> {
+            for (int i = 0; i < parents; i++) {
+                frame = frame.parent();
+                assert frame != null;
+            }
+            return frame.slots()[slot];
+        };
+    }
+
+    private @NotNull Node compileApp(@NotNull Term func,
+                                     @NotNull ImmSeq<Term> args,
+                                     @Nullable Scope scope) {
+        Node[] argNodes = new Node[args.size()];
+        for (int i = 0; i < args.size(); i++) {
+            argNodes[i] = compile(args.get(i), scope);
+        }
+
+        Term head = unwrap(func);
+        Value.Lam lam = linked(env, head, args.size());
+        if (lam != null) {
+            Term.Free global = (Term.Free) head;
+            Value.Code code = lam.code();
+            assert code != null;
+            SkewList<Value> lamEnv = lam.localEnv();
+            int arity = lam.paramNames().size();
+            return frame -> {
+                ImmSeq<Value> argValues = runAll(argNodes, frame);
+                ImmSeq<Value> applied = argValues.subList(0, arity);
+                Value result = code.run(lamEnv.pushAll(applied));
+                Value glued = new Value.Glued(global, applied, Value.Thunk.forced(result));
+                return arity == argNodes.length
+                    ? glued
+                    : eval.apply(glued, argValues.subList(arity));
+            };
+        }
+
+        Node funcNode = compile(func, scope);
+        return frame -> eval.apply(funcNode.run(frame), runAll(argNodes, frame));
+    }
+
+    /// Skip annotations and solved metas, which evaluate to what they wrap.
+    static @NotNull Term unwrap(@NotNull Term term) {
+        while (true) {
+            switch (term) {
+                case Term.Ann(Term annotated, _) -> term = annotated;
+                case Term.SolvedMeta(_, Term solution) -> term = solution;
+                default -> {
+                    return term;
+                }
+            }
+        }
+    }
+
+    private static @NotNull ImmSeq<Value> runAll(Node @NotNull[] nodes, @NotNull Frame frame) {
+        Value[] values = new Value[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            values[i] = nodes[i].run(frame);
+        }
+        return ImmSeq.ofUnsafe(values);
+    }
+
+    private ClosureCompiler(Env env) {
+        this.env = env;
+        this.eval = Eval.make(env);
+    }
+
+    private static final Value[] NO_SLOTS = new Value[0];
+
+    private final Env env;
+    private final Eval eval;
+}
@@ -0,0 +1,112 @@
+package club.doki7.pl12.elab;
+
+import club.doki7.pl12.core.Name;
+import club.doki7.pl12.core.Term;
+import club.doki7.pl12.core.Type;
+import club.doki7.pl12.core.Value;
+import club.doki7.pl12.util.ImmSeq;
+import org.jetbrains.annotations.NotNull;
+
+/// Decides whether two values are convertible: equal up to β, η, and unfolding globals.
+///
+/// Globals are kept folded for as long as possible. Two applications of the same global are first
+/// compared by their spines, which is usually far cheaper than comparing what they unfold to, and a
+/// {@link Value.Glued} value is only unfolded when that fails, or the other side is something else.
+public final class Conv {
+    public static Conv make(Eval eval) {
+        return new Conv(eval);
+    }
+
+    public boolean conv(@NotNull Value lhs, @NotNull Value rhs) {
+        return conv(0, lhs, rhs);
+    }
+
+    public boolean conv(@NotNull Type lhs, @NotNull Type rhs) {
+        return conv(0, lhs.value(), rhs.value());
+    }
+
+    private boolean conv(int level, Value lhs, Value rhs) {
+        lhs = Value.force(lhs);
+        rhs = Value.force(rhs);
+        if (lhs == rhs) {
+            return true;
+        }
+
+        if (lhs instanceof Value.Glued(Term.Free head, ImmSeq<Value> spine, _)
+            && rhs instanceof Value.Glued(Term.Free otherHead, ImmSeq<Value> otherSpine, _)
+            && head.equals(otherHead)
+            && convSpine(level, spine, otherSpine)) {
+            return true;
+        }
+        if (lhs instanceof Value.Glued glued) {
+            return conv(level, glued.unfolded().force(), rhs);
+        }
+        if (rhs instanceof Value.Glued glued) {
+            return conv(level, lhs, glued.unfolded().force());
+        }
+
+        if (isLam(lhs) || isLam(rhs)) {
+            // η: both have to give the same result when applied to a fresh variable
+            if (!isFunction(lhs) || !isFunction(rhs)) {
+                return false;
+            }
+            ImmSeq<Value> fresh = ImmSeq.of(fresh(level, "x"));
+            return conv(level + 1, eval.apply(lhs, fresh), eval.apply(rhs, fresh));
+        }
+
+        return switch (lhs) {
+            case Value.Flex(Term.Meta head, ImmSeq<Value> spine) ->
+                rhs instanceof Value.Flex(Term.Meta otherHead, ImmSeq<Value> otherSpine)
+                && head.equals(otherHead)
+                && convSpine(level, spine, otherSpine);
+            case Value.Rigid(Value.RigidHead head, ImmSeq<Value> spine) ->
+                rhs instanceof Value.Rigid(Value.RigidHead otherHead, ImmSeq<Value> otherSpine)
+                && head.equals(otherHead)
+                && convSpine(level, spine, otherSpine);
+            case Value.Pi pi -> {
+                if (!(rhs instanceof Value.Pi otherPi)
+                    || !conv(level, pi.paramType().value(), otherPi.paramType().value())) {
+                    yield false;
+                }
+                Value param = fresh(level, pi.paramName() != null ? pi.paramName() : "");
+                yield conv(level + 1,
+                           eval.instantiate(pi, param),
+                           eval.instantiate(otherPi, param));
+            }
+            case Value.Univ _ -> rhs instanceof Value.Univ;
+            case Value.Glued _, Value.Thunk _ ->
+                throw new IllegalStateException("Not forced or unfolded: " + lhs);
+        };
+    }
+
+    private boolean convSpine(int level, ImmSeq<Value> lhs, ImmSeq<Value> rhs) {
+        if (lhs.size() != rhs.size()) {
+            return false;
+        }
+        for (int i = 0; i < lhs.size(); i++) {
+            if (!conv(level, lhs.get(i), rhs.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLam(Value value) {
+        return value instanceof Value.Rigid(Value.Lam _, _);
+    }
+
+    /// Whether `value` can be applied, once {@link Value.Glued} values are unfolded.
+    private static boolean isFunction(Value value) {
+        return value instanceof Value.Rigid || value instanceof Value.Flex;
+    }
+
+    private static Value fresh(int level, String name) {
+        return new Value.Rigid(new Term.Free(new Name.Quote(level, name)), ImmSeq.nil());
+    }
+
+    private Conv(Eval eval) {
+        this.eval = eval;
+    }
+
+    private final Eval eval;
+}
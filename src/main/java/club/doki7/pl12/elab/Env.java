@@ -1,8 +1,11 @@
 package club.doki7.pl12.elab;
 
+import club.doki7.pl12.core.Term;
 import club.doki7.pl12.core.Type;
 import club.doki7.pl12.core.Value;
+import club.doki7.pl12.exc.TypeCheckException;
 import club.doki7.pl12.syntax.Token;
+import club.doki7.pl12.util.SkewList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -32,18 +35,55 @@ public final class Env {
         return null;
     }
 
+    /// Globals cannot be redefined: once added, an entry, and the values compiled against it, stay
+    /// valid for good.
+    public void add(@NotNull Entry entry) throws TypeCheckException {
+        Entry previous = entries.putIfAbsent(entry.name(), entry);
+        if (previous != null) {
+            TypeCheckException exc =
+                new TypeCheckException(entry.location().range(),
+                                       "重复定义的全局变量 '" + entry.name() + "'");
+            exc.addTrace(previous.location().range(), "先前定义于此处");
+            throw exc;
+        }
+    }
+
+    /// Add `name`, defined as `body`, compiling `body` once and for all with the {@link Backend}
+    /// of this environment.
+    ///
+    /// The lambdas in the value carry their compiled bodies, see {@link Value.Lam#code()}, so
+    /// every later use of the global runs the code compiled here rather than compiling or walking
+    /// `body` again.
+    public @NotNull Entry define(@NotNull String name,
+                                 @NotNull Type type,
+                                 @NotNull Term body,
+                                 @NotNull Token location) throws TypeCheckException {
+        @Nullable Value.Code code = backend.compile(this, body);
+        Value value = code != null ? code.run(SkewList.nil()) : Eval.make(this).eval(body);
+        Entry entry = new Entry(name, type, value, location);
+        add(entry);
+        return entry;
+    }
+
     public @Nullable Module getModule(@NotNull String name) {
         return modules.get(name);
     }
 
+    /// An environment for this session, compiling with {@link Backend#ofSession()}.
     public static Env empty() {
-        return new Env(null);
+        return empty(Backend.ofSession());
+    }
+
+    public static Env empty(@NotNull Backend backend) {
+        return new Env(null, backend);
     }
 
-    private Env(@Nullable Env parent) {
+    private Env(@Nullable Env parent, @NotNull Backend backend) {
         this.parent = parent;
+        this.backend = backend;
     }
 
+    private final @NotNull Backend backend;
     private final HashMap<String, Entry> entries = new HashMap<>();
     private final HashMap<String, Module> modules = new HashMap<>();
 }
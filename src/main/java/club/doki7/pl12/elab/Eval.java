@@ -4,34 +4,67 @@ import club.doki7.pl12.core.Name;
 import club.doki7.pl12.core.Term;
 import club.doki7.pl12.core.Type;
 import club.doki7.pl12.core.Value;
-import club.doki7.pl12.util.SnocList;
 import club.doki7.pl12.util.ImmSeq;
-
+import club.doki7.pl12.util.SkewList;
+
+/// Evaluates core terms to values, and reads values back as terms in normal form.
+///
+/// By default evaluation is strict: every argument is evaluated before the function is applied.
+/// An {@link #makeLazy lazy} evaluator instead passes arguments that are applications as
+/// {@link Value.Thunk}s, which are only evaluated when something inspects them: the head of an
+/// application, or {@link #reify}. This saves evaluating arguments that are never used, such as the
+/// type indices most functions ignore. Either way the values read back as the same terms.
+///
+/// Globals evaluate to {@link Value.Glued} values, which keep the global folded and only unfold it
+/// on demand. {@link #reify} reads back the unfolded forms, and {@link #reifyFolded} the folded
+/// ones, which are usually much smaller.
 public final class Eval {
     public static Eval make(Env env) {
-        return new Eval(env);
+        return new Eval(env, false);
+    }
+
+    /// An evaluator that evaluates arguments call-by-need.
+    ///
+    /// Choose it when many arguments go unused. When everything evaluated ends up in the normal
+    /// form anyway, the thunks are pure overhead: lazy mode is then about 25% slower than
+    /// {@link #make strict} mode, and up to half again as slow in some runs of `EvalBenchmark` in
+    /// the test sources.
+    public static Eval makeLazy(Env env) {
+        return new Eval(env, true);
     }
 
+    /// The value of `term`, itself never a {@link Value.Thunk}.
     public Value eval(Term term) {
-        return eval(SnocList.nil(), term);
+        return Value.force(eval(SkewList.nil(), term));
     }
 
+    /// The normal form of `value`, with every global unfolded.
     public Term reify(Value value) {
-        return reify(0, value);
+        return reify(0, value, true);
     }
 
     public Term reify(Type type) {
-        return reify(0, type.value());
+        return reify(0, type.value(), true);
+    }
+
+    /// `value` read back with globals left as they are, as far as they have not been unfolded
+    /// already.
+    public Term reifyFolded(Value value) {
+        return reify(0, value, false);
+    }
+
+    public Term reifyFolded(Type type) {
+        return reify(0, type.value(), false);
     }
 
-    private Value eval(SnocList<ImmSeq<Value>> localEnv, Term term) {
+    private Value eval(SkewList<Value> localEnv, Term term) {
         while (true) {
             switch (term) {
                 case Term.Ann(Term annotated, _) -> term = annotated;
                 case Term.SolvedMeta(_, Term solution) -> term = solution;
 
                 case Term.Bound(int index, _) -> {
-                    return DBI.get(localEnv, index);
+                    return localEnv.get(index);
                 }
                 case Term.Free free -> {
                     if (free.name() instanceof Name.Global(String name)) {
@@ -39,7 +72,7 @@ public final class Eval {
                         if (entry == null) {
                             throw new IllegalStateException("Unbound global: " + name);
                         }
-                        return entry.value();
+                        return new Value.Glued(free, ImmSeq.nil(), new Value.Thunk(entry::value));
                     }
                     return new Value.Rigid(free, ImmSeq.nil());
                 }
@@ -60,7 +93,7 @@ public final class Eval {
                     Value funcValue = eval(localEnv, func);
                     Value[] argValues = new Value[args.size()];
                     for (int i = 0; i < args.size(); i++) {
-                        argValues[i] = eval(localEnv, args.get(i));
+                        argValues[i] = evalArg(localEnv, args.get(i));
                     }
 
                     return apply(funcValue, ImmSeq.ofUnsafe(argValues));
@@ -69,7 +102,15 @@ public final class Eval {
         }
     }
 
-    private Value apply(Value funcValue, ImmSeq<Value> args) {
+    private Value evalArg(SkewList<Value> localEnv, Term arg) {
+        if (lazy && arg instanceof Term.App) {
+            return new Value.Thunk(() -> eval(localEnv, arg));
+        }
+        return eval(localEnv, arg);
+    }
+
+    /// The result may be a {@link Value.Thunk}, if a lambda returns one of its arguments.
+    Value apply(Value funcValue, ImmSeq<Value> args) {
         while (!args.isEmpty()) {
             switch (funcValue) {
                 case Value.Flex(Term.Meta head, ImmSeq<Value> args0) -> {
@@ -86,38 +127,63 @@ public final class Eval {
                     }
 
                     ImmSeq<Value> appliedArgs = allArgs.subList(0, lam.paramNames().size());
-                    funcValue = eval(SnocList.snoc(lam.localEnv(), appliedArgs), lam.body());
+                    funcValue = run(lam, lam.localEnv().pushAll(appliedArgs));
                     args = allArgs.subList(lam.paramNames().size());
                 }
                 case Value.Pi _ -> throw new IllegalStateException("Cannot apply a Pi type");
                 case Value.Univ _ -> throw new IllegalStateException("Cannot apply a Univ type");
+                case Value.Glued(Term.Free head, ImmSeq<Value> spine, Value.Thunk unfolded) -> {
+                    ImmSeq<Value> appliedArgs = args;
+                    return new Value.Glued(
+                        head,
+                        ImmSeq.concat(spine, appliedArgs),
+                        new Value.Thunk(() -> apply(unfolded.force(), appliedArgs))
+                    );
+                }
+                case Value.Thunk thunk -> funcValue = thunk.force();
             }
         }
         return funcValue;
     }
 
-    private Term reify(int level, Value value) {
+    /// The body of `pi`, with its parameter bound to `arg`.
+    Value instantiate(Value.Pi pi, Value arg) {
+        return eval(pi.localEnv().push(arg), pi.body());
+    }
+
+    /// Evaluate the body of `lam` in `localEnv`, running its compiled code if it has any.
+    private Value run(Value.Lam lam, SkewList<Value> localEnv) {
+        Value.Code code = lam.code();
+        return code != null ? code.run(localEnv) : eval(localEnv, lam.body());
+    }
+
+    private Term reify(int level, Value value, boolean unfold) {
         return switch (value) {
-            case Value.Flex(Term.Meta head, ImmSeq<Value> spine) -> reifySpine(level, head, spine);
+            case Value.Flex(Term.Meta head, ImmSeq<Value> spine) ->
+                reifySpine(level, head, spine, unfold);
             case Value.Rigid(Value.RigidHead head, ImmSeq<Value> spine) -> switch (head) {
                 case Value.Lam lam -> {
                     if (!spine.isEmpty()) {
                         lam = forcePartial(lam, spine);
                     }
-                    yield reifyLam(level, lam);
+                    yield reifyLam(level, lam, unfold);
                 }
-                case Term.Free free -> reifySpine(level, free, spine);
+                case Term.Free free -> reifySpine(level, free, spine, unfold);
             };
-            case Value.Pi pi -> reifyPi(level, pi);
+            case Value.Glued(Term.Free head, ImmSeq<Value> spine, Value.Thunk unfolded) -> unfold
+                ? reify(level, unfolded.force(), true)
+                : reifySpine(level, head, spine, false);
+            case Value.Pi pi -> reifyPi(level, pi, unfold);
             case Value.Univ _ -> Term.UNIV;
+            case Value.Thunk thunk -> reify(level, thunk.force(), unfold);
         };
     }
 
-    private Term reify(int level, Type type) {
-        return reify(level, type.value());
+    private Term reify(int level, Type type, boolean unfold) {
+        return reify(level, type.value(), unfold);
     }
 
-    private Term reifySpine(int level, Term head, ImmSeq<Value> spine) {
+    private Term reifySpine(int level, Term head, ImmSeq<Value> spine, boolean unfold) {
         if (head instanceof Term.Free(Name.Quote(int quotedLevel, String name))) {
             head = new Term.Bound(level - quotedLevel - 1, name);
         }
@@ -128,12 +194,12 @@ public final class Eval {
 
         Term[] spineTerms = new Term[spine.size()];
         for (int i = 0; i < spine.size(); i++) {
-            spineTerms[i] = reify(level, spine.get(i));
+            spineTerms[i] = reify(level, spine.get(i), unfold);
         }
         return new Term.App(head, ImmSeq.ofUnsafe(spineTerms));
     }
 
-    private Term.Lam reifyLam(int level, Value.Lam lam) {
+    private Term.Lam reifyLam(int level, Value.Lam lam, boolean unfold) {
         ImmSeq<String> paramNames = lam.paramNames();
         int paramCount = paramNames.size();
 
@@ -144,10 +210,9 @@ public final class Eval {
             freshVars[i] = new Value.Rigid(free, ImmSeq.nil());
         }
 
-        SnocList<ImmSeq<Value>> extendedEnv = SnocList.snoc(lam.localEnv(),
-                                                            ImmSeq.ofUnsafe(freshVars));
-        Value bodyValue = eval(extendedEnv, lam.body());
-        Term body = reify(level + paramCount, bodyValue);
+        SkewList<Value> extendedEnv = lam.localEnv().pushAll(ImmSeq.ofUnsafe(freshVars));
+        Value bodyValue = run(lam, extendedEnv);
+        Term body = reify(level + paramCount, bodyValue, unfold);
 
         if (body instanceof Term.Lam(ImmSeq<String> paramNames1, Term body1)) {
             ImmSeq<String> allParamNames = ImmSeq.concat((paramNames), paramNames1);
@@ -156,30 +221,33 @@ public final class Eval {
         return new Term.Lam(lam.paramNames(), body);
     }
 
-    private Term.Pi reifyPi(int level, Value.Pi pi) {
-        Term paramType = reify(level, pi.paramType());
+    private Term.Pi reifyPi(int level, Value.Pi pi, boolean unfold) {
+        Term paramType = reify(level, pi.paramType(), unfold);
         Term.Free paramTerm = new Term.Free(new Name.Quote(level,
                                                            pi.paramName() != null
                                                                ? pi.paramName()
                                                                : ""));
         Term body = reify(level + 1,
-                          eval(SnocList.snoc(pi.localEnv(),
-                                             ImmSeq.of(new Value.Rigid(paramTerm, ImmSeq.nil()))),
-                               pi.body()));
+                          eval(pi.localEnv().push(new Value.Rigid(paramTerm, ImmSeq.nil())),
+                               pi.body()),
+                          unfold);
 
         return new Term.Pi(pi.paramName(), paramType, body);
     }
 
     private Value.Lam forcePartial(Value.Lam lam, ImmSeq<Value> args) {
         assert !args.isEmpty() && lam.paramNames().size() > args.size();
-        return new Value.Lam(SnocList.snoc(lam.localEnv(), args),
+        return new Value.Lam(lam.localEnv().pushAll(args),
                              lam.paramNames().subList(args.size()),
-                             lam.body());
+                             lam.body(),
+                             lam.code());
     }
 
-    private Eval(Env env) {
+    private Eval(Env env, boolean lazy) {
         this.env = env;
+        this.lazy = lazy;
     }
 
     private final Env env;
+    private final boolean lazy;
 }
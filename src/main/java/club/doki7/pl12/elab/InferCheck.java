@@ -41,10 +41,10 @@ public final class InferCheck {
         Type inferredType = inferred.second();
 
         // TODO: implement unification
-        if (!inferredType.equals(expectedType)) {
+        if (!ctx.conv(inferredType, expectedType)) {
             throw new TypeCheckException(
                 SourceRange.INVALID,
-                "类型不匹配: 期望 " + expectedType + "，但推导出 " + inferredType
+                () -> "类型不匹配: 期望 " + expectedType + "，但推导出 " + inferredType
             );
         }
 
@@ -76,6 +76,10 @@ public final class TypeContext {
         return eval.eval(term);
     }
 
+    public boolean conv(@NotNull Type lhs, @NotNull Type rhs) {
+        return conv.conv(lhs, rhs);
+    }
+
     public sealed interface MetaSource {
         record DefParamType(@NotNull Command.Definition def,
                             int paramGroupIndex,
@@ -144,10 +148,12 @@ public final class TypeContext {
     private TypeContext(@NotNull Env env) {
         this.env = env;
         this.eval = Eval.make(env);
+        this.conv = Conv.make(eval);
     }
 
     private final @NotNull Env env;
     private final @NotNull Eval eval;
+    private final @NotNull Conv conv;
     private final @NotNull ArrayList<@Nullable String> localEnv = new ArrayList<>();
     private final @NotNull ArrayList<@Nullable Type> types = new ArrayList<>();
     private final @NotNull ArrayList<@NotNull MetaSource> metaSources = new ArrayList<>();
@@ -1,7 +1,13 @@
 package club.doki7.pl12.exc;
 
+import java.util.function.Supplier;
+
 public final class LexicalException extends ParseException {
     public LexicalException(SourceRange location, String message) {
         super(location, LexicalException.class, message);
     }
+
+    public LexicalException(SourceRange location, Supplier<String> message) {
+        super(location, LexicalException.class, message);
+    }
 }
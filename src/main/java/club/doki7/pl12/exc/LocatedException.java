@@ -3,24 +3,55 @@ package club.doki7.pl12.exc;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
+/// A diagnostic about some location in the source.
+///
+/// These are thrown and caught a lot while parsing with recovery or elaborating speculatively, so
+/// they are cheap to create: no stack trace is captured (unless `-Dpl12.stackTraces=true` is set,
+/// for debugging the compiler itself), and the message is only formatted by {@link #getMessage()}
+/// and {@link #message()}.
 public abstract class LocatedException extends Exception {
     public record LocatedMessage(@Nullable SourceRange location, @NotNull String message) {}
 
     public final SourceRange location;
-    public final String message;
     public final List<LocatedMessage> trace = new ArrayList<>();
 
     public LocatedException(SourceRange location, Class<?> clazz, String message) {
-        super(location.start().file()
-              + ":" + location.start().line()
-              + ":" + location.start().col()
-              + ": " + clazz.getSimpleName()
-              + ": " + message);
+        this(location, clazz, () -> message);
+    }
+
+    public LocatedException(SourceRange location, Class<?> clazz, Supplier<String> message) {
+        super(null, null, false, STACK_TRACES);
         this.location = location;
-        this.message = message;
+        this.messageSupplier = message;
+        this.clazz = clazz;
+    }
+
+    /// The message, without the location and exception kind.
+    public @NotNull String message() {
+        String msg = message;
+        if (msg == null) {
+            msg = messageSupplier.get();
+            message = msg;
+        }
+        return msg;
+    }
+
+    /// Formatted on demand, since finding the line and column of the location takes a lookup in
+    /// the line index of the source file.
+    @Override
+    public String getMessage() {
+        return location.file()
+               + ":" + location.line()
+               + ":" + location.col()
+               + ": " + clazz.getSimpleName()
+               + ": " + message();
     }
 
     public void addTrace(SourceRange location, String message) {
@@ -30,4 +61,17 @@ public abstract class LocatedException extends Exception {
     public void addTrace(String message) {
         trace.add(new LocatedMessage(null, message));
     }
+
+    /// The supplier is not serializable, so the message is formatted before it is written.
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        message();
+        out.defaultWriteObject();
+    }
+
+    private static final boolean STACK_TRACES = Boolean.getBoolean("pl12.stackTraces");
+
+    private final Class<?> clazz;
+    private final transient Supplier<String> messageSupplier;
+    private String message;
 }
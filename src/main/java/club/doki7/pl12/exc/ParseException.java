@@ -1,11 +1,21 @@
 package club.doki7.pl12.exc;
 
+import java.util.function.Supplier;
+
 public sealed class ParseException extends LocatedException permits LexicalException {
     public ParseException(SourceRange location, String message) {
         super(location, ParseException.class, message);
     }
 
+    public ParseException(SourceRange location, Supplier<String> message) {
+        super(location, ParseException.class, message);
+    }
+
     protected ParseException(SourceRange location, Class<?> clazz, String message) {
         super(location, clazz, message);
     }
+
+    protected ParseException(SourceRange location, Class<?> clazz, Supplier<String> message) {
+        super(location, clazz, message);
+    }
 }
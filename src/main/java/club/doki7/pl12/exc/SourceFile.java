@@ -0,0 +1,171 @@
+package club.doki7.pl12.exc;
+
+import club.doki7.pl12.ann.ObjectIdentity;
+import club.doki7.pl12.ann.PreferStaticMethod;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/// A source file, as seen by error reporting.
+///
+/// Tokens and {@link SourceLocation}s only record an offset into the file. Lines and columns are
+/// computed on demand from an index of line starts, which is built in a single pass the first time
+/// it is needed, and is then queried by binary search.
+///
+/// Offsets are `char` indices for text sources, and byte offsets for UTF-8 sources. Columns count
+/// `char`s and code points respectively, starting from 1.
+///
+/// Every file has a small {@link #id()}, so that a {@link SourceRange} can be packed into a `long`,
+/// see {@link SourceRange#packed()}. Ids are never reused, so a packed range cannot turn into one
+/// in some later file. The registry only holds files weakly: once nothing else refers to a file,
+/// {@link #byId} of its id gives {@link #INVALID}. Files created once all {@link #MAX_FILES} ids
+/// are taken get id 0, which is that of {@link #INVALID}.
+@ObjectIdentity
+@PreferStaticMethod("of")
+public final class SourceFile {
+    public static @NotNull SourceFile of(@NotNull String name, char @NotNull[] text) {
+        return Registry.register(new SourceFile(name, text, null));
+    }
+
+    /// A file whose offsets are byte offsets into the UTF-8 encoded `bytes`.
+    public static @NotNull SourceFile ofUtf8(@NotNull String name, @NotNull MemorySegment bytes) {
+        return Registry.register(new SourceFile(name, null, bytes));
+    }
+
+    /// The live file with the given {@link #id()}, or {@link #INVALID}.
+    public static @NotNull SourceFile byId(int id) {
+        return Registry.get(id);
+    }
+
+    public @NotNull String name() {
+        return name;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public int line(int pos) {
+        int[] starts = lineStarts();
+        int index = Arrays.binarySearch(starts, pos);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    public int col(int pos) {
+        int lineStart = lineStarts()[line(pos) - 1];
+        if (bytes == null) {
+            return pos - lineStart + 1;
+        }
+
+        int col = 1;
+        for (long i = lineStart; i < pos; i++) {
+            if ((bytes.get(ValueLayout.JAVA_BYTE, i) & 0xC0) != 0x80) {
+                col++;
+            }
+        }
+        return col;
+    }
+
+    /// Offset just past `text`, assuming it is spelled out in this file starting at `pos`.
+    public int advance(int pos, @NotNull String text) {
+        if (bytes == null) {
+            return pos + text.length();
+        }
+
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return pos + length;
+    }
+
+    /// Offset of the first character of every line, in ascending order.
+    public int @NotNull[] lineStarts() {
+        int[] starts = lineStarts;
+        if (starts == null) {
+            starts = buildLineStarts();
+            lineStarts = starts;
+        }
+        return starts;
+    }
+
+    @Override
+    public @NotNull String toString() {
+        return name;
+    }
+
+    private int[] buildLineStarts() {
+        int length = text != null ? text.length : (int) bytes.byteSize();
+        int[] starts = new int[16];
+        int count = 1;
+        for (int i = 0; i < length; i++) {
+            char c = text != null ? text[i] : (char) bytes.get(ValueLayout.JAVA_BYTE, i);
+            if (c == '\n') {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i + 1;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    private static final class Registry {
+        static synchronized @NotNull SourceFile register(@NotNull SourceFile file) {
+            if (FILES.size() < MAX_FILES) {
+                file.id = FILES.size();
+                FILES.add(new WeakReference<>(file));
+            }
+            // Otherwise out of ids: the file still works, only its packed ranges do not
+            return file;
+        }
+
+        static @NotNull SourceFile get(int id) {
+            @Nullable WeakReference<SourceFile> ref;
+            synchronized (Registry.class) {
+                ref = id > 0 && id < FILES.size() ? FILES.get(id) : null;
+            }
+            SourceFile file = ref != null ? ref.get() : null;
+            return file != null ? file : INVALID;
+        }
+
+        // Slot 0 stands for INVALID
+        private static final List<@Nullable WeakReference<SourceFile>> FILES =
+            new ArrayList<>(Collections.singletonList(null));
+    }
+
+    private SourceFile(@NotNull String name, char[] text, MemorySegment bytes) {
+        this.name = name;
+        this.text = text;
+        this.bytes = bytes;
+    }
+
+    /// Number of distinct ids, see {@link SourceRange#packed()}. Id 0 is {@link #INVALID}.
+    public static final int MAX_FILES = 1 << 16;
+
+    public static final @NotNull SourceFile INVALID =
+        new SourceFile("<invalid>", new char[0], null);
+
+    private final @NotNull String name;
+    private final char[] text;
+    private final MemorySegment bytes;
+    private volatile int[] lineStarts;
+    private int id;
+}
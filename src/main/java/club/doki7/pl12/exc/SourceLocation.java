@@ -2,15 +2,28 @@ package club.doki7.pl12.exc;
 
 import org.jetbrains.annotations.NotNull;
 
-public record SourceLocation(@NotNull String file, int pos, int line, int col) {
+/// An offset into a {@link SourceFile}. The line and column are only computed when asked for.
+public record SourceLocation(@NotNull SourceFile source, int pos) {
+    public @NotNull String file() {
+        return source.name();
+    }
+
+    public int line() {
+        return invalid() ? -1 : source.line(pos);
+    }
+
+    public int col() {
+        return invalid() ? -1 : source.col(pos);
+    }
+
     public boolean invalid() {
-        return line <= 0 || col <= 0;
+        return pos < 0;
     }
 
-    public static @NotNull SourceLocation of(@NotNull String file, int pos, int line, int col) {
-        return new SourceLocation(file, pos, line, col);
+    public static @NotNull SourceLocation of(@NotNull SourceFile source, int pos) {
+        return new SourceLocation(source, pos);
     }
 
     public static final @NotNull SourceLocation INVALID =
-        new SourceLocation("<invalid>", -1, -1, -1);
+        new SourceLocation(SourceFile.INVALID, -1);
 }
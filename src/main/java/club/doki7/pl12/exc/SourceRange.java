@@ -2,25 +2,82 @@ package club.doki7.pl12.exc;
 
 import org.jetbrains.annotations.NotNull;
 
-public record SourceRange(@NotNull SourceLocation start, @NotNull SourceLocation end) {
+/// The offsets `[startPos, endPos)` of a {@link SourceFile}.
+///
+/// A range also fits in a single `long`, see {@link #packed()}, for structures that keep many of
+/// them and would rather not keep an object, let alone a file reference, for each.
+public record SourceRange(@NotNull SourceFile source, int startPos, int endPos) {
     public SourceRange {
-        assert start.file().equals(end.file());
+        assert startPos <= endPos;
     }
 
     public boolean invalid() {
-        return start.invalid() || end.invalid();
+        return startPos < 0;
+    }
+
+    public @NotNull SourceLocation start() {
+        return new SourceLocation(source, startPos);
+    }
+
+    public @NotNull SourceLocation end() {
+        return new SourceLocation(source, endPos);
+    }
+
+    public @NotNull String file() {
+        return source.name();
+    }
+
+    /// Line of the start of the range.
+    public int line() {
+        return invalid() ? -1 : source.line(startPos);
+    }
+
+    /// Column of the start of the range.
+    public int col() {
+        return invalid() ? -1 : source.col(startPos);
+    }
+
+    /// This range as a `long`: the file id in the top 16 bits, the start offset in the next 32, and
+    /// the length in the low 16. Lengths saturate at 65535, so the end of a longer range is lost.
+    public long packed() {
+        return pack(source, startPos, endPos);
+    }
+
+    public static long pack(@NotNull SourceFile source, int startPos, int endPos) {
+        long length = Math.min(endPos - startPos, LENGTH_MASK);
+        return ((long) source.id() << 48) | ((startPos & 0xFFFF_FFFFL) << 16) | length;
+    }
+
+    /// The range `packed` was made from, or one in {@link SourceFile#INVALID} if its file is gone.
+    public static @NotNull SourceRange unpack(long packed) {
+        return new SourceRange(SourceFile.byId(fileId(packed)),
+                               startPos(packed),
+                               endPos(packed));
+    }
+
+    public static int fileId(long packed) {
+        return (int) (packed >>> 48);
+    }
+
+    public static int startPos(long packed) {
+        return (int) (packed >>> 16);
+    }
+
+    public static int endPos(long packed) {
+        return startPos(packed) + (int) (packed & LENGTH_MASK);
     }
 
     public static @NotNull SourceRange of(@NotNull SourceLocation start,
                                           @NotNull SourceLocation end) {
-        return new SourceRange(start, end);
+        assert start.source() == end.source();
+        return new SourceRange(start.source(), start.pos(), end.pos());
     }
 
-    public static @NotNull SourceRange of(@NotNull String file, int pos, int line, int col) {
-        SourceLocation loc = SourceLocation.of(file, pos, line, col);
-        return new SourceRange(loc, loc);
+    public static @NotNull SourceRange of(@NotNull SourceFile source, int pos) {
+        return new SourceRange(source, pos, pos);
     }
 
-    public static final @NotNull SourceRange INVALID =
-        new SourceRange(SourceLocation.INVALID, SourceLocation.INVALID);
+    public static final @NotNull SourceRange INVALID = new SourceRange(SourceFile.INVALID, -1, -1);
+
+    private static final long LENGTH_MASK = 0xFFFF;
 }
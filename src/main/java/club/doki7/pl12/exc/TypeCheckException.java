@@ -1,11 +1,21 @@
 package club.doki7.pl12.exc;
 
+import java.util.function.Supplier;
+
 public sealed class TypeCheckException extends LocatedException permits UnificationException {
     public TypeCheckException(SourceRange location, String message) {
         super(location, TypeCheckException.class, message);
     }
 
+    public TypeCheckException(SourceRange location, Supplier<String> message) {
+        super(location, TypeCheckException.class, message);
+    }
+
     protected TypeCheckException(SourceRange location, Class<?> clazz, String message) {
         super(location, clazz, message);
     }
+
+    protected TypeCheckException(SourceRange location, Class<?> clazz, Supplier<String> message) {
+        super(location, clazz, message);
+    }
 }
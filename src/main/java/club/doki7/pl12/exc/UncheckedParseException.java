@@ -0,0 +1,21 @@
+package club.doki7.pl12.exc;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serial;
+
+/// Wraps a {@link ParseException} where a checked exception cannot be thrown, such as from an
+/// {@link java.util.Iterator} or a {@link java.util.stream.Stream} of commands.
+public final class UncheckedParseException extends RuntimeException {
+    public UncheckedParseException(@NotNull ParseException cause) {
+        super(cause);
+    }
+
+    @Override
+    public synchronized @NotNull ParseException getCause() {
+        return (ParseException) super.getCause();
+    }
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
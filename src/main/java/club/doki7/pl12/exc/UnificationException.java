@@ -1,7 +1,13 @@
 package club.doki7.pl12.exc;
 
+import java.util.function.Supplier;
+
 public final class UnificationException extends TypeCheckException {
     public UnificationException(SourceRange location, String message) {
         super(location, UnificationException.class, message);
     }
+
+    public UnificationException(SourceRange location, Supplier<String> message) {
+        super(location, UnificationException.class, message);
+    }
 }
@@ -1,8 +1,55 @@
 package club.doki7.pl12.prim;
 
+import org.jetbrains.annotations.NotNull;
+
 import java.math.BigInteger;
 
+/// A natural number. Values that fit in a `long` are always represented as {@link Long}, so two
+/// equal numbers are always equal as records, and {@link Big} is only used past
+/// {@link java.lang.Long#MAX_VALUE}.
 public sealed interface PrimNat {
-    record Long(long value) implements PrimNat {}
-    record Big(BigInteger value) implements PrimNat {}
+    record Long(long value) implements PrimNat {
+        @Override
+        public @NotNull String toString() {
+            return java.lang.Long.toString(value);
+        }
+    }
+
+    record Big(BigInteger value) implements PrimNat {
+        @Override
+        public @NotNull String toString() {
+            return value.toString();
+        }
+    }
+
+    static @NotNull PrimNat of(long value) {
+        assert value >= 0;
+        return new Long(value);
+    }
+
+    static @NotNull PrimNat of(@NotNull BigInteger value) {
+        assert value.signum() >= 0;
+        return value.bitLength() < 64 ? new Long(value.longValue()) : new Big(value);
+    }
+
+    /// Parse the decimal digits `buf[start, end)`, accumulating into a `long` and only falling
+    /// back to {@link BigInteger} once the value overflows.
+    static @NotNull PrimNat ofDigits(char @NotNull[] buf, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(buf[i], 10);
+            if (value > (java.lang.Long.MAX_VALUE - digit) / 10) {
+                return new Big(new BigInteger(new String(buf, start, end - start)));
+            }
+            value = value * 10 + digit;
+        }
+        return new Long(value);
+    }
+
+    default @NotNull BigInteger toBigInteger() {
+        return switch (this) {
+            case Long(long value) -> BigInteger.valueOf(value);
+            case Big(BigInteger value) -> value;
+        };
+    }
 }
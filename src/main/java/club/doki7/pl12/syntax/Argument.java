@@ -36,7 +36,7 @@ public sealed interface Argument extends Node {
 
         @Override
         public @NotNull String toString() {
-            return "{" + expr + "}";
+            return ExprPrinter.doc(this).renderFlat();
         }
     }
 
@@ -55,7 +55,7 @@ public sealed interface Argument extends Node {
 
         @Override
         public @NotNull String toString() {
-            return "{" + name.lexeme() + "=" + expr + "}";
+            return ExprPrinter.doc(this).renderFlat();
         }
     }
 }
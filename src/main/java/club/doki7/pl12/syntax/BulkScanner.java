@@ -0,0 +1,64 @@
+package club.doki7.pl12.syntax;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.MemorySegment;
+
+/// Block-wise scanning of the stretches of source text that produce no tokens: whitespace and
+/// comment bodies.
+///
+/// Only ASCII whitespace is skipped. Scanning stops at any non-ASCII character, and the lexer
+/// decides whether it is whitespace by itself.
+///
+/// {@link #INSTANCE} uses the `jdk.incubator.vector` module when it is present in the boot layer,
+/// and a scalar implementation otherwise. See {@link #vector()} for how to enable it.
+interface BulkScanner {
+    @NotNull BulkScanner INSTANCE = select();
+
+    /// Skip ASCII whitespace in `buf[from, to)`, returning the position where skipping stopped.
+    int skipWhitespace(char @NotNull[] buf, int from, int to);
+
+    /// Skip ASCII whitespace in bytes `[from, to)` of `segment`.
+    int skipWhitespace(@NotNull MemorySegment segment, int from, int to);
+
+    /// Find the first `*)` that lies entirely in `buf[from, to)`. Returns the position of the `*`,
+    /// or `to` if there is none.
+    int findCommentEnd(char @NotNull[] buf, int from, int to);
+
+    /// Find the first `*)` that lies entirely in bytes `[from, to)` of `segment`. Returns the
+    /// position of the `*`, or `to` if there is none.
+    int findCommentEnd(@NotNull MemorySegment segment, int from, int to);
+
+    /// ASCII subset of {@link Character#isWhitespace(int)}: `0x09` to `0x0D`, and `0x1C` to `0x20`.
+    static boolean isAsciiWhitespace(int c) {
+        return (c >= 0x09 && c <= 0x0D) || (c >= 0x1C && c <= 0x20);
+    }
+
+    /// The {@link VectorBulkScanner}, or `null` if `jdk.incubator.vector` is not in the boot layer.
+    ///
+    /// Incubator modules are never resolved by default, so the vector path has to be asked for at
+    /// launch time with `java --add-modules jdk.incubator.vector ...`, and the JVM then warns that
+    /// an incubator module is in use. The tests always run this way (see the surefire `argLine` in
+    /// `pom.xml`).
+    ///
+    /// The class is loaded reflectively so that nothing else refers to the incubator module:
+    /// `VectorBulkScanner` is compiled by its own execution in `pom.xml`.
+    static @Nullable BulkScanner vector() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (BulkScanner) Class.forName("club.doki7.pl12.syntax.VectorBulkScanner")
+                .getDeclaredConstructor()
+                .newInstance();
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static BulkScanner select() {
+        BulkScanner vector = vector();
+        return vector != null ? vector : new ScalarBulkScanner();
+    }
+}
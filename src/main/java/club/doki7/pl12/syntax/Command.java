@@ -7,6 +7,9 @@ import org.jetbrains.annotations.NotNull;
 /// command ::= axiom | check | definition | notation
 /// ```
 public sealed interface Command extends Node {
+    /// The `.` that ends this command, and with it the span of the command.
+    @NotNull Token dot();
+
     /// ```bnf
     /// axiom ::= "Axiom" identifier-list ":" expr "."
     /// ```
@@ -19,13 +22,7 @@ public sealed interface Command extends Node {
     {
         @Override
         public @NotNull String toString() {
-            StringBuilder sb = new StringBuilder();
-            sb.append("Axiom ");
-            for (Token name : names) {
-                sb.append(name).append(' ');
-            }
-            sb.append(": ").append(type).append('.');
-            return sb.toString();
+            return ExprPrinter.doc(this).renderFlat();
         }
     }
 
@@ -39,7 +36,7 @@ public sealed interface Command extends Node {
     {
         @Override
         public @NotNull String toString() {
-            return "Check " + expr + ".";
+            return ExprPrinter.doc(this).renderFlat();
         }
     }
 
@@ -68,13 +65,7 @@ public sealed interface Command extends Node {
 
         @Override
         public @NotNull String toString() {
-            StringBuilder sb = new StringBuilder();
-            sb.append(def.lexeme()).append(' ').append(name);
-            for (ParamGroup paramGroup : paramGroups) {
-                sb.append(' ').append(paramGroup);
-            }
-            sb.append(" : ").append(type).append(" := ").append(body).append('.');
-            return sb.toString();
+            return ExprPrinter.doc(this).renderFlat();
         }
     }
 
@@ -103,7 +94,27 @@ public sealed interface Command extends Node {
 
         @Override
         public @NotNull String toString() {
-            return "Notation " + name + " " + assocToken.lexeme() + " " + prec + " " + expr + ".";
+            return ExprPrinter.doc(this).renderFlat();
+        }
+    }
+
+    /// The tokens of a command that failed to parse, only produced by
+    /// {@link Parser#parseProgramRecovering}. They run from the start of the command up to and
+    /// including its `.`, or up to where parsing resumed if there is no `.` before that.
+    record Invalid(@NotNull ImmSeq<@NotNull Token> tokens) implements Command {
+        public Invalid {
+            assert !tokens.isEmpty();
+        }
+
+        /// The `.` that ends this command, or its last token if it has none.
+        @Override
+        public @NotNull Token dot() {
+            return tokens.getLast();
+        }
+
+        @Override
+        public @NotNull String toString() {
+            return ExprPrinter.doc(this).renderFlat();
         }
     }
 }
@@ -16,11 +16,7 @@ public sealed interface Expr extends Node {
     record Ann(@NotNull Expr expr, @NotNull Expr ann, @NotNull Token colon) implements Expr {
         @Override
         public @NotNull String toString() {
-            if (expr instanceof Var || expr instanceof Univ) {
-                return expr + " : " + ann;
-            } else {
-                return "(" + expr + ") : " + ann;
-            }
+            return ExprPrinter.doc(this).renderFlat();
         }
     }
 
@@ -51,7 +47,7 @@ public sealed interface Expr extends Node {
     {
         @Override
         public @NotNull String toString() {
-            return "∀" + paramGroup + ", " + body;
+            return ExprPrinter.doc(this).renderFlat();
         }
     }
 
@@ -62,15 +58,7 @@ public sealed interface Expr extends Node {
     {
         @Override
         public @NotNull String toString() {
-            String fromStr =
-                (from instanceof App
-                 || from instanceof Fun
-                 || from instanceof Pi
-                 || from instanceof Arrow
-                 || from instanceof Ann)
-                ? "(" + from + ")"
-                : from.toString();
-            return fromStr + " -> " + to;
+            return ExprPrinter.doc(this).renderFlat();
         }
     }
 
@@ -134,41 +122,7 @@ public sealed interface Expr extends Node {
 
         @Override
         public @NotNull String toString() {
-            StringBuilder sb = new StringBuilder();
-            if (func instanceof Fun
-                || func instanceof Pi
-                || func instanceof Arrow
-                || func instanceof Ann) {
-                sb.append("(").append(func).append(")");
-            } else {
-                sb.append(func);
-            }
-
-            sb.append(" ");
-
-            for (int i = 0; i < args.size(); i++) {
-                Argument arg = args.get(i);
-
-                if (arg instanceof Argument.Explicit(Expr expr)) {
-                    if (expr instanceof App
-                        || expr instanceof Fun
-                        || expr instanceof Pi
-                        || expr instanceof Arrow
-                        || expr instanceof Ann) {
-                        sb.append("(").append(expr).append(")");
-                    } else {
-                        sb.append(expr);
-                    }
-                } else {
-                    sb.append(arg);
-                }
-
-                if (i != args.size() - 1) {
-                    sb.append(" ");
-                }
-            }
-
-            return sb.toString();
+            return ExprPrinter.doc(this).renderFlat();
         }
     }
 
@@ -181,7 +135,12 @@ public sealed interface Expr extends Node {
                       @NotNull Token lparen,
                       @NotNull Token rparen)
         implements Expr
-    {}
+    {
+        @Override
+        public @NotNull String toString() {
+            return ExprPrinter.doc(this).renderFlat();
+        }
+    }
 
     /// ```bnf
     /// fun ::= "fun" param-group* "=>" expression
@@ -204,22 +163,7 @@ public sealed interface Expr extends Node {
 
         @Override
         public @NotNull String toString() {
-            StringBuilder sb = new StringBuilder();
-            sb.append("fun ");
-            for (int i = 0; i < paramGroups.size(); i++) {
-                sb.append(paramGroups.get(i));
-                if (i != paramGroups.size() - 1) {
-                    sb.append(" ");
-                }
-            }
-            sb.append(" => ");
-
-            if (body instanceof Ann || body instanceof Pi) {
-                sb.append("(").append(body).append(")");
-            } else {
-                sb.append(body);
-            }
-            return sb.toString();
+            return ExprPrinter.doc(this).renderFlat();
         }
     }
 
@@ -249,7 +193,7 @@ public sealed interface Expr extends Node {
 
         @Override
         public @NotNull String toString() {
-            return "(" + expr + ")";
+            return ExprPrinter.doc(this).renderFlat();
         }
     }
 }
@@ -0,0 +1,234 @@
+package club.doki7.pl12.syntax;
+
+import club.doki7.pl12.util.Doc;
+import club.doki7.pl12.util.ImmSeq;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/// Builds {@link Doc}s for the surface syntax.
+///
+/// Rendered flat, the documents are exactly what the `toString` methods of {@link Expr},
+/// {@link Argument}, {@link ParamGroup} and {@link Command} used to produce, which in turn is
+/// something the {@link Parser} reads back as the same tree. Those methods now go through here, so
+/// printing is linear in the size of the tree rather than quadratic.
+///
+/// Subtrees nested deeper than `maxDepth` are printed as `…`.
+public final class ExprPrinter {
+    public static @NotNull Doc doc(@NotNull Expr expr) {
+        return new ExprPrinter(Integer.MAX_VALUE).expr(expr, 0);
+    }
+
+    public static @NotNull Doc doc(@NotNull Expr expr, int maxDepth) {
+        return new ExprPrinter(maxDepth).expr(expr, 0);
+    }
+
+    public static @NotNull Doc doc(@NotNull Command command) {
+        return new ExprPrinter(Integer.MAX_VALUE).command(command);
+    }
+
+    public static @NotNull Doc doc(@NotNull Command command, int maxDepth) {
+        return new ExprPrinter(maxDepth).command(command);
+    }
+
+    static @NotNull Doc doc(@NotNull Argument argument) {
+        return new ExprPrinter(Integer.MAX_VALUE).argument(argument, 0);
+    }
+
+    static @NotNull Doc doc(@NotNull ParamGroup paramGroup) {
+        return new ExprPrinter(Integer.MAX_VALUE).paramGroup(paramGroup, 0);
+    }
+
+    private @NotNull Doc command(@NotNull Command command) {
+        return switch (command) {
+            case Command.Axiom(ImmSeq<Token> names, Expr type, _, _, _) -> {
+                List<Doc> docs = new ArrayList<>();
+                docs.add(Doc.text("Axiom "));
+                for (Token name : names) {
+                    docs.add(Doc.text(name.lexeme() + " "));
+                }
+                docs.add(Doc.text(":"));
+                docs.add(Doc.nest(INDENT, Doc.cat(Doc.line(), expr(type, 1))));
+                docs.add(Doc.text("."));
+                yield Doc.group(Doc.cat(docs));
+            }
+            case Command.Check(Expr expr, _, _) -> Doc.group(Doc.cat(
+                Doc.text("Check"),
+                Doc.nest(INDENT, Doc.cat(Doc.line(), expr(expr, 1))),
+                Doc.text(".")
+            ));
+            case Command.Definition(Token name,
+                                    ImmSeq<ParamGroup> paramGroups,
+                                    Expr type,
+                                    Expr body,
+                                    Token def,
+                                    _, _, _) -> {
+                List<Doc> docs = new ArrayList<>();
+                docs.add(Doc.text(def.lexeme() + " " + name.lexeme()));
+                for (ParamGroup paramGroup : paramGroups) {
+                    docs.add(Doc.text(" "));
+                    docs.add(paramGroup(paramGroup, 1));
+                }
+                docs.add(Doc.text(" :"));
+                docs.add(Doc.nest(INDENT, Doc.cat(Doc.line(), expr(type, 1))));
+                docs.add(Doc.text(" :="));
+                docs.add(Doc.nest(INDENT, Doc.cat(Doc.line(), expr(body, 1))));
+                docs.add(Doc.text("."));
+                yield Doc.group(Doc.cat(docs));
+            }
+            case Command.Notation(Token name,
+                                  _,
+                                  int prec,
+                                  Expr expr,
+                                  _,
+                                  Token assocToken,
+                                  _, _, _, _) -> Doc.group(Doc.cat(
+                Doc.text("Notation " + name.lexeme() + " " + assocToken.lexeme() + " " + prec),
+                Doc.nest(INDENT, Doc.cat(Doc.line(), expr(expr, 1))),
+                Doc.text(".")
+            ));
+            case Command.Invalid(ImmSeq<Token> tokens) -> {
+                StringBuilder sb = new StringBuilder();
+                for (Token token : tokens) {
+                    if (!sb.isEmpty() && token.kind() != Token.Kind.DOT) {
+                        sb.append(' ');
+                    }
+                    sb.append(token.lexeme());
+                }
+                yield Doc.text(sb.toString());
+            }
+        };
+    }
+
+    private @NotNull Doc expr(@NotNull Expr expr, int depth) {
+        if (depth > maxDepth) {
+            return ELLIPSIS;
+        }
+
+        return switch (expr) {
+            case Expr.Ann(Expr e, Expr ann, _) -> Doc.group(Doc.cat(
+                e instanceof Expr.Var || e instanceof Expr.Univ
+                    ? expr(e, depth + 1)
+                    : parens(expr(e, depth + 1)),
+                Doc.text(" :"),
+                Doc.nest(INDENT, Doc.cat(Doc.line(), expr(ann, depth + 1)))
+            ));
+            case Expr.Univ _ -> Doc.text("type");
+            case Expr.Pi(ParamGroup paramGroup, Expr body, _, _) -> Doc.group(Doc.cat(
+                Doc.text("∀"),
+                paramGroup(paramGroup, depth + 1),
+                Doc.text(","),
+                Doc.nest(INDENT, Doc.cat(Doc.line(), expr(body, depth + 1)))
+            ));
+            case Expr.Arrow(Expr from, Expr to, _) -> Doc.group(Doc.cat(
+                isCompound(from) ? parens(expr(from, depth + 1)) : expr(from, depth + 1),
+                Doc.text(" ->"),
+                Doc.line(),
+                expr(to, depth + 1)
+            ));
+            case Expr.Var(Token name) -> Doc.text(name.lexeme());
+            case Expr.Lit(Token lit) -> Doc.text(lit.lexeme());
+            case Expr.App(Expr func, ImmSeq<Argument> args, _) -> application(func, args, depth);
+            case Expr.PartialApp(Expr func, ImmSeq<Argument> args, _, _, _) -> Doc.cat(
+                Doc.text("@("),
+                application(func, args, depth),
+                Doc.text(")")
+            );
+            case Expr.Fun(ImmSeq<ParamGroup> paramGroups, Expr body, _, _) -> {
+                List<Doc> docs = new ArrayList<>();
+                docs.add(Doc.text("fun "));
+                for (int i = 0; i < paramGroups.size(); i++) {
+                    if (i != 0) {
+                        docs.add(Doc.text(" "));
+                    }
+                    docs.add(paramGroup(paramGroups.get(i), depth + 1));
+                }
+                docs.add(Doc.text(" =>"));
+                docs.add(Doc.nest(INDENT, Doc.cat(
+                    Doc.line(),
+                    body instanceof Expr.Ann || body instanceof Expr.Pi
+                        ? parens(expr(body, depth + 1))
+                        : expr(body, depth + 1)
+                )));
+                yield Doc.group(Doc.cat(docs));
+            }
+            case Expr.Hole _ -> Doc.text("?");
+            case Expr.Paren(Expr e, _, _) -> parens(expr(e, depth + 1));
+        };
+    }
+
+    private @NotNull Doc application(@NotNull Expr func,
+                                     @NotNull ImmSeq<Argument> args,
+                                     int depth) {
+        List<Doc> docs = new ArrayList<>(args.size() * 2);
+        docs.add(func instanceof Expr.Fun
+                 || func instanceof Expr.Pi
+                 || func instanceof Expr.Arrow
+                 || func instanceof Expr.Ann
+                 ? parens(expr(func, depth + 1))
+                 : expr(func, depth + 1));
+        for (Argument arg : args) {
+            docs.add(Doc.line());
+            if (arg instanceof Argument.Explicit(Expr e) && isCompound(e)) {
+                docs.add(parens(expr(e, depth + 1)));
+            } else {
+                docs.add(argument(arg, depth + 1));
+            }
+        }
+        return Doc.group(Doc.nest(INDENT, Doc.cat(docs)));
+    }
+
+    private @NotNull Doc argument(@NotNull Argument argument, int depth) {
+        return switch (argument) {
+            case Argument.Explicit(Expr e) -> expr(e, depth);
+            case Argument.Implicit(Expr e, _, _) ->
+                Doc.cat(Doc.text("{"), expr(e, depth), Doc.text("}"));
+            case Argument.NamedImplicit(Token name, Expr e, _, _, _) ->
+                Doc.cat(Doc.text("{" + name.lexeme() + "="), expr(e, depth), Doc.text("}"));
+        };
+    }
+
+    private @NotNull Doc paramGroup(@NotNull ParamGroup paramGroup, int depth) {
+        StringBuilder names = new StringBuilder();
+        if (paramGroup.delim() != null) {
+            names.append(paramGroup.delim().first().lexeme());
+        }
+        for (int i = 0; i < paramGroup.names().size(); i++) {
+            if (i != 0) {
+                names.append(' ');
+            }
+            names.append(paramGroup.names().get(i).lexeme());
+        }
+
+        Doc type = paramGroup.type() != null
+            ? Doc.cat(Doc.text(" : "), expr(paramGroup.type(), depth + 1))
+            : Doc.EMPTY;
+        Doc close = paramGroup.delim() != null
+            ? Doc.text(paramGroup.delim().second().lexeme())
+            : Doc.EMPTY;
+        return Doc.cat(Doc.text(names.toString()), type, close);
+    }
+
+    /// Whether an explicit argument, or the domain of an arrow, needs parentheses.
+    private static boolean isCompound(@NotNull Expr expr) {
+        return expr instanceof Expr.App
+               || expr instanceof Expr.Fun
+               || expr instanceof Expr.Pi
+               || expr instanceof Expr.Arrow
+               || expr instanceof Expr.Ann;
+    }
+
+    private static @NotNull Doc parens(@NotNull Doc doc) {
+        return Doc.cat(Doc.text("("), doc, Doc.text(")"));
+    }
+
+    private ExprPrinter(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    private static final int INDENT = 2;
+    private static final Doc ELLIPSIS = Doc.text("…");
+
+    private final int maxDepth;
+}
@@ -0,0 +1,547 @@
+package club.doki7.pl12.syntax;
+
+import club.doki7.pl12.exc.ParseException;
+import club.doki7.pl12.util.ImmSeq;
+import club.doki7.pl12.util.Pair;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/// A parsed program, stored as a flat table of `int`s instead of a tree of records.
+///
+/// Every node is a run of `int`s in one array: a header holding its {@link Tag} and number of
+/// children, its number of tokens, one {@link #extra} word, the offsets of its children, the
+/// indices of its tokens in the {@link TokenBuffer} the program was parsed from, and for some tags
+/// a few more words of data. A node is
+/// identified by its offset. Children are always written before their parent, so the commands
+/// appear in source order, each right after all of its descendants.
+///
+/// A token costs one `int` here, against a {@link Token} object with its lexeme and source in a
+/// {@link Program}. Which user operator an infix token refers to is not stored either: each
+/// command keeps the {@link OperatorTable} it was parsed with, and those tables are persistent, so
+/// consecutive commands share them.
+///
+/// {@link #walk} traverses the table without allocating anything, and {@link #toCommand},
+/// {@link #toExpr} and {@link #toProgram} build the ordinary records on demand.
+public final class FlatProgram {
+    /// Node kinds, with their children and tokens, in order. `[x]` is only present if the
+    /// corresponding bit of {@link #extra} is set, and `x*` is any number of `x`.
+    public enum Tag {
+        /// Children: type. Tokens: names*, axiom, colon, dot.
+        AXIOM,
+        /// Children: expr. Tokens: check, dot.
+        CHECK,
+        /// Children: param-groups*, type, body. Tokens: name, def, colon, assign, dot.
+        DEFINITION,
+        /// Children: expr. Tokens: name, notation, assoc, lparen, rparen, assign, dot.
+        /// Extra: `assoc.ordinal()`. Data: prec, see {@link #prec}.
+        NOTATION,
+        /// Tokens: tokens*.
+        INVALID,
+        /// Children: [type] (bit 0). Tokens: names*, [colon] (bit 1), [ldelim, rdelim] (bit 2).
+        PARAM_GROUP,
+        /// Children: expr.
+        EXPLICIT,
+        /// Children: expr. Tokens: lbrace, rbrace.
+        IMPLICIT,
+        /// Children: expr. Tokens: name, lbrace, rbrace, eq.
+        NAMED_IMPLICIT,
+        /// Children: expr, ann. Tokens: colon.
+        ANN,
+        /// Tokens: univ.
+        UNIV,
+        /// Children: param-group, body. Tokens: pi, comma.
+        PI,
+        /// Children: from, to. Tokens: arrow.
+        ARROW,
+        /// Tokens: name.
+        VAR,
+        /// Tokens: lit.
+        LIT,
+        /// Children: func, args*. Extra: 1 if infix.
+        APP,
+        /// Children: func, args*. Tokens: at, lparen, rparen.
+        PARTIAL_APP,
+        /// Children: param-groups*, body. Tokens: fun, arrow.
+        FUN,
+        /// Tokens: hole.
+        HOLE,
+        /// Children: expr. Tokens: lparen, rparen.
+        PAREN;
+
+        private static final Tag[] VALUES = values();
+    }
+
+    /// Callbacks for {@link #walk}. Nodes are passed by offset, so a walk allocates nothing.
+    public interface Visitor {
+        /// Called before the children of `node`. Returning `false` skips them, and {@link #exit}.
+        boolean enter(@NotNull FlatProgram program, int node);
+
+        default void exit(@NotNull FlatProgram program, int node) {}
+    }
+
+    /// Parse the rest of the input of `ctx`, encoding each command as soon as it is parsed.
+    public static @NotNull FlatProgram parse(@NotNull ParseContext ctx) throws ParseException {
+        TokenBuffer buffer = TokenBuffer.tokenize(ctx);
+        TokenBuffer.Cursor cursor = buffer.cursor(ctx.infixOps());
+        Encoder encoder = new Encoder(buffer);
+        List<OperatorTable> tables = new ArrayList<>();
+
+        while (true) {
+            OperatorTable infixOps = cursor.infixOps();
+            Command cmd = Parser.parseCommand(cursor);
+            if (cmd == null) {
+                break;
+            }
+            encoder.command(cmd);
+            tables.add(infixOps);
+        }
+
+        return new FlatProgram(buffer,
+                               Arrays.copyOf(encoder.nodes, encoder.size),
+                               encoder.commands.stream().mapToInt(Integer::intValue).toArray(),
+                               tables.toArray(OperatorTable[]::new));
+    }
+
+    public @NotNull TokenBuffer buffer() {
+        return buffer;
+    }
+
+    public int commandCount() {
+        return commands.length;
+    }
+
+    /// The node of command `index`.
+    public int command(int index) {
+        return commands[index];
+    }
+
+    public @NotNull Tag tag(int node) {
+        return Tag.VALUES[nodes[node] & 0xFF];
+    }
+
+    public int childCount(int node) {
+        return nodes[node] >>> 8;
+    }
+
+    public int child(int node, int index) {
+        return nodes[node + HEADER_SIZE + index];
+    }
+
+    public int tokenCount(int node) {
+        return nodes[node + 1];
+    }
+
+    /// The {@link TokenBuffer} index of token `index` of `node`.
+    public int token(int node, int index) {
+        return nodes[node + HEADER_SIZE + childCount(node) + index];
+    }
+
+    /// Tag-specific data, see {@link Tag}.
+    public int extra(int node) {
+        return nodes[node + 2];
+    }
+
+    /// The precedence declared by `node`, which must be a {@link Tag#NOTATION} node.
+    public int prec(int node) {
+        return data(node, 0);
+    }
+
+    /// Word `index` of the data that follows the tokens of `node`.
+    private int data(int node, int index) {
+        return nodes[node + HEADER_SIZE + childCount(node) + tokenCount(node) + index];
+    }
+
+    /// Visit `node` and its descendants in depth-first order.
+    public void walk(int node, @NotNull Visitor visitor) {
+        if (!visitor.enter(this, node)) {
+            return;
+        }
+        for (int i = 0, n = childCount(node); i < n; i++) {
+            walk(child(node, i), visitor);
+        }
+        visitor.exit(this, node);
+    }
+
+    /// Visit every command in order.
+    public void walk(@NotNull Visitor visitor) {
+        for (int command : commands) {
+            walk(command, visitor);
+        }
+    }
+
+    public @NotNull Program toProgram() {
+        Command[] result = new Command[commands.length];
+        for (int i = 0; i < commands.length; i++) {
+            result[i] = toCommand(i);
+        }
+        return new Program(ImmSeq.ofUnsafe(result));
+    }
+
+    public @NotNull Command toCommand(int index) {
+        return new Decoder(tables[index]).command(commands[index]);
+    }
+
+    /// Build the {@link Expr} at `node`, which must be an expression node.
+    public @NotNull Expr toExpr(int node) {
+        return new Decoder(tables[commandOf(node)]).expr(node);
+    }
+
+    /// The index of the command that `node` belongs to.
+    private int commandOf(int node) {
+        int index = Arrays.binarySearch(commands, node);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static final class Encoder {
+        Encoder(@NotNull TokenBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void command(@NotNull Command cmd) {
+            int node = switch (cmd) {
+                case Command.Axiom(ImmSeq<Token> names,
+                                   Expr type,
+                                   Token axiom,
+                                   Token colon,
+                                   Token dot) ->
+                    emit(Tag.AXIOM, 0, ints(expr(type)), tokens(names, axiom, colon, dot));
+                case Command.Check(Expr expr, Token check, Token dot) ->
+                    emit(Tag.CHECK, 0, ints(expr(expr)), tokens(check, dot));
+                case Command.Definition(Token name,
+                                        ImmSeq<ParamGroup> paramGroups,
+                                        Expr type,
+                                        Expr body,
+                                        Token def,
+                                        Token colon,
+                                        Token assign,
+                                        Token dot) -> {
+                    int[] children = new int[paramGroups.size() + 2];
+                    for (int i = 0; i < paramGroups.size(); i++) {
+                        children[i] = paramGroup(paramGroups.get(i));
+                    }
+                    children[paramGroups.size()] = expr(type);
+                    children[paramGroups.size() + 1] = expr(body);
+                    yield emit(Tag.DEFINITION, 0, children,
+                               tokens(name, def, colon, assign, dot));
+                }
+                case Command.Notation(Token name,
+                                      Operator.Assoc assoc,
+                                      int prec,
+                                      Expr expr,
+                                      Token notation,
+                                      Token assocToken,
+                                      Token lparen,
+                                      Token rparen,
+                                      Token assign,
+                                      Token dot) ->
+                    emit(Tag.NOTATION, assoc.ordinal(), ints(expr(expr)),
+                         tokens(name, notation, assocToken, lparen, rparen, assign, dot),
+                         prec);
+                case Command.Invalid(ImmSeq<Token> tokens) ->
+                    emit(Tag.INVALID, 0, NONE, tokens(tokens));
+            };
+            commands.add(node);
+        }
+
+        int expr(@NotNull Expr expr) {
+            return switch (expr) {
+                case Expr.Ann(Expr e, Expr ann, Token colon) ->
+                    emit(Tag.ANN, 0, ints(expr(e), expr(ann)), tokens(colon));
+                case Expr.Univ(Token aster) -> emit(Tag.UNIV, 0, NONE, tokens(aster));
+                case Expr.Pi(ParamGroup paramGroup, Expr body, Token pi, Token comma) ->
+                    emit(Tag.PI, 0, ints(paramGroup(paramGroup), expr(body)), tokens(pi, comma));
+                case Expr.Arrow(Expr from, Expr to, Token arrow) ->
+                    emit(Tag.ARROW, 0, ints(expr(from), expr(to)), tokens(arrow));
+                case Expr.Var(Token name) -> emit(Tag.VAR, 0, NONE, tokens(name));
+                case Expr.Lit(Token lit) -> emit(Tag.LIT, 0, NONE, tokens(lit));
+                case Expr.App(Expr func, ImmSeq<Argument> args, boolean infix) ->
+                    emit(Tag.APP, infix ? 1 : 0, application(func, args), NONE);
+                case Expr.PartialApp(Expr func,
+                                     ImmSeq<Argument> args,
+                                     Token at,
+                                     Token lparen,
+                                     Token rparen) ->
+                    emit(Tag.PARTIAL_APP, 0, application(func, args), tokens(at, lparen, rparen));
+                case Expr.Fun(ImmSeq<ParamGroup> paramGroups,
+                              Expr body,
+                              Token fun,
+                              Token arrow) -> {
+                    int[] children = new int[paramGroups.size() + 1];
+                    for (int i = 0; i < paramGroups.size(); i++) {
+                        children[i] = paramGroup(paramGroups.get(i));
+                    }
+                    children[paramGroups.size()] = expr(body);
+                    yield emit(Tag.FUN, 0, children, tokens(fun, arrow));
+                }
+                case Expr.Hole(Token hole) -> emit(Tag.HOLE, 0, NONE, tokens(hole));
+                case Expr.Paren(Expr e, Token lParen, Token rParen) ->
+                    emit(Tag.PAREN, 0, ints(expr(e)), tokens(lParen, rParen));
+            };
+        }
+
+        private int[] application(@NotNull Expr func, @NotNull ImmSeq<Argument> args) {
+            int[] children = new int[args.size() + 1];
+            children[0] = expr(func);
+            for (int i = 0; i < args.size(); i++) {
+                children[i + 1] = switch (args.get(i)) {
+                    case Argument.Explicit(Expr e) -> emit(Tag.EXPLICIT, 0, ints(expr(e)), NONE);
+                    case Argument.Implicit(Expr e, Token lbrace, Token rbrace) ->
+                        emit(Tag.IMPLICIT, 0, ints(expr(e)), tokens(lbrace, rbrace));
+                    case Argument.NamedImplicit(Token name,
+                                                Expr e,
+                                                Token lbrace,
+                                                Token rbrace,
+                                                Token eq) ->
+                        emit(Tag.NAMED_IMPLICIT, 0, ints(expr(e)),
+                             tokens(name, lbrace, rbrace, eq));
+                };
+            }
+            return children;
+        }
+
+        private int paramGroup(@NotNull ParamGroup paramGroup) {
+            @Nullable Expr type = paramGroup.type();
+            @Nullable Token colon = paramGroup.colon();
+            @Nullable Pair<Token, Token> delim = paramGroup.delim();
+
+            int flags = (type != null ? 1 : 0) | (colon != null ? 2 : 0) | (delim != null ? 4 : 0);
+            int[] children = type != null ? ints(expr(type)) : NONE;
+            ImmSeq<Token> names = paramGroup.names();
+            int[] tokens = new int[names.size()
+                                   + (colon != null ? 1 : 0)
+                                   + (delim != null ? 2 : 0)];
+            int n = 0;
+            for (Token name : names) {
+                tokens[n++] = tokenIndex(name);
+            }
+            if (colon != null) {
+                tokens[n++] = tokenIndex(colon);
+            }
+            if (delim != null) {
+                tokens[n++] = tokenIndex(delim.first());
+                tokens[n] = tokenIndex(delim.second());
+            }
+            return emit(Tag.PARAM_GROUP, flags, children, tokens);
+        }
+
+        private int emit(@NotNull Tag tag,
+                         int extra,
+                         int @NotNull[] children,
+                         int @NotNull[] tokens,
+                         int... data) {
+            int length = HEADER_SIZE + children.length + tokens.length + data.length;
+            if (size + length > nodes.length) {
+                nodes = Arrays.copyOf(nodes, Math.max(nodes.length * 2, size + length));
+            }
+
+            int node = size;
+            nodes[node] = tag.ordinal() | children.length << 8;
+            nodes[node + 1] = tokens.length;
+            nodes[node + 2] = extra;
+            System.arraycopy(children, 0, nodes, node + HEADER_SIZE, children.length);
+            System.arraycopy(tokens, 0, nodes, node + HEADER_SIZE + children.length, tokens.length);
+            System.arraycopy(data,
+                             0,
+                             nodes,
+                             node + HEADER_SIZE + children.length + tokens.length,
+                             data.length);
+            size += length;
+            return node;
+        }
+
+        private int[] tokens(@NotNull ImmSeq<Token> names, @NotNull Token... rest) {
+            int[] result = new int[names.size() + rest.length];
+            for (int i = 0; i < names.size(); i++) {
+                result[i] = tokenIndex(names.get(i));
+            }
+            for (int i = 0; i < rest.length; i++) {
+                result[names.size() + i] = tokenIndex(rest[i]);
+            }
+            return result;
+        }
+
+        private int[] tokens(@NotNull Token... tokens) {
+            int[] result = new int[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                result[i] = tokenIndex(tokens[i]);
+            }
+            return result;
+        }
+
+        private int tokenIndex(@NotNull Token token) {
+            int index = buffer.indexAt(token.pos());
+            assert index >= 0 : "token not from the buffer: " + token;
+            return index;
+        }
+
+        private static int[] ints(int... values) {
+            return values;
+        }
+
+        private static final int[] NONE = new int[0];
+
+        private final @NotNull TokenBuffer buffer;
+        private final List<Integer> commands = new ArrayList<>();
+        private int[] nodes = new int[256];
+        private int size;
+    }
+
+    /// Builds records for the nodes of one command, reading words with the operators that were in
+    /// scope for it.
+    private final class Decoder {
+        Decoder(@NotNull OperatorTable infixOps) {
+            this.infixOps = infixOps;
+        }
+
+        @NotNull Command command(int node) {
+            return switch (tag(node)) {
+                case AXIOM -> {
+                    int names = tokenCount(node) - 3;
+                    yield new Command.Axiom(tokens(node, 0, names),
+                                            expr(child(node, 0)),
+                                            token(node, names),
+                                            token(node, names + 1),
+                                            token(node, names + 2));
+                }
+                case CHECK -> new Command.Check(expr(child(node, 0)),
+                                                token(node, 0),
+                                                token(node, 1));
+                case DEFINITION -> {
+                    int groups = childCount(node) - 2;
+                    yield new Command.Definition(token(node, 0),
+                                                 paramGroups(node, groups),
+                                                 expr(child(node, groups)),
+                                                 expr(child(node, groups + 1)),
+                                                 token(node, 1),
+                                                 token(node, 2),
+                                                 token(node, 3),
+                                                 token(node, 4));
+                }
+                case NOTATION -> new Command.Notation(token(node, 0),
+                                                      Operator.Assoc.values()[extra(node)],
+                                                      prec(node),
+                                                      expr(child(node, 0)),
+                                                      token(node, 1),
+                                                      token(node, 2),
+                                                      token(node, 3),
+                                                      token(node, 4),
+                                                      token(node, 5),
+                                                      token(node, 6));
+                case INVALID -> new Command.Invalid(tokens(node, 0, tokenCount(node)));
+                default -> throw new IllegalArgumentException("not a command: " + tag(node));
+            };
+        }
+
+        @NotNull Expr expr(int node) {
+            return switch (tag(node)) {
+                case ANN -> new Expr.Ann(expr(child(node, 0)),
+                                         expr(child(node, 1)),
+                                         token(node, 0));
+                case UNIV -> new Expr.Univ(token(node, 0));
+                case PI -> new Expr.Pi(paramGroup(child(node, 0)),
+                                       expr(child(node, 1)),
+                                       token(node, 0),
+                                       token(node, 1));
+                case ARROW -> new Expr.Arrow(expr(child(node, 0)),
+                                             expr(child(node, 1)),
+                                             token(node, 0));
+                case VAR -> new Expr.Var(token(node, 0));
+                case LIT -> new Expr.Lit(token(node, 0));
+                case APP -> new Expr.App(expr(child(node, 0)), arguments(node), extra(node) != 0);
+                case PARTIAL_APP -> new Expr.PartialApp(expr(child(node, 0)),
+                                                        arguments(node),
+                                                        token(node, 0),
+                                                        token(node, 1),
+                                                        token(node, 2));
+                case FUN -> {
+                    int groups = childCount(node) - 1;
+                    yield new Expr.Fun(paramGroups(node, groups),
+                                       expr(child(node, groups)),
+                                       token(node, 0),
+                                       token(node, 1));
+                }
+                case HOLE -> new Expr.Hole(token(node, 0));
+                case PAREN -> new Expr.Paren(expr(child(node, 0)),
+                                             token(node, 0),
+                                             token(node, 1));
+                default -> throw new IllegalArgumentException("not an expression: " + tag(node));
+            };
+        }
+
+        private @NotNull ImmSeq<Argument> arguments(int node) {
+            Argument[] args = new Argument[childCount(node) - 1];
+            for (int i = 0; i < args.length; i++) {
+                int arg = child(node, i + 1);
+                args[i] = switch (tag(arg)) {
+                    case EXPLICIT -> new Argument.Explicit(expr(child(arg, 0)));
+                    case IMPLICIT -> new Argument.Implicit(expr(child(arg, 0)),
+                                                           token(arg, 0),
+                                                           token(arg, 1));
+                    case NAMED_IMPLICIT -> new Argument.NamedImplicit(token(arg, 0),
+                                                                      expr(child(arg, 0)),
+                                                                      token(arg, 1),
+                                                                      token(arg, 2),
+                                                                      token(arg, 3));
+                    default -> throw new IllegalArgumentException("not an argument: " + tag(arg));
+                };
+            }
+            return ImmSeq.ofUnsafe(args);
+        }
+
+        private @NotNull ImmSeq<ParamGroup> paramGroups(int node, int count) {
+            ParamGroup[] groups = new ParamGroup[count];
+            for (int i = 0; i < count; i++) {
+                groups[i] = paramGroup(child(node, i));
+            }
+            return ImmSeq.ofUnsafe(groups);
+        }
+
+        private @NotNull ParamGroup paramGroup(int node) {
+            int flags = extra(node);
+            int names = tokenCount(node) - ((flags & 2) != 0 ? 1 : 0) - ((flags & 4) != 0 ? 2 : 0);
+            int n = names;
+            @Nullable Expr type = (flags & 1) != 0 ? expr(child(node, 0)) : null;
+            @Nullable Token colon = (flags & 2) != 0 ? token(node, n++) : null;
+            @Nullable Pair<Token, Token> delim =
+                (flags & 4) != 0 ? Pair.of(token(node, n), token(node, n + 1)) : null;
+            return new ParamGroup(tokens(node, 0, names), type, colon, delim);
+        }
+
+        private @NotNull ImmSeq<Token> tokens(int node, int from, int to) {
+            Token[] tokens = new Token[to - from];
+            for (int i = from; i < to; i++) {
+                tokens[i - from] = token(node, i);
+            }
+            return ImmSeq.ofUnsafe(tokens);
+        }
+
+        private @NotNull Token token(int node, int index) {
+            int tokenIndex = FlatProgram.this.token(node, index);
+            return buffer.token(tokenIndex, ParseContext.Mode.IDLE, infixOps);
+        }
+
+        private final @NotNull OperatorTable infixOps;
+    }
+
+    private FlatProgram(@NotNull TokenBuffer buffer,
+                        int @NotNull[] nodes,
+                        int @NotNull[] commands,
+                        @NotNull OperatorTable @NotNull[] tables) {
+        this.buffer = buffer;
+        this.nodes = nodes;
+        this.commands = commands;
+        this.tables = tables;
+    }
+
+    private static final int HEADER_SIZE = 3;
+
+    private final @NotNull TokenBuffer buffer;
+    private final int @NotNull[] nodes;
+    private final int @NotNull[] commands;
+    /// The operators in scope for each command.
+    private final @NotNull OperatorTable @NotNull[] tables;
+}
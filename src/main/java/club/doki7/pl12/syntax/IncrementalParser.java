@@ -0,0 +1,225 @@
+package club.doki7.pl12.syntax;
+
+import club.doki7.pl12.exc.ParseException;
+import club.doki7.pl12.exc.SourceFile;
+import club.doki7.pl12.util.ImmSeq;
+import club.doki7.pl12.util.Pair;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/// Reparses a program after a {@link TextEdit}, see {@link Parser#reparse}.
+///
+/// Each command owns the text from the end of the previous command up to and including its `.`.
+/// Commands before the first one whose text the edit touches are kept, only moved into the new
+/// {@link SourceFile}: their text and the operators they see are unchanged. Parsing restarts at the
+/// beginning of that command, and stops again as soon as a command ends exactly where an old
+/// command after the edit ends. From there on the text is the same as before, and so is the lexer
+/// state, provided the reparsed commands declared the same operators as the ones they replace. The
+/// remaining old commands are then kept too, only moved by the length difference of the edit.
+final class IncrementalParser {
+    static @NotNull Program reparse(@NotNull Program previous,
+                                    @NotNull String before,
+                                    @NotNull TextEdit edit,
+                                    @NotNull String file) throws ParseException {
+        char[] buf = edit.apply(before).toCharArray();
+        SourceFile source = SourceFile.of(file, buf);
+        ImmSeq<Command> old = previous.commands();
+        int delta = edit.delta();
+
+        int first = 0;
+        OperatorTable infixOps = OperatorTable.empty();
+        while (first < old.size() && end(old.get(first)) < edit.start()) {
+            infixOps = declare(infixOps, old.get(first));
+            first++;
+        }
+        int resume = first == 0 ? 0 : end(old.get(first - 1));
+
+        List<Command> commands = new ArrayList<>();
+        for (Command kept : old.subList(0, first)) {
+            commands.add(relocate(kept, source, 0));
+        }
+        TokenStream stream = TokenStream.memoize(Lexer.of(
+            new ParseContext(buf, resume, source, ParseContext.Mode.IDLE, infixOps)
+        ));
+        List<Operator> oldOperators = new ArrayList<>();
+        List<Operator> newOperators = new ArrayList<>();
+        int next = first;
+        while (true) {
+            Command cmd = Parser.parseCommand(stream);
+            if (cmd == null) {
+                return Program.of(commands);
+            }
+            commands.add(cmd);
+            addOperator(newOperators, cmd);
+
+            // Old commands ending inside the edit, or before this command, are gone
+            int end = end(cmd);
+            while (next < old.size()
+                   && (end(old.get(next)) <= edit.end() || end(old.get(next)) + delta < end)) {
+                addOperator(oldOperators, old.get(next));
+                next++;
+            }
+            if (next == old.size() || end(old.get(next)) + delta != end) {
+                continue;
+            }
+
+            addOperator(oldOperators, old.get(next));
+            next++;
+            if (oldOperators.equals(newOperators)) {
+                for (Command kept : old.subList(next)) {
+                    commands.add(relocate(kept, source, delta));
+                }
+                return Program.of(commands);
+            }
+        }
+    }
+
+    private static int end(@NotNull Command cmd) {
+        return cmd.dot().pos() + 1;
+    }
+
+    private static @NotNull OperatorTable declare(@NotNull OperatorTable infixOps,
+                                                  @NotNull Command cmd) {
+        @Nullable Operator operator = operatorOf(cmd);
+        return operator != null ? infixOps.put(operator.lexeme(), operator) : infixOps;
+    }
+
+    private static void addOperator(@NotNull List<Operator> operators, @NotNull Command cmd) {
+        @Nullable Operator operator = operatorOf(cmd);
+        if (operator != null) {
+            operators.add(operator);
+        }
+    }
+
+    private static @Nullable Operator operatorOf(@NotNull Command cmd) {
+        if (cmd instanceof Command.Notation notation) {
+            return new Operator(notation.name().lexeme(), notation.prec(), notation.assoc());
+        }
+        return null;
+    }
+
+    private static @NotNull Command relocate(@NotNull Command cmd,
+                                             @NotNull SourceFile source,
+                                             int delta) {
+        Relocation r = new Relocation(source, delta);
+        return switch (cmd) {
+            case Command.Axiom(ImmSeq<Token> names,
+                               Expr type,
+                               Token axiom,
+                               Token colon,
+                               Token dot) ->
+                new Command.Axiom(r.tokens(names), r.expr(type), r.token(axiom), r.token(colon),
+                                  r.token(dot));
+            case Command.Check(Expr expr, Token check, Token dot) ->
+                new Command.Check(r.expr(expr), r.token(check), r.token(dot));
+            case Command.Definition(Token name,
+                                    ImmSeq<ParamGroup> paramGroups,
+                                    Expr type,
+                                    Expr body,
+                                    Token def,
+                                    Token colon,
+                                    Token assign,
+                                    Token dot) ->
+                new Command.Definition(r.token(name), r.paramGroups(paramGroups), r.expr(type),
+                                       r.expr(body), r.token(def), r.token(colon),
+                                       r.token(assign), r.token(dot));
+            case Command.Notation(Token name,
+                                  Operator.Assoc assoc,
+                                  int prec,
+                                  Expr expr,
+                                  Token notation,
+                                  Token assocToken,
+                                  Token lparen,
+                                  Token rparen,
+                                  Token assign,
+                                  Token dot) ->
+                new Command.Notation(r.token(name), assoc, prec, r.expr(expr), r.token(notation),
+                                     r.token(assocToken), r.token(lparen), r.token(rparen),
+                                     r.token(assign), r.token(dot));
+            case Command.Invalid(ImmSeq<Token> tokens) -> new Command.Invalid(r.tokens(tokens));
+        };
+    }
+
+    /// Moves every token of a syntax tree by `delta` into `source`.
+    private record Relocation(@NotNull SourceFile source, int delta) {
+        @NotNull Token token(@NotNull Token token) {
+            return token.relocate(source, delta);
+        }
+
+        @NotNull ImmSeq<Token> tokens(@NotNull ImmSeq<Token> tokens) {
+            Token[] result = new Token[tokens.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = token(tokens.get(i));
+            }
+            return ImmSeq.ofUnsafe(result);
+        }
+
+        @NotNull Expr expr(@NotNull Expr expr) {
+            return switch (expr) {
+                case Expr.Ann(Expr e, Expr ann, Token colon) ->
+                    new Expr.Ann(expr(e), expr(ann), token(colon));
+                case Expr.Univ(Token aster) -> new Expr.Univ(token(aster));
+                case Expr.Pi(ParamGroup paramGroup, Expr body, Token pi, Token comma) ->
+                    new Expr.Pi(paramGroup(paramGroup), expr(body), token(pi), token(comma));
+                case Expr.Arrow(Expr from, Expr to, Token arrow) ->
+                    new Expr.Arrow(expr(from), expr(to), token(arrow));
+                case Expr.Var(Token name) -> new Expr.Var(token(name));
+                case Expr.Lit(Token lit) -> new Expr.Lit(token(lit));
+                case Expr.App(Expr func, ImmSeq<Argument> args, boolean infix) ->
+                    new Expr.App(expr(func), arguments(args), infix);
+                case Expr.PartialApp(Expr func,
+                                     ImmSeq<Argument> args,
+                                     Token at,
+                                     Token lparen,
+                                     Token rparen) ->
+                    new Expr.PartialApp(expr(func), arguments(args), token(at), token(lparen),
+                                        token(rparen));
+                case Expr.Fun(ImmSeq<ParamGroup> paramGroups, Expr body, Token fun, Token arrow) ->
+                    new Expr.Fun(paramGroups(paramGroups), expr(body), token(fun), token(arrow));
+                case Expr.Hole(Token hole) -> new Expr.Hole(token(hole));
+                case Expr.Paren(Expr e, Token lParen, Token rParen) ->
+                    new Expr.Paren(expr(e), token(lParen), token(rParen));
+            };
+        }
+
+        @NotNull ParamGroup paramGroup(@NotNull ParamGroup paramGroup) {
+            Pair<Token, Token> delim = paramGroup.delim();
+            return new ParamGroup(
+                tokens(paramGroup.names()),
+                paramGroup.type() != null ? expr(paramGroup.type()) : null,
+                paramGroup.colon() != null ? token(paramGroup.colon()) : null,
+                delim != null ? Pair.of(token(delim.first()), token(delim.second())) : null
+            );
+        }
+
+        @NotNull ImmSeq<ParamGroup> paramGroups(@NotNull ImmSeq<ParamGroup> paramGroups) {
+            ParamGroup[] result = new ParamGroup[paramGroups.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = paramGroup(paramGroups.get(i));
+            }
+            return ImmSeq.ofUnsafe(result);
+        }
+
+        @NotNull ImmSeq<Argument> arguments(@NotNull ImmSeq<Argument> args) {
+            Argument[] result = new Argument[args.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = switch (args.get(i)) {
+                    case Argument.Explicit(Expr e) -> new Argument.Explicit(expr(e));
+                    case Argument.Implicit(Expr e, Token lbrace, Token rbrace) ->
+                        new Argument.Implicit(expr(e), token(lbrace), token(rbrace));
+                    case Argument.NamedImplicit(Token name,
+                                                Expr e,
+                                                Token lbrace,
+                                                Token rbrace,
+                                                Token eq) ->
+                        new Argument.NamedImplicit(token(name), expr(e), token(lbrace),
+                                                   token(rbrace), token(eq));
+                };
+            }
+            return ImmSeq.ofUnsafe(result);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package club.doki7.pl12.syntax;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/// Every keyword spelling, recognized straight from a `char[]` range.
+///
+/// {@link #match} dispatches on the length and the first one or two characters, so at most one
+/// candidate is compared in full, and no {@link String} is built. It must agree with
+/// {@link Token.Kind#KEYWORDS_MAP} and {@link Token.Kind#BVR_KEYWORDS_MAP}.
+enum Keyword {
+    FORALL("forall", Token.Kind.PI, false),
+    FUN("fun", Token.Kind.FUN, false),
+    UNIV("𝒰", Token.Kind.UNIV, false),
+    TYPE("type", Token.Kind.UNIV, false),
+    AXIOM("Axiom", Token.Kind.KW_AXIOM, false),
+    DEFINITION("Definition", Token.Kind.KW_DEFINITION, false),
+    PROCEDURE("Procedure", Token.Kind.KW_PROCEDURE, false),
+    CHECK("Check", Token.Kind.KW_CHECK, false),
+    NOTATION("Notation", Token.Kind.KW_NOTATION, false),
+
+    LET("let", Token.Kind.KW_BVR_LET, true),
+    IN("in", Token.Kind.KW_BVR_IN, true),
+    IF("if", Token.Kind.KW_BVR_IF, true),
+    THEN("then", Token.Kind.KW_BVR_THEN, true),
+    ELSE("else", Token.Kind.KW_BVR_ELSE, true),
+    CASE("case", Token.Kind.KW_BVR_CASE, true),
+    OF("of", Token.Kind.KW_BVR_OF, true),
+    LOOP("loop", Token.Kind.KW_BVR_LOOP, true),
+    BREAK("break", Token.Kind.KW_BVR_BREAK, true),
+    CONTINUE("continue", Token.Kind.KW_BVR_CONTINUE, true),
+    RETURN("return", Token.Kind.KW_BVR_RETURN, true),
+    END("end", Token.Kind.KW_BVR_END, true);
+
+    /// Whether this spelling is a keyword in `mode`.
+    boolean activeIn(@NotNull ParseContext.Mode mode) {
+        return !bvr || mode == ParseContext.Mode.BVR;
+    }
+
+    /// The keyword spelled by `buf[start, end)`, in any mode.
+    static @Nullable Keyword match(char @NotNull[] buf, int start, int end) {
+        @Nullable Keyword candidate = switch (end - start) {
+            case 2 -> switch (buf[start]) {
+                case 'i' -> buf[start + 1] == 'n' ? IN : IF;
+                case 'o' -> OF;
+                case '\uD835' -> UNIV;
+                default -> null;
+            };
+            case 3 -> switch (buf[start]) {
+                case 'f' -> FUN;
+                case 'l' -> LET;
+                case 'e' -> END;
+                default -> null;
+            };
+            case 4 -> switch (buf[start]) {
+                case 't' -> buf[start + 1] == 'y' ? TYPE : THEN;
+                case 'e' -> ELSE;
+                case 'c' -> CASE;
+                case 'l' -> LOOP;
+                default -> null;
+            };
+            case 5 -> switch (buf[start]) {
+                case 'A' -> AXIOM;
+                case 'C' -> CHECK;
+                case 'b' -> BREAK;
+                default -> null;
+            };
+            case 6 -> switch (buf[start]) {
+                case 'f' -> FORALL;
+                case 'r' -> RETURN;
+                default -> null;
+            };
+            case 8 -> switch (buf[start]) {
+                case 'N' -> NOTATION;
+                case 'c' -> CONTINUE;
+                default -> null;
+            };
+            case 9 -> PROCEDURE;
+            case 10 -> DEFINITION;
+            default -> null;
+        };
+
+        if (candidate == null) {
+            return null;
+        }
+        String spelling = candidate.spelling;
+        for (int i = 0; i < spelling.length(); i++) {
+            if (buf[start + i] != spelling.charAt(i)) {
+                return null;
+            }
+        }
+        return candidate;
+    }
+
+    Keyword(@NotNull String spelling, @NotNull Token.Kind kind, boolean bvr) {
+        this.spelling = spelling;
+        this.kind = kind;
+        this.bvr = bvr;
+    }
+
+    final @NotNull String spelling;
+    final @NotNull Token.Kind kind;
+    /// Whether this is only a keyword in {@link ParseContext.Mode#BVR} mode.
+    final boolean bvr;
+}
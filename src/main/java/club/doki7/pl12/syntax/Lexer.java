@@ -0,0 +1,364 @@
+package club.doki7.pl12.syntax;
+
+import club.doki7.pl12.exc.LexicalException;
+import club.doki7.pl12.exc.SourceFile;
+import club.doki7.pl12.exc.SourceRange;
+import club.doki7.pl12.prim.PrimNat;
+import club.doki7.pl12.util.Symbol;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+
+/// A mutable lexer cursor.
+///
+/// Produces exactly the same tokens as {@link ParseContext#nextToken()}, but advances in place
+/// instead of allocating a fresh {@link ParseContext} and a {@link club.doki7.pl12.util.Pair} for
+/// every token. Backtracking is explicit: take a {@link #mark()} before reading ahead and
+/// {@link #reset(long)} to it if the tokens are not wanted.
+///
+/// Only the offset is tracked. Lines and columns are looked up in the {@link SourceFile} when they
+/// are needed.
+public final class Lexer implements TokenStream {
+    public static @NotNull Lexer of(@NotNull String content, @NotNull String file) {
+        return of(content.toCharArray(), file);
+    }
+
+    public static @NotNull Lexer of(char @NotNull[] buf, @NotNull String file) {
+        return new Lexer(buf,
+                         SourceFile.of(file, buf),
+                         0,
+                         ParseContext.Mode.IDLE,
+                         OperatorTable.empty());
+    }
+
+    public static @NotNull Lexer of(@NotNull ParseContext ctx) {
+        return new Lexer(ctx.buf(), ctx.source(), ctx.pos(), ctx.mode(), ctx.infixOps());
+    }
+
+    /// Snapshot the current cursor state as an immutable {@link ParseContext}.
+    public @NotNull ParseContext toContext() {
+        return new ParseContext(buf, pos, source, mode, infixOps);
+    }
+
+    public @NotNull SourceFile source() {
+        return source;
+    }
+
+    public @NotNull String file() {
+        return source.name();
+    }
+
+    public int pos() {
+        return pos;
+    }
+
+    public int line() {
+        return source.line(pos);
+    }
+
+    public int col() {
+        return source.col(pos);
+    }
+
+    @Override
+    public @NotNull ParseContext.Mode mode() {
+        return mode;
+    }
+
+    @Override
+    public @NotNull ParseContext.Mode setMode(@NotNull ParseContext.Mode mode) {
+        ParseContext.Mode previous = this.mode;
+        this.mode = mode;
+        return previous;
+    }
+
+    @Override
+    public @NotNull OperatorTable infixOps() {
+        return infixOps;
+    }
+
+    @Override
+    public void setInfixOps(@NotNull OperatorTable infixOps) {
+        this.infixOps = infixOps;
+    }
+
+    /// Capture the cursor position. The mark is just the offset, so marking never allocates.
+    @Override
+    public long mark() {
+        return pos;
+    }
+
+    /// Rewind the cursor to a position previously returned by {@link #mark()}.
+    @Override
+    public void reset(long mark) {
+        pos = (int) mark;
+    }
+
+    @Override
+    public @NotNull Token next() throws LexicalException {
+        Token.Kind kind = scan();
+
+        return switch (kind) {
+            case IDENT -> word(buf, tokenStart, pos, mode, infixOps, source, tokenStart);
+            case LIT_NAT -> {
+                String lexeme = new String(buf, tokenStart, pos - tokenStart);
+                yield Token.nat(PrimNat.ofDigits(buf, tokenStart, pos), lexeme, source, tokenStart);
+            }
+            case LIT_STRING -> {
+                String lexeme = new String(buf, tokenStart + 1, pos - tokenStart - 2);
+                yield Token.string(unescape(lexeme), lexeme, source, tokenStart);
+            }
+            case EOI -> Token.eoi(source, tokenStart);
+            default -> Token.sym(kind, symbolLexeme(kind, buf[tokenStart]), source, tokenStart);
+        };
+    }
+
+    /// Scan the next token without building a {@link Token} object.
+    ///
+    /// On return, the token occupies `[tokenStart(), pos())`. Words are always reported as
+    /// {@link Token.Kind#IDENT}; telling keywords and operators apart is left to the caller, see
+    /// {@link #word}. String literals are validated but not unescaped.
+    Token.Kind scan() throws LexicalException {
+        while (true) {
+            pos = BulkScanner.INSTANCE.skipWhitespace(buf, pos, buf.length);
+            if (pos < buf.length && buf[pos] >= 0x80 && Character.isWhitespace(buf[pos])) {
+                pos++;
+            } else {
+                break;
+            }
+        }
+
+        tokenStart = pos;
+        if (pos >= buf.length) {
+            return Token.Kind.EOI;
+        }
+
+        return switch (buf[pos]) {
+            case '0', '1', '2', '3', '4',
+                 '5', '6', '7', '8', '9' -> scanNat();
+            case '"' -> scanString();
+            case ')', '[', ']', '{', '}',
+                 '→', '⇒', '.', ',', 'λ',
+                 '∀', 'Π' -> scanSingleChar();
+            case ':' ->
+                (pos + 1 < buf.length && buf[pos + 1] == '=')
+                    ? advance(Token.Kind.COLON_EQ, 2)
+                    : advance(Token.Kind.COLON, 1);
+            case '-' ->
+                (pos + 1 < buf.length && buf[pos + 1] == '>')
+                    ? advance(Token.Kind.ARROW, 2)
+                    : scanWord();
+            case '(' ->
+                (pos + 1 < buf.length && buf[pos + 1] == '*')
+                    ? skipComment()
+                    : advance(Token.Kind.L_PAREN, 1);
+            case '=' ->
+                (pos + 1 < buf.length && buf[pos + 1] == '>')
+                    ? advance(Token.Kind.D_ARROW, 2)
+                    : scanWord();
+            case '?' -> {
+                if (pos + 1 < buf.length && buf[pos + 1] == '?') {
+                    yield advance(Token.Kind.D_QUES, 2);
+                } else {
+                    throw new LexicalException(SourceRange.of(source, pos),
+                                               "变量名不能以问号 '?' 开头，"
+                                               + "若要输入 Hole，请使用 '??'");
+                }
+            }
+            default -> scanWord();
+        };
+    }
+
+    char[] buf() {
+        return buf;
+    }
+
+    int tokenStart() {
+        return tokenStart;
+    }
+
+    /// Classify the word spelled by `buf[start, end)` as a keyword, a user operator or an
+    /// identifier. Only identifiers need a lexeme string, which is interned.
+    static @NotNull Token word(char @NotNull[] buf,
+                               int start,
+                               int end,
+                               @NotNull ParseContext.Mode mode,
+                               @NotNull OperatorTable infixOps,
+                               @NotNull SourceFile source,
+                               int pos) {
+        @Nullable Keyword keyword = Keyword.match(buf, start, end);
+        if (keyword != null && keyword.activeIn(mode)) {
+            return Token.sym(keyword.kind, keyword.spelling, source, pos);
+        }
+
+        @Nullable Operator infix = infixOps.get(buf, start, end);
+        if (infix != null) {
+            return Token.infixOp(infix, source, pos);
+        }
+
+        return Token.ident(Symbol.intern(buf, start, end).name, source, pos);
+    }
+
+    /// Classify a word that is already known not to be a keyword in the current mode.
+    static @NotNull Token operatorOrIdent(@NotNull String lexeme,
+                                          @NotNull OperatorTable infixOps,
+                                          @NotNull SourceFile source,
+                                          int pos) {
+        @Nullable Operator infix = infixOps.get(lexeme);
+        if (infix != null) {
+            return Token.infixOp(infix, source, pos);
+        }
+        return Token.ident(lexeme, source, pos);
+    }
+
+    /// The lexeme of a punctuation token, given its kind and first character.
+    static @NotNull String symbolLexeme(@NotNull Token.Kind kind, char first) {
+        return switch (kind) {
+            case COLON_EQ -> ":=";
+            case COLON -> ":";
+            case ARROW -> first == '→' ? "→" : "->";
+            case D_ARROW -> first == '⇒' ? "⇒" : "=>";
+            case D_QUES -> "??";
+            case L_PAREN -> "(";
+            case R_PAREN -> ")";
+            case L_BRACKET -> "[";
+            case R_BRACKET -> "]";
+            case L_BRACE -> "{";
+            case R_BRACE -> "}";
+            case DOT -> ".";
+            case COMMA -> ",";
+            case PI -> first == '∀' ? "∀" : "Π";
+            case FUN -> "λ";
+            default -> throw new IllegalArgumentException("Not a punctuation token: " + kind);
+        };
+    }
+
+    /// Unescape the contents of a string literal that has already been validated by the lexer.
+    static @NotNull String unescape(@NotNull String lexeme) {
+        if (lexeme.indexOf('\\') < 0) {
+            return lexeme;
+        }
+
+        StringBuilder sb = new StringBuilder(lexeme.length());
+        for (int i = 0; i < lexeme.length(); i++) {
+            char c = lexeme.charAt(i);
+            if (c == '\\') {
+                i++;
+                sb.append(switch (lexeme.charAt(i)) {
+                    case 'n' -> '\n';
+                    case 't' -> '\t';
+                    default -> lexeme.charAt(i);
+                });
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private Token.Kind advance(Token.Kind kind, int length) {
+        pos += length;
+        return kind;
+    }
+
+    private Token.Kind scanWord() throws LexicalException {
+        while (pos < buf.length && ParseContext.isIdentChar(buf[pos])) {
+            pos++;
+        }
+
+        if (pos == tokenStart) {
+            throw new LexicalException(SourceRange.of(source, tokenStart),
+                                       "无效的字符：'" + buf[tokenStart] + "'");
+        }
+        return Token.Kind.IDENT;
+    }
+
+    private Token.Kind scanNat() {
+        while (pos < buf.length && Character.isDigit(buf[pos])) {
+            pos++;
+        }
+        return Token.Kind.LIT_NAT;
+    }
+
+    private Token.Kind scanString() throws LexicalException {
+        pos++;
+
+        while (pos < buf.length && buf[pos] != '"' && buf[pos] != '\n') {
+            if (buf[pos] == '\\') {
+                pos++;
+                if (pos >= buf.length) {
+                    throw new LexicalException(SourceRange.of(source, tokenStart),
+                                               "未终止的字符串字面量");
+                }
+                switch (buf[pos]) {
+                    case 'n', 't', '"', '\\' -> {}
+                    default -> throw new LexicalException(SourceRange.of(source, pos),
+                                                          "无效的转义字序列：'\\" + buf[pos] + "'");
+                }
+            }
+            pos++;
+        }
+
+        if (pos >= buf.length || buf[pos] != '"') {
+            throw new LexicalException(SourceRange.of(source, tokenStart),
+                                       "未终止的字符串字面量");
+        }
+
+        pos++;
+        return Token.Kind.LIT_STRING;
+    }
+
+    private Token.Kind scanSingleChar() {
+        char c = buf[pos];
+        Token.Kind kind = switch (c) {
+            case ')' -> Token.Kind.R_PAREN;
+            case '(' -> Token.Kind.L_PAREN;
+            case '[' -> Token.Kind.L_BRACKET;
+            case ']' -> Token.Kind.R_BRACKET;
+            case '{' -> Token.Kind.L_BRACE;
+            case '}' -> Token.Kind.R_BRACE;
+            case '→' -> Token.Kind.ARROW;
+            case '⇒' -> Token.Kind.D_ARROW;
+            case '.' -> Token.Kind.DOT;
+            case ',' -> Token.Kind.COMMA;
+            case '∀', 'Π' -> Token.Kind.PI;
+            case 'λ' -> Token.Kind.FUN;
+            default -> throw new IllegalStateException("Unexpected character: " + c);
+        };
+
+        return advance(kind, 1);
+    }
+
+    private Token.Kind skipComment() throws LexicalException {
+        int startPos = pos;
+        pos += 2;
+
+        int end = BulkScanner.INSTANCE.findCommentEnd(buf, pos, buf.length);
+        if (end < buf.length) {
+            pos = end + 2;
+            return scan();
+        }
+
+        throw new LexicalException(SourceRange.of(source, startPos),
+                                   "未终止的注释");
+    }
+
+    private Lexer(char[] buf,
+                  SourceFile source,
+                  int pos,
+                  ParseContext.Mode mode,
+                  OperatorTable infixOps) {
+        this.buf = buf;
+        this.source = source;
+        this.pos = pos;
+        this.mode = mode;
+        this.infixOps = infixOps;
+    }
+
+    private final char @NotNull[] buf;
+    private final @NotNull SourceFile source;
+    private @NotNull OperatorTable infixOps;
+    private int pos;
+    private int tokenStart;
+    private @NotNull ParseContext.Mode mode;
+}
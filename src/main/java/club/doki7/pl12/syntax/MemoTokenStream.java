@@ -0,0 +1,139 @@
+package club.doki7.pl12.syntax;
+
+import club.doki7.pl12.exc.LexicalException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/// A {@link TokenStream} that remembers recently lexed tokens by position.
+///
+/// The parser peeks by marking, reading a token and resetting, then reads the same token again
+/// once it has decided what to do with it. This stream keeps a small direct-mapped table keyed on
+/// the source mark and mode, so that such a peek followed by a consume costs a single lex.
+///
+/// Any {@link TokenStream} can be wrapped, as long as its marks grow with the position in the
+/// source; both {@link Lexer} and {@link Utf8Lexer} marks do.
+///
+/// {@link #stats()} reports how many tokens were requested, how many were actually lexed and how
+/// many of those lexes covered text that had already been lexed before.
+public final class MemoTokenStream implements TokenStream {
+    public record Stats(long requests, long lexes, long relexes) {
+        /// Average number of times each distinct token has been lexed; `1.0` means no token was
+        /// ever lexed twice.
+        public double relexRatio() {
+            long distinct = lexes - relexes;
+            return distinct == 0 ? 1.0 : (double) lexes / distinct;
+        }
+
+        @Override
+        public @NotNull String toString() {
+            return "requests=" + requests
+                   + ", lexes=" + lexes
+                   + ", relexes=" + relexes
+                   + ", relexRatio=" + String.format("%.3f", relexRatio());
+        }
+    }
+
+    public @NotNull TokenStream source() {
+        return source;
+    }
+
+    public @NotNull Stats stats() {
+        return new Stats(requests, lexes, relexes);
+    }
+
+    @Override
+    public @NotNull Token next() throws LexicalException {
+        requests++;
+
+        long start = source.mark();
+        ParseContext.Mode mode = source.mode();
+        int slot = slotOf(start);
+        Token cached = tokens[slot];
+        if (cached != null
+            && starts[slot] == start
+            && (modes[slot] == mode || !dependsOnMode(cached, modes[slot]))) {
+            source.reset(ends[slot]);
+            return cached;
+        }
+
+        Token tok = source.next();
+        long end = source.mark();
+        lexes++;
+        if (start < highWater) {
+            relexes++;
+        } else {
+            highWater = end;
+        }
+
+        tokens[slot] = tok;
+        starts[slot] = start;
+        ends[slot] = end;
+        modes[slot] = mode;
+        return tok;
+    }
+
+    @Override
+    public long mark() {
+        return source.mark();
+    }
+
+    @Override
+    public void reset(long mark) {
+        source.reset(mark);
+    }
+
+    @Override
+    public @NotNull ParseContext.Mode mode() {
+        return source.mode();
+    }
+
+    @Override
+    public @NotNull ParseContext.Mode setMode(@NotNull ParseContext.Mode mode) {
+        return source.setMode(mode);
+    }
+
+    @Override
+    public @NotNull OperatorTable infixOps() {
+        return source.infixOps();
+    }
+
+    @Override
+    public void setInfixOps(@NotNull OperatorTable infixOps) {
+        source.setInfixOps(infixOps);
+        // a new operator can split or merge the tokens lexed so far
+        Arrays.fill(tokens, null);
+    }
+
+    MemoTokenStream(@NotNull TokenStream source) {
+        this.source = source;
+    }
+
+    /// Whether re-lexing `tok` in a different mode could produce a different token. Only words are
+    /// affected: BVR keywords are recognized before user operators, so any word lexed outside BVR
+    /// mode might turn out to be a keyword there, and a BVR keyword is a plain word elsewhere.
+    private static boolean dependsOnMode(Token tok, ParseContext.Mode lexedIn) {
+        return switch (tok.kind()) {
+            case IDENT, INFIX -> lexedIn != ParseContext.Mode.BVR;
+            default -> tok.kind().isBvrKeyword();
+        };
+    }
+
+    private static int slotOf(long mark) {
+        return (int) mark & (CACHE_SIZE - 1);
+    }
+
+    // The parser never backtracks over more than a couple of tokens, so a handful of slots
+    // indexed by offset is enough to make every re-read a hit.
+    private static final int CACHE_SIZE = 16;
+
+    private final @NotNull TokenStream source;
+    private final Token[] tokens = new Token[CACHE_SIZE];
+    private final long[] starts = new long[CACHE_SIZE];
+    private final long[] ends = new long[CACHE_SIZE];
+    private final ParseContext.Mode[] modes = new ParseContext.Mode[CACHE_SIZE];
+    private long requests;
+    private long lexes;
+    private long relexes;
+    private long highWater;
+}
@@ -2,4 +2,20 @@ package club.doki7.pl12.syntax;
 
 public record Operator(String lexeme, int prec, Assoc assoc) {
     enum Assoc { LEFT, RIGHT, NONE }
+
+    /// How tightly this operator binds its left operand: an operator can only take the whole
+    /// expression on its left if that expression does not need a higher power on its right.
+    long leftBindingPower() {
+        return prec;
+    }
+
+    /// The least {@link #leftBindingPower} an operator needs to be part of the right operand of
+    /// this one. Left (and non-) associative operators exclude their own precedence, so that
+    /// `a + b + c` is `(a + b) + c`.
+    long rightBindingPower() {
+        return switch (assoc) {
+            case LEFT, NONE -> (long) prec + 1;
+            case RIGHT -> prec;
+        };
+    }
 }
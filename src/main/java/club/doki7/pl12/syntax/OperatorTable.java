@@ -0,0 +1,122 @@
+package club.doki7.pl12.syntax;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/// User operators declared by `Notation`, stored in a persistent character trie.
+///
+/// The lexer looks words up straight from the source buffer, so no {@link String} is built for
+/// words that are not operators, and a lookup gives up at the first character that no operator
+/// continues with. When no operator has been declared, a lookup costs a single comparison.
+///
+/// Tables are immutable. {@link #put} copies only the nodes on the path to the new operator and
+/// shares the rest, so keeping an older table around as a snapshot costs nothing, and a table may
+/// be shared freely between threads.
+public final class OperatorTable {
+    public static @NotNull OperatorTable empty() {
+        return EMPTY;
+    }
+
+    /// A table with `lexeme` bound to `operator`, replacing any previous binding.
+    public @NotNull OperatorTable put(@NotNull String lexeme, @NotNull Operator operator) {
+        int size1 = get(lexeme) == null ? size + 1 : size;
+        return new OperatorTable(root.put(lexeme, 0, operator), size1);
+    }
+
+    public @Nullable Operator get(@NotNull String lexeme) {
+        Node node = root;
+        for (int i = 0; i < lexeme.length() && node != null; i++) {
+            node = node.child(lexeme.charAt(i));
+        }
+        return node != null ? node.operator : null;
+    }
+
+    /// The operator spelled by `buf[start, end)`, if any.
+    public @Nullable Operator get(char @NotNull[] buf, int start, int end) {
+        if (size == 0) {
+            return null;
+        }
+
+        Node node = root;
+        for (int i = start; i < end && node != null; i++) {
+            node = node.child(buf[i]);
+        }
+        return node != null ? node.operator : null;
+    }
+
+    /// Every operator in the table, ordered by lexeme, so that equal tables give equal lists.
+    public @NotNull List<@NotNull Operator> operators() {
+        List<Operator> operators = new ArrayList<>(size);
+        root.collect(operators);
+        operators.sort(Comparator.comparing(Operator::lexeme));
+        return operators;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /// A trie node. Its arrays are never written after construction, so an updated node may share
+    /// them with the node it replaces.
+    private record Node(char[] keys, Node[] children, @Nullable Operator operator) {
+        @Nullable Node child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void collect(@NotNull List<Operator> operators) {
+            if (operator != null) {
+                operators.add(operator);
+            }
+            for (Node child : children) {
+                child.collect(operators);
+            }
+        }
+
+        @NotNull Node put(@NotNull String lexeme, int i, @NotNull Operator operator) {
+            if (i == lexeme.length()) {
+                return new Node(keys, children, operator);
+            }
+
+            char c = lexeme.charAt(i);
+            for (int j = 0; j < keys.length; j++) {
+                if (keys[j] == c) {
+                    Node[] children1 = children.clone();
+                    children1[j] = children[j].put(lexeme, i + 1, operator);
+                    return new Node(keys, children1, this.operator);
+                }
+            }
+
+            char[] keys1 = Arrays.copyOf(keys, keys.length + 1);
+            Node[] children1 = Arrays.copyOf(children, children.length + 1);
+            keys1[keys.length] = c;
+            children1[children.length] = EMPTY_NODE.put(lexeme, i + 1, operator);
+            return new Node(keys1, children1, this.operator);
+        }
+
+        private static final Node EMPTY_NODE = new Node(new char[0], new Node[0], null);
+    }
+
+    private OperatorTable(@NotNull Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    private static final OperatorTable EMPTY = new OperatorTable(Node.EMPTY_NODE, 0);
+
+    private final @NotNull Node root;
+    private final int size;
+}
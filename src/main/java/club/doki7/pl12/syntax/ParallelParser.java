@@ -0,0 +1,141 @@
+package club.doki7.pl12.syntax;
+
+import club.doki7.pl12.exc.LexicalException;
+import club.doki7.pl12.exc.ParseException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/// Parses the commands of a program in parallel, see {@link Parser#parseProgramParallel}.
+///
+/// The whole input is tokenized up front into a {@link TokenBuffer}. Since `.` only ever ends a
+/// command, the command boundaries can be read off the token kinds. `Notation` commands are the
+/// only ones that affect later commands, so they are parsed first, in order. Every other command
+/// gets the (persistent, hence shareable) operator table as it was after the last `Notation`
+/// before it, and is parsed on its own {@link TokenBuffer.Cursor}.
+///
+/// A command that parses at all consumes exactly the tokens up to its `.`, so every command is
+/// parsed from the same tokens, with the same operators, as in a sequential parse, and the first
+/// error in source order is the one that a sequential parse would have reported.
+final class ParallelParser {
+    static @NotNull Program parse(@NotNull ParseContext ctx, @NotNull ForkJoinPool pool)
+        throws ParseException
+    {
+        TokenBuffer buffer;
+        try {
+            buffer = TokenBuffer.tokenize(ctx);
+        } catch (LexicalException e) {
+            // A sequential parse may well stop at a syntax error before reaching this one
+            return Parser.parseProgram(ctx);
+        }
+
+        int[] starts = commandStarts(buffer);
+        if (starts.length < PARALLEL_THRESHOLD) {
+            return Parser.parseProgram(buffer.cursor(ctx.infixOps()));
+        }
+
+        ParallelParser parser = new ParallelParser(buffer, starts);
+        int end = parser.parseNotations(ctx.infixOps());
+        pool.invoke(parser.new ParseRange(0, end));
+
+        for (int i = 0; i <= Math.min(end, starts.length - 1); i++) {
+            if (parser.errors[i] != null) {
+                throw parser.errors[i];
+            }
+        }
+        return Program.of(Arrays.asList(parser.commands));
+    }
+
+    /// Index of the first token of every command, including an unterminated last one.
+    private static int[] commandStarts(TokenBuffer buffer) {
+        int eoi = buffer.size() - 1;
+        int[] starts = new int[16];
+        int count = 0;
+        for (int i = 0; i < eoi; i++) {
+            if (i == 0 || buffer.kind(i - 1) == Token.Kind.DOT) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /// Parse every `Notation` in order, threading the operator table through them, and give the
+    /// other commands the table they should see. Stops at the first `Notation` that fails, since
+    /// the operators seen by the commands after it are unknown, and returns how many commands
+    /// remain to be parsed.
+    private int parseNotations(OperatorTable infixOps) {
+        for (int i = 0; i < starts.length; i++) {
+            if (buffer.kind(starts[i]) != Token.Kind.KW_NOTATION) {
+                tables[i] = infixOps;
+                continue;
+            }
+
+            TokenBuffer.Cursor cursor = buffer.cursor(starts[i], infixOps);
+            try {
+                commands[i] = Parser.parseCommand(cursor);
+            } catch (ParseException e) {
+                errors[i] = e;
+                return i;
+            }
+            infixOps = cursor.infixOps();
+        }
+        return starts.length;
+    }
+
+    // ForkJoinTask is Serializable, but these tasks only ever live inside one parse, and could not
+    // be serialized anyway: they refer to the parser and its arrays
+    @SuppressWarnings("serial")
+    private final class ParseRange extends RecursiveAction {
+        @Override
+        protected void compute() {
+            if (end - start > BATCH_SIZE) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new ParseRange(start, mid), new ParseRange(mid, end));
+                return;
+            }
+
+            for (int i = start; i < end; i++) {
+                if (tables[i] == null) {
+                    continue;
+                }
+                try {
+                    commands[i] = Parser.parseCommand(buffer.cursor(starts[i], tables[i]));
+                } catch (ParseException e) {
+                    errors[i] = e;
+                }
+            }
+        }
+
+        ParseRange(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        private final int start;
+        private final int end;
+    }
+
+    private ParallelParser(TokenBuffer buffer, int[] starts) {
+        this.buffer = buffer;
+        this.starts = starts;
+        this.commands = new Command[starts.length];
+        this.errors = new ParseException[starts.length];
+        this.tables = new OperatorTable[starts.length];
+    }
+
+    /// Below this many commands, forking costs more than it saves.
+    private static final int PARALLEL_THRESHOLD = 64;
+    private static final int BATCH_SIZE = 32;
+
+    private final TokenBuffer buffer;
+    private final int[] starts;
+    private final Command[] commands;
+    private final ParseException[] errors;
+    /// Operators seen by each command, or `null` for `Notation` commands, which are already parsed.
+    private final OperatorTable[] tables;
+}
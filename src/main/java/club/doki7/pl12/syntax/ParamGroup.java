@@ -30,22 +30,6 @@ public record ParamGroup(@NotNull ImmSeq<@NotNull Token> names,
 
     @Override
     public @NotNull String toString() {
-        StringBuilder sb = new StringBuilder();
-        if (delim != null) {
-            sb.append(delim.first().lexeme());
-        }
-        for (int i = 0; i < names.size(); i++) {
-            sb.append(names.get(i).lexeme());
-            if (i != names.size() - 1) {
-                sb.append(' ');
-            }
-        }
-        if (type != null) {
-            sb.append(" : ").append(type);
-        }
-        if (delim != null) {
-            sb.append(delim.second().lexeme());
-        }
-        return sb.toString();
+        return ExprPrinter.doc(this).renderFlat();
     }
 }
@@ -0,0 +1,609 @@
+package club.doki7.pl12.syntax;
+
+import club.doki7.pl12.exc.ParseException;
+import club.doki7.pl12.exc.SourceFile;
+import club.doki7.pl12.prim.PrimNat;
+import club.doki7.pl12.util.ImmSeq;
+import club.doki7.pl12.util.Pair;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/// Parsed programs saved in a compact binary form, so that unchanged files need not be lexed and
+/// parsed again.
+///
+/// An entry is keyed by the SHA-256 of the source bytes. It also records the operators that were
+/// in scope before the file, and is only used when they are the same again. Positions are the byte
+/// offsets {@link Utf8Lexer} produces, so a decoded {@link Program} is indistinguishable from a
+/// freshly parsed one, down to the locations in error messages.
+///
+/// Entries are memory-mapped to be decoded, and written to a temporary file that is then moved
+/// into place, so a reader never sees half an entry. Entries that cannot be decoded are ignored
+/// and overwritten.
+///
+/// The format is big-endian: a header (magic, version, source hash), a pool of strings, the
+/// operators in scope, then the commands in prefix order. Each token is its kind, its position and
+/// its lexeme in the pool, followed by the operator for {@link Token.Kind#INFIX} and the decoded
+/// string for {@link Token.Kind#LIT_STRING}.
+public final class ParseCache {
+    /// A cache storing entries in `directory`, named after the hash of their source.
+    public static @NotNull ParseCache in(@NotNull Path directory) {
+        return new ParseCache(directory);
+    }
+
+    /// A cache storing the entry for each source file next to it, with {@link #SUFFIX} appended
+    /// to its name.
+    public static @NotNull ParseCache besideSources() {
+        return new ParseCache(null);
+    }
+
+    /// Parse `file` with `infixOps` in scope, decoding a cached result if there is a valid one,
+    /// and storing the result otherwise.
+    ///
+    /// Only failing to read `file` itself throws an {@link IOException}. An entry that cannot be
+    /// read is treated as missing, and one that cannot be written is skipped: the cache only ever
+    /// saves time.
+    public @NotNull Program parse(@NotNull Path file, @NotNull OperatorTable infixOps)
+        throws IOException, ParseException
+    {
+        MemorySegment content;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+        }
+        SourceFile source = SourceFile.ofUtf8(file.toString(), content);
+        byte[] hash = hash(content);
+        Path entry = entryFor(file, hash);
+
+        @Nullable Program cached;
+        try {
+            cached = read(entry, hash, source, infixOps);
+        } catch (IOException e) {
+            cached = null;
+        }
+        if (cached != null) {
+            return cached;
+        }
+
+        Utf8Lexer lexer = Utf8Lexer.of(content, file.toString());
+        lexer.setInfixOps(infixOps);
+        Program program = Parser.parseProgram(TokenStream.memoize(lexer));
+        try {
+            write(entry, hash, infixOps, program);
+        } catch (IOException e) {
+            // Read-only or full disk: parse again next time
+        }
+        return program;
+    }
+
+    /// Where the entry for `file` lives.
+    public @NotNull Path entryFor(@NotNull Path file, byte @NotNull[] hash) {
+        if (directory == null) {
+            return file.resolveSibling(file.getFileName() + SUFFIX);
+        }
+        return directory.resolve(HexFormat.of().formatHex(hash) + SUFFIX);
+    }
+
+    public static byte @NotNull[] hash(@NotNull MemorySegment content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content.asByteBuffer());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /// Decode the entry at `entry`, or return `null` if there is none, it is not for this content
+    /// and operator table, or it is damaged.
+    static @Nullable Program read(@NotNull Path entry,
+                                  byte @NotNull[] hash,
+                                  @NotNull SourceFile source,
+                                  @NotNull OperatorTable infixOps) throws IOException {
+        if (!Files.isRegularFile(entry)) {
+            return null;
+        }
+
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            MemorySegment segment =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            return new Decoder(segment, source).program(hash, infixOps);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            // Damaged or truncated
+            return null;
+        }
+    }
+
+    static void write(@NotNull Path entry,
+                      byte @NotNull[] hash,
+                      @NotNull OperatorTable infixOps,
+                      @NotNull Program program) throws IOException {
+        byte[] bytes = new Encoder().program(hash, infixOps, program);
+
+        Path parent = entry.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, entry.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, bytes);
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static final class Encoder {
+        byte @NotNull[] program(byte @NotNull[] hash,
+                                @NotNull OperatorTable infixOps,
+                                @NotNull Program program) throws IOException {
+            List<Operator> operators = infixOps.operators();
+            out.writeInt(operators.size());
+            for (Operator operator : operators) {
+                operator(operator);
+            }
+            out.writeInt(program.commands().size());
+            for (Command cmd : program.commands()) {
+                command(cmd);
+            }
+
+            ByteArrayOutputStream file = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(file);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.write(hash);
+            header.writeInt(strings.size());
+            for (String string : strings) {
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                header.writeInt(utf8.length);
+                header.write(utf8);
+            }
+            body.writeTo(header);
+            header.flush();
+            return file.toByteArray();
+        }
+
+        private void command(@NotNull Command cmd) throws IOException {
+            switch (cmd) {
+                case Command.Axiom(ImmSeq<Token> names,
+                                   Expr type,
+                                   Token axiom,
+                                   Token colon,
+                                   Token dot) -> {
+                    out.writeByte(0);
+                    tokens(names);
+                    expr(type);
+                    token(axiom);
+                    token(colon);
+                    token(dot);
+                }
+                case Command.Check(Expr expr, Token check, Token dot) -> {
+                    out.writeByte(1);
+                    expr(expr);
+                    token(check);
+                    token(dot);
+                }
+                case Command.Definition(Token name,
+                                        ImmSeq<ParamGroup> paramGroups,
+                                        Expr type,
+                                        Expr body,
+                                        Token def,
+                                        Token colon,
+                                        Token assign,
+                                        Token dot) -> {
+                    out.writeByte(2);
+                    token(name);
+                    paramGroups(paramGroups);
+                    expr(type);
+                    expr(body);
+                    token(def);
+                    token(colon);
+                    token(assign);
+                    token(dot);
+                }
+                case Command.Notation(Token name,
+                                      Operator.Assoc assoc,
+                                      int prec,
+                                      Expr expr,
+                                      Token notation,
+                                      Token assocToken,
+                                      Token lparen,
+                                      Token rparen,
+                                      Token assign,
+                                      Token dot) -> {
+                    out.writeByte(3);
+                    token(name);
+                    out.writeByte(assoc.ordinal());
+                    out.writeInt(prec);
+                    expr(expr);
+                    token(notation);
+                    token(assocToken);
+                    token(lparen);
+                    token(rparen);
+                    token(assign);
+                    token(dot);
+                }
+                case Command.Invalid(ImmSeq<Token> tokens) -> {
+                    out.writeByte(4);
+                    tokens(tokens);
+                }
+            }
+        }
+
+        private void expr(@NotNull Expr expr) throws IOException {
+            switch (expr) {
+                case Expr.Ann(Expr e, Expr ann, Token colon) -> {
+                    out.writeByte(0);
+                    expr(e);
+                    expr(ann);
+                    token(colon);
+                }
+                case Expr.Univ(Token aster) -> {
+                    out.writeByte(1);
+                    token(aster);
+                }
+                case Expr.Pi(ParamGroup paramGroup, Expr body, Token pi, Token comma) -> {
+                    out.writeByte(2);
+                    paramGroup(paramGroup);
+                    expr(body);
+                    token(pi);
+                    token(comma);
+                }
+                case Expr.Arrow(Expr from, Expr to, Token arrow) -> {
+                    out.writeByte(3);
+                    expr(from);
+                    expr(to);
+                    token(arrow);
+                }
+                case Expr.Var(Token name) -> {
+                    out.writeByte(4);
+                    token(name);
+                }
+                case Expr.Lit(Token lit) -> {
+                    out.writeByte(5);
+                    token(lit);
+                }
+                case Expr.App(Expr func, ImmSeq<Argument> args, boolean infix) -> {
+                    out.writeByte(6);
+                    expr(func);
+                    arguments(args);
+                    out.writeBoolean(infix);
+                }
+                case Expr.PartialApp(Expr func,
+                                     ImmSeq<Argument> args,
+                                     Token at,
+                                     Token lparen,
+                                     Token rparen) -> {
+                    out.writeByte(7);
+                    expr(func);
+                    arguments(args);
+                    token(at);
+                    token(lparen);
+                    token(rparen);
+                }
+                case Expr.Fun(ImmSeq<ParamGroup> paramGroups,
+                              Expr body,
+                              Token fun,
+                              Token arrow) -> {
+                    out.writeByte(8);
+                    paramGroups(paramGroups);
+                    expr(body);
+                    token(fun);
+                    token(arrow);
+                }
+                case Expr.Hole(Token hole) -> {
+                    out.writeByte(9);
+                    token(hole);
+                }
+                case Expr.Paren(Expr e, Token lParen, Token rParen) -> {
+                    out.writeByte(10);
+                    expr(e);
+                    token(lParen);
+                    token(rParen);
+                }
+            }
+        }
+
+        private void arguments(@NotNull ImmSeq<Argument> args) throws IOException {
+            out.writeInt(args.size());
+            for (Argument arg : args) {
+                switch (arg) {
+                    case Argument.Explicit(Expr e) -> {
+                        out.writeByte(0);
+                        expr(e);
+                    }
+                    case Argument.Implicit(Expr e, Token lbrace, Token rbrace) -> {
+                        out.writeByte(1);
+                        expr(e);
+                        token(lbrace);
+                        token(rbrace);
+                    }
+                    case Argument.NamedImplicit(Token name,
+                                                Expr e,
+                                                Token lbrace,
+                                                Token rbrace,
+                                                Token eq) -> {
+                        out.writeByte(2);
+                        token(name);
+                        expr(e);
+                        token(lbrace);
+                        token(rbrace);
+                        token(eq);
+                    }
+                }
+            }
+        }
+
+        private void paramGroups(@NotNull ImmSeq<ParamGroup> paramGroups) throws IOException {
+            out.writeInt(paramGroups.size());
+            for (ParamGroup paramGroup : paramGroups) {
+                paramGroup(paramGroup);
+            }
+        }
+
+        private void paramGroup(@NotNull ParamGroup paramGroup) throws IOException {
+            @Nullable Expr type = paramGroup.type();
+            @Nullable Token colon = paramGroup.colon();
+            @Nullable Pair<Token, Token> delim = paramGroup.delim();
+
+            tokens(paramGroup.names());
+            out.writeByte((type != null ? 1 : 0)
+                          | (colon != null ? 2 : 0)
+                          | (delim != null ? 4 : 0));
+            if (type != null) {
+                expr(type);
+            }
+            if (colon != null) {
+                token(colon);
+            }
+            if (delim != null) {
+                token(delim.first());
+                token(delim.second());
+            }
+        }
+
+        private void tokens(@NotNull ImmSeq<Token> tokens) throws IOException {
+            out.writeInt(tokens.size());
+            for (Token token : tokens) {
+                token(token);
+            }
+        }
+
+        private void token(@NotNull Token token) throws IOException {
+            out.writeByte(token.kind().ordinal());
+            out.writeInt(token.pos());
+            out.writeInt(string(token.lexeme()));
+            switch (token) {
+                case Token.Infix(_, Operator infixOp, _, _) -> {
+                    out.writeInt(infixOp.prec());
+                    out.writeByte(infixOp.assoc().ordinal());
+                }
+                case Token.LitString(_, String string, _, _, _) -> out.writeInt(string(string));
+                default -> {}
+            }
+        }
+
+        private void operator(@NotNull Operator operator) throws IOException {
+            out.writeInt(string(operator.lexeme()));
+            out.writeInt(operator.prec());
+            out.writeByte(operator.assoc().ordinal());
+        }
+
+        private int string(@NotNull String string) {
+            return stringIds.computeIfAbsent(string, s -> {
+                strings.add(s);
+                return strings.size() - 1;
+            });
+        }
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(body);
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> stringIds = new HashMap<>();
+    }
+
+    private static final class Decoder {
+        Decoder(@NotNull MemorySegment segment, @NotNull SourceFile source) {
+            this.segment = segment;
+            this.source = source;
+        }
+
+        @Nullable Program program(byte @NotNull[] hash, @NotNull OperatorTable infixOps) {
+            if (readInt() != MAGIC || readInt() != VERSION) {
+                return null;
+            }
+            for (byte b : hash) {
+                if (readByte() != b) {
+                    return null;
+                }
+            }
+
+            strings = new String[readCount()];
+            for (int i = 0; i < strings.length; i++) {
+                int length = readInt();
+                byte[] utf8 = segment.asSlice(offset, length).toArray(ValueLayout.JAVA_BYTE);
+                strings[i] = new String(utf8, StandardCharsets.UTF_8);
+                offset += length;
+            }
+
+            Operator[] operators = new Operator[readCount()];
+            for (int i = 0; i < operators.length; i++) {
+                operators[i] = operator(string());
+            }
+            if (!List.of(operators).equals(infixOps.operators())) {
+                return null;
+            }
+
+            Command[] commands = new Command[readCount()];
+            for (int i = 0; i < commands.length; i++) {
+                commands[i] = command();
+            }
+            return new Program(ImmSeq.ofUnsafe(commands));
+        }
+
+        private @NotNull Command command() {
+            return switch (readByte()) {
+                case 0 -> new Command.Axiom(tokens(), expr(), token(), token(), token());
+                case 1 -> new Command.Check(expr(), token(), token());
+                case 2 -> new Command.Definition(token(), paramGroups(), expr(), expr(),
+                                                 token(), token(), token(), token());
+                case 3 -> {
+                    Token name = token();
+                    Operator.Assoc assoc = assoc();
+                    int prec = readInt();
+                    yield new Command.Notation(name, assoc, prec, expr(), token(), token(),
+                                               token(), token(), token(), token());
+                }
+                case 4 -> new Command.Invalid(tokens());
+                default -> throw new IllegalArgumentException("bad command tag");
+            };
+        }
+
+        private @NotNull Expr expr() {
+            return switch (readByte()) {
+                case 0 -> new Expr.Ann(expr(), expr(), token());
+                case 1 -> new Expr.Univ(token());
+                case 2 -> new Expr.Pi(paramGroup(), expr(), token(), token());
+                case 3 -> new Expr.Arrow(expr(), expr(), token());
+                case 4 -> new Expr.Var(token());
+                case 5 -> new Expr.Lit(token());
+                case 6 -> new Expr.App(expr(), arguments(), readByte() != 0);
+                case 7 -> new Expr.PartialApp(expr(), arguments(), token(), token(), token());
+                case 8 -> new Expr.Fun(paramGroups(), expr(), token(), token());
+                case 9 -> new Expr.Hole(token());
+                case 10 -> new Expr.Paren(expr(), token(), token());
+                default -> throw new IllegalArgumentException("bad expression tag");
+            };
+        }
+
+        private @NotNull ImmSeq<Argument> arguments() {
+            Argument[] args = new Argument[readCount()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = switch (readByte()) {
+                    case 0 -> new Argument.Explicit(expr());
+                    case 1 -> new Argument.Implicit(expr(), token(), token());
+                    case 2 ->
+                        new Argument.NamedImplicit(token(), expr(), token(), token(), token());
+                    default -> throw new IllegalArgumentException("bad argument tag");
+                };
+            }
+            return ImmSeq.ofUnsafe(args);
+        }
+
+        private @NotNull ImmSeq<ParamGroup> paramGroups() {
+            ParamGroup[] groups = new ParamGroup[readCount()];
+            for (int i = 0; i < groups.length; i++) {
+                groups[i] = paramGroup();
+            }
+            return ImmSeq.ofUnsafe(groups);
+        }
+
+        private @NotNull ParamGroup paramGroup() {
+            ImmSeq<Token> names = tokens();
+            int flags = readByte();
+            @Nullable Expr type = (flags & 1) != 0 ? expr() : null;
+            @Nullable Token colon = (flags & 2) != 0 ? token() : null;
+            @Nullable Pair<Token, Token> delim =
+                (flags & 4) != 0 ? Pair.of(token(), token()) : null;
+            return new ParamGroup(names, type, colon, delim);
+        }
+
+        private @NotNull ImmSeq<Token> tokens() {
+            Token[] tokens = new Token[readCount()];
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = token();
+            }
+            return ImmSeq.ofUnsafe(tokens);
+        }
+
+        private @NotNull Token token() {
+            Token.Kind kind = KINDS[readByte()];
+            int pos = readInt();
+            String lexeme = string();
+            return switch (kind) {
+                case INFIX -> new Token.Infix(kind, operator(lexeme), source, pos);
+                case LIT_STRING -> new Token.LitString(kind, string(), lexeme, source, pos);
+                case LIT_NAT -> {
+                    char[] digits = lexeme.toCharArray();
+                    yield new Token.LitNat(kind, PrimNat.ofDigits(digits, 0, digits.length),
+                                           lexeme, source, pos);
+                }
+                default -> new Token.Simple(kind, lexeme, source, pos);
+            };
+        }
+
+        private @NotNull Operator operator(@NotNull String lexeme) {
+            int prec = readInt();
+            return new Operator(lexeme, prec, assoc());
+        }
+
+        private @NotNull Operator.Assoc assoc() {
+            return ASSOCS[readByte()];
+        }
+
+        private @NotNull String string() {
+            return strings[readInt()];
+        }
+
+        private int readInt() {
+            int value = segment.get(INT, offset);
+            offset += Integer.BYTES;
+            return value;
+        }
+
+        /// An element count, which cannot exceed the number of bytes left.
+        private int readCount() {
+            int count = readInt();
+            if (count < 0 || count > segment.byteSize() - offset) {
+                throw new IllegalArgumentException("bad count");
+            }
+            return count;
+        }
+
+        private byte readByte() {
+            return segment.get(ValueLayout.JAVA_BYTE, offset++);
+        }
+
+        private static final ValueLayout.OfInt INT =
+            ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+        private static final Token.Kind[] KINDS = Token.Kind.values();
+        private static final Operator.Assoc[] ASSOCS = Operator.Assoc.values();
+
+        private final @NotNull MemorySegment segment;
+        private final @NotNull SourceFile source;
+        private String[] strings;
+        private long offset;
+    }
+
+    private ParseCache(@Nullable Path directory) {
+        this.directory = directory;
+    }
+
+    public static final String SUFFIX = ".pl12c";
+
+    private static final int MAGIC = 0x504C3132;
+    /// Bump whenever the encoding or the syntax tree changes.
+    private static final int VERSION = 1;
+
+    /// `null` for entries next to their sources.
+    private final @Nullable Path directory;
+}
@@ -0,0 +1,14 @@
+package club.doki7.pl12.syntax;
+
+import club.doki7.pl12.exc.ParseException;
+import club.doki7.pl12.util.ImmSeq;
+import org.jetbrains.annotations.NotNull;
+
+/// The result of {@link Parser#parseProgramRecovering}: every command of the input, with a
+/// {@link Command.Invalid} for each one that failed to parse, and the errors, in source order.
+public record ParseResult(@NotNull Program program,
+                          @NotNull ImmSeq<@NotNull ParseException> diagnostics) {
+    public boolean hasErrors() {
+        return !diagnostics.isEmpty();
+    }
+}
@@ -1,6 +1,9 @@
 package club.doki7.pl12.syntax;
 
+import club.doki7.pl12.exc.LexicalException;
 import club.doki7.pl12.exc.ParseException;
+import club.doki7.pl12.exc.UncheckedParseException;
+import club.doki7.pl12.prim.PrimNat;
 import club.doki7.pl12.util.ImmSeq;
 import club.doki7.pl12.util.Pair;
 import org.jetbrains.annotations.NotNull;
@@ -8,19 +11,28 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public final class Parser {
     public static @NotNull Program
     parseProgram(ParseContext ctx) throws ParseException {
+        return parseProgram(TokenStream.memoize(Lexer.of(ctx)));
+    }
+
+    public static @NotNull Program
+    parseProgram(TokenStream stream) throws ParseException {
         List<Command> commands = new ArrayList<>();
 
         while (true) {
-            Pair<Command, ParseContext> p = parseCommand(ctx);
-            Command cmd = p.first();
-            ctx = p.second();
-
+            Command cmd = parseCommand(stream);
             if (cmd == null) {
                 break;
             }
@@ -31,152 +43,256 @@ public final class Parser {
         return Program.of(commands);
     }
 
+    /// Same as {@link #parseProgram(ParseContext)}, but does not stop at the first syntax error.
+    public static @NotNull ParseResult
+    parseProgramRecovering(ParseContext ctx) {
+        return parseProgramRecovering(TokenStream.memoize(Lexer.of(ctx)));
+    }
+
+    /// Same as {@link #parseProgram(TokenStream)}, but does not stop at the first syntax error.
+    ///
+    /// A command that fails to parse is skipped up to and including the next `.`, or up to the next
+    /// token that starts a command, whichever comes first, and becomes a {@link Command.Invalid}.
+    /// Parsing then resumes from there. A lexical error ends the program, since the lexer cannot
+    /// get past it.
+    public static @NotNull ParseResult
+    parseProgramRecovering(TokenStream stream) {
+        List<Command> commands = new ArrayList<>();
+        List<ParseException> diagnostics = new ArrayList<>();
+
+        while (true) {
+            long start = stream.mark();
+            ParseContext.Mode mode = stream.mode();
+            try {
+                Command cmd = parseCommand(stream);
+                if (cmd == null) {
+                    break;
+                }
+
+                commands.add(cmd);
+            } catch (ParseException e) {
+                diagnostics.add(e);
+                if (e instanceof LexicalException) {
+                    break;
+                }
+
+                stream.setMode(mode);
+                stream.reset(start);
+                try {
+                    commands.add(skipCommand(stream));
+                } catch (LexicalException lexicalError) {
+                    diagnostics.add(lexicalError);
+                    break;
+                }
+            }
+        }
+
+        return new ParseResult(Program.of(commands), ImmSeq.of(diagnostics));
+    }
+
+    /// Same as {@link #parseProgram(ParseContext)}, but parses the commands between two `Notation`
+    /// commands in parallel on the {@link ForkJoinPool#commonPool() common pool}.
+    public static @NotNull Program
+    parseProgramParallel(ParseContext ctx) throws ParseException {
+        return parseProgramParallel(ctx, ForkJoinPool.commonPool());
+    }
+
+    /// Same as {@link #parseProgram(ParseContext)}, but parses the commands between two `Notation`
+    /// commands in parallel on `pool`. The result and the first error reported are the same as
+    /// for a sequential parse.
+    public static @NotNull Program
+    parseProgramParallel(ParseContext ctx, ForkJoinPool pool) throws ParseException {
+        return ParallelParser.parse(ctx, pool);
+    }
+
+    /// Parse the text produced by applying `edit` to `before`, reusing the commands of `previous`,
+    /// the program parsed from `before`, that the edit cannot have affected. Only the commands
+    /// around the edit are lexed and parsed again, unless the edit changes a `Notation`.
+    public static @NotNull Program
+    reparse(Program previous, String before, TextEdit edit, String file) throws ParseException {
+        return IncrementalParser.reparse(previous, before, edit, file);
+    }
+
+    /// Parse commands lazily, one per {@link Iterator#next()}, so that each command can be handled
+    /// before the rest of the input is even lexed.
+    ///
+    /// `Notation` commands register their operator when they are parsed, so later commands see it
+    /// exactly as they would in {@link #parseProgram}. Parse errors are thrown from `hasNext` and
+    /// `next` as {@link UncheckedParseException}, after which the iterator is exhausted.
+    public static @NotNull Iterator<@NotNull Command> commandIterator(TokenStream stream) {
+        return new CommandIterator(stream);
+    }
+
+    /// A sequential {@link Stream} over {@link #commandIterator}.
+    public static @NotNull Stream<@NotNull Command> commands(TokenStream stream) {
+        Spliterator<Command> spliterator = Spliterators.spliteratorUnknownSize(
+            commandIterator(stream),
+            Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE
+        );
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    public static @NotNull Stream<@NotNull Command> commands(ParseContext ctx) {
+        return commands(TokenStream.memoize(Lexer.of(ctx)));
+    }
+
+    public static @NotNull Pair<@Nullable Command, @NotNull ParseContext>
+    parseCommand(ParseContext ctx) throws ParseException {
+        Lexer lexer = Lexer.of(ctx);
+        Command cmd = parseCommand(TokenStream.memoize(lexer));
+        return Pair.of(cmd, lexer.toContext());
+    }
+
     /// ```bnf
     /// command ::= axiom | check | definition | notation
     /// ```
-    public static @NotNull Pair<@Nullable Command, @NotNull ParseContext>
-    parseCommand(ParseContext ctx) throws ParseException {
-        Pair<Token, ParseContext> p = ctx.nextToken();
-        Token tok = p.first();
-        ParseContext ctx1 = p.second();
+    public static @Nullable Command
+    parseCommand(TokenStream stream) throws ParseException {
+        Token tok = stream.next();
 
         if (tok.kind() == Token.Kind.EOI) {
-            return Pair.of(null, ctx1);
+            return null;
         }
 
         return switch (tok.kind()) {
-            case Token.Kind.KW_AXIOM -> Pair.upcast(parseAxiom(tok, ctx1));
-            case Token.Kind.KW_CHECK -> Pair.upcast(parseCheck(tok, ctx1));
+            case Token.Kind.KW_AXIOM -> parseAxiom(tok, stream);
+            case Token.Kind.KW_CHECK -> parseCheck(tok, stream);
             case Token.Kind.KW_DEFINITION,
-                 Token.Kind.KW_PROCEDURE -> Pair.upcast(parseDefinition(tok, ctx1));
-            case Token.Kind.KW_NOTATION -> Pair.upcast(parseNotation(tok, ctx1));
+                 Token.Kind.KW_PROCEDURE -> parseDefinition(tok, stream);
+            case Token.Kind.KW_NOTATION -> parseNotation(tok, stream);
             default -> throw expectedAnyOfGot(tok, COMMAND_START);
         };
     }
 
-    public static @NotNull Pair<@NotNull Expr, @NotNull ParseContext>
-    parseExpr(ParseContext ctx) throws ParseException {
-        @Nullable ParseContext.Mode originalMode = ctx.mode();
-        if (ctx.mode() != ParseContext.Mode.BVR) {
-            ctx = ctx.setMode(ParseContext.Mode.BVR);
+    private static Command.@NotNull Invalid
+    skipCommand(TokenStream stream) throws LexicalException {
+        List<Token> tokens = new ArrayList<>();
+        tokens.add(stream.next());
+        while (tokens.getLast().kind() != Token.Kind.DOT) {
+            long mark = stream.mark();
+            Token tok = stream.next();
+            if (tok.kind() == Token.Kind.EOI || isCommandStart(tok.kind())) {
+                stream.reset(mark);
+                break;
+            }
+            tokens.add(tok);
         }
+        return new Command.Invalid(ImmSeq.of(tokens));
+    }
 
-        Pair<Expr, ParseContext> p = parseExprImpl(ctx);
-        if (originalMode == null) {
-            return p;
+    private static boolean isCommandStart(Token.Kind kind) {
+        for (Token.Kind start : COMMAND_START) {
+            if (kind == start) {
+                return true;
+            }
         }
-        return Pair.of(p.first(), p.second().setMode(originalMode));
+        return false;
+    }
+
+    public static @NotNull Pair<@NotNull Expr, @NotNull ParseContext>
+    parseExpr(ParseContext ctx) throws ParseException {
+        Lexer lexer = Lexer.of(ctx);
+        Expr expr = parseExpr(TokenStream.memoize(lexer));
+        return Pair.of(expr, lexer.toContext());
+    }
+
+    public static @NotNull Expr
+    parseExpr(TokenStream stream) throws ParseException {
+        ParseContext.Mode originalMode = stream.setMode(ParseContext.Mode.BVR);
+        Expr expr = parseExprImpl(stream);
+        stream.setMode(originalMode);
+        return expr;
     }
 
     /// ```bnf
     /// axiom ::= "Axiom" identifier-list ":" expr "."
     /// ```
-    private static @NotNull Pair<Command.@NotNull Axiom, @NotNull ParseContext>
-    parseAxiom(Token axiomTok, ParseContext ctx) throws ParseException {
-        Pair<ImmSeq<Token>, ParseContext> p1 = parseIdentList(ctx);
-        Pair<Token, ParseContext> p2 = expectConsume(p1.second(), Token.Kind.COLON);
-        Pair<Expr, ParseContext> p3 = parseExpr(p2.second());
-        Pair<Token, ParseContext> p4 = expectConsume(p3.second(), Token.Kind.DOT);
-
-        ImmSeq<Token> names = p1.first();
-        Token colon = p2.first();
-        Expr type = p3.first();
-        Token dot = p4.first();
-
-        return Pair.of(new Command.Axiom(names, type, colon, axiomTok, dot), p4.second());
+    private static Command.@NotNull Axiom
+    parseAxiom(Token axiomTok, TokenStream stream) throws ParseException {
+        ImmSeq<Token> names = parseIdentList(stream);
+        Token colon = expectConsume(stream, Token.Kind.COLON);
+        Expr type = parseExpr(stream);
+        Token dot = expectConsume(stream, Token.Kind.DOT);
+
+        return new Command.Axiom(names, type, colon, axiomTok, dot);
     }
 
     /// ```bnf
     /// check ::= "Check" expr "."
     /// ```
-    private static @NotNull Pair<Command.@NotNull Check, @NotNull ParseContext>
-    parseCheck(Token checkTok, ParseContext ctx) throws ParseException {
-        Pair<Expr, ParseContext> p1 = parseExpr(ctx);
-        Pair<Token, ParseContext> p2 = expectConsume(p1.second(), Token.Kind.DOT);
-
-        Expr expr = p1.first();
-        Token dot = p2.first();
-        ParseContext ctx1 = p2.second();
+    private static Command.@NotNull Check
+    parseCheck(Token checkTok, TokenStream stream) throws ParseException {
+        Expr expr = parseExpr(stream);
+        Token dot = expectConsume(stream, Token.Kind.DOT);
 
-        return Pair.of(new Command.Check(expr, checkTok, dot), ctx1);
+        return new Command.Check(expr, checkTok, dot);
     }
 
     /// ```bnf
     /// definition ::= definition-keyword name param-group* ":" expr ":=" expr "."
     /// definition-keyword ::= "Definition" | "Procedure"
     /// ```
-    private static @NotNull Pair<Command.@NotNull Definition, @NotNull ParseContext>
-    parseDefinition(Token defTok, ParseContext ctx) throws ParseException {
-        Pair<Token, ParseContext> p1 = expectConsume(ctx, Token.Kind.IDENT);
-        Pair<ImmSeq<ParamGroup>, ParseContext> p2 = parseParamGroupList(p1.second());
-        Pair<Token, ParseContext> p3 = expectConsume(p2.second(), Token.Kind.COLON);
-        Pair<Expr, ParseContext> p4 = parseExpr(p3.second());
-        Pair<Token, ParseContext> p5 = expectConsume(p4.second(), Token.Kind.COLON_EQ);
-        Pair<Expr, ParseContext> p6 = parseExpr(p5.second());
-        Pair<Token, ParseContext> p7 = expectConsume(p6.second(), Token.Kind.DOT);
-
-        Token name = p1.first();
-        ImmSeq<ParamGroup> paramGroups = p2.first();
-        Token colon = p3.first();
-        Expr type = p4.first();
-        Token assign = p5.first();
-        Expr body = p6.first();
-        Token dot = p7.first();
-
-        return Pair.of(new Command.Definition(name, paramGroups, type, body,
-                                              defTok, colon, assign, dot),
-                       p7.second());
+    private static Command.@NotNull Definition
+    parseDefinition(Token defTok, TokenStream stream) throws ParseException {
+        Token name = expectConsume(stream, Token.Kind.IDENT);
+        ImmSeq<ParamGroup> paramGroups = parseParamGroupList(stream);
+        Token colon = expectConsume(stream, Token.Kind.COLON);
+        Expr type = parseExpr(stream);
+        Token assign = expectConsume(stream, Token.Kind.COLON_EQ);
+        Expr body = parseExpr(stream);
+        Token dot = expectConsume(stream, Token.Kind.DOT);
+
+        return new Command.Definition(name, paramGroups, type, body, defTok, colon, assign, dot);
     }
 
     /// ```bnf
     /// notation ::= "Notation" assoc prec "(" name ")" ":=" expr "."
     /// ```
-    private static @NotNull Pair<Command.@NotNull Notation, @NotNull ParseContext>
-    parseNotation(Token notationTok, ParseContext ctx) throws ParseException {
-        Pair<Token, ParseContext> p1 = expectConsume(ctx, Token.Kind.IDENT);
-        Token assocToken = p1.first();
+    private static Command.@NotNull Notation
+    parseNotation(Token notationTok, TokenStream stream) throws ParseException {
+        Token assocToken = expectConsume(stream, Token.Kind.IDENT);
         Operator.Assoc assoc = parseAssoc(assocToken);
 
-        Pair<Token, ParseContext> p2 = expectConsume(p1.second(), Token.Kind.LIT_NAT);
-        Token.LitNat precToken = (Token.LitNat) p2.first();
-        int prec;
-        try {
-            prec = precToken.value().intValueExact();
-        } catch (ArithmeticException e) {
+        Token.LitNat precToken = (Token.LitNat) expectConsume(stream, Token.Kind.LIT_NAT);
+        if (!(precToken.value() instanceof PrimNat.Long(long precValue))
+            || precValue > Integer.MAX_VALUE) {
             throw new ParseException(precToken.range(),
                                      "Precedence value out of range: " + precToken.value());
         }
+        int prec = (int) precValue;
 
-        Pair<Token, ParseContext> p3 = expectConsume(p2.second(), Token.Kind.L_PAREN);
-        Pair<Token, ParseContext> p4 = expectConsume(p3.second(), Token.Kind.IDENT);
-        Pair<Token, ParseContext> p5 = expectConsume(p4.second(), Token.Kind.R_PAREN);
-        Pair<Token, ParseContext> p6 = expectConsume(p5.second(), Token.Kind.COLON_EQ);
-        Pair<Expr, ParseContext> p7 = parseExpr(p6.second());
-        Pair<Token, ParseContext> p8 = expectConsume(p7.second(), Token.Kind.DOT);
+        Token lParen = expectConsume(stream, Token.Kind.L_PAREN);
+        // Redeclaring an operator finds it already lexed as one
+        Token name = stream.next();
+        if (name.kind() != Token.Kind.IDENT && name.kind() != Token.Kind.INFIX) {
+            throw expectedAnyOfGot(name, Token.Kind.IDENT, Token.Kind.INFIX);
+        }
+        Token rParen = expectConsume(stream, Token.Kind.R_PAREN);
+        Token assign = expectConsume(stream, Token.Kind.COLON_EQ);
+        Expr expr = parseExpr(stream);
+        Token dot = expectConsume(stream, Token.Kind.DOT);
 
-        Token lParen = p3.first();
-        Token name = p4.first();
-        Token rParen = p5.first();
-        Token assign = p6.first();
-        Expr expr = p7.first();
-        Token dot = p8.first();
+        Operator operator = new Operator(name.lexeme(), prec, assoc);
+        stream.setInfixOps(stream.infixOps().put(name.lexeme(), operator));
 
-        return Pair.of(new Command.Notation(name, assoc, prec, expr,
-                                            notationTok, assocToken, lParen, rParen, assign, dot),
-                       p8.second());
+        return new Command.Notation(name, assoc, prec, expr,
+                                    notationTok, assocToken, lParen, rParen, assign, dot);
     }
 
     /// ```bnf
     /// expr ::= fun | pi | ann
     /// ```
-    private static @NotNull Pair<@NotNull Expr, @NotNull ParseContext>
-    parseExprImpl(ParseContext ctx) throws ParseException {
-        Pair<Token, ParseContext> p = ctx.nextToken();
-        Token tok = p.first();
+    private static @NotNull Expr
+    parseExprImpl(TokenStream stream) throws ParseException {
+        long mark = stream.mark();
+        Token tok = stream.next();
         return switch (tok.kind()) {
-            case Token.Kind.FUN -> parseFun(tok, p.second());
-            case Token.Kind.PI -> parsePi(tok, p.second());
-            default -> parseAnn(ctx);
+            case Token.Kind.FUN -> parseFun(tok, stream);
+            case Token.Kind.PI -> parsePi(tok, stream);
+            default -> {
+                stream.reset(mark);
+                yield parseAnn(stream);
+            }
         };
     }
 
@@ -184,95 +300,88 @@ public final class Parser {
     /// fun ::= "fun" param-group+ "=>" expr
     ///       | "fun" simple-param-group "=>" expr
     /// ```
-    private static @NotNull Pair<@NotNull Expr, @NotNull ParseContext>
-    parseFun(Token funTok, ParseContext ctx) throws ParseException {
-        Pair<Token, ParseContext> peek = ctx.nextToken();
-        Token tok = peek.first();
+    private static @NotNull Expr
+    parseFun(Token funTok, TokenStream stream) throws ParseException {
+        Token tok = peek(stream);
 
         List<ParamGroup> paramGroups = new ArrayList<>();
 
         if (tok.kind() == Token.Kind.L_PAREN || tok.kind() == Token.Kind.L_BRACE) {
             while (true) {
-                Pair<Token, ParseContext> p = ctx.nextToken();
-                Token t = p.first();
+                long mark = stream.mark();
+                Token t = stream.next();
                 if (t.kind() != Token.Kind.L_PAREN && t.kind() != Token.Kind.L_BRACE) {
+                    stream.reset(mark);
                     break;
                 }
-                Pair<ParamGroup, ParseContext> pg = parseParamGroup(t, p.second());
-                paramGroups.add(pg.first());
-                ctx = pg.second();
+                paramGroups.add(parseParamGroup(t, stream));
             }
         } else {
-            Pair<ParamGroup, ParseContext> pg = parseSimpleParamGroup(ctx);
-            paramGroups.add(pg.first());
-            ctx = pg.second();
+            paramGroups.add(parseSimpleParamGroup(stream));
         }
 
-        Pair<Token, ParseContext> p2 = expectConsume(ctx, Token.Kind.D_ARROW);
-        Pair<Expr, ParseContext> p3 = parseExprImpl(p2.second());
+        Token arrow = expectConsume(stream, Token.Kind.D_ARROW);
+        Expr body = parseExprImpl(stream);
 
-        return Pair.of(new Expr.Fun(ImmSeq.of(paramGroups), p3.first(), funTok, p2.first()),
-                       p3.second());
+        return new Expr.Fun(ImmSeq.of(paramGroups), body, funTok, arrow);
     }
 
     /// ```bnf
     /// pi ::= pi-keyword param-group "," expr
     /// pi-keyword ::= "∀" | "Π" | "forall"
     /// ```
-    private static @NotNull Pair<@NotNull Expr, @NotNull ParseContext>
-    parsePi(Token piTok, ParseContext ctx) throws ParseException {
-        Pair<Token, ParseContext> p1 = ctx.nextToken();
-        Token startTok = p1.first();
+    private static @NotNull Expr
+    parsePi(Token piTok, TokenStream stream) throws ParseException {
+        long mark = stream.mark();
+        Token startTok = stream.next();
 
         ParamGroup paramGroup;
         if (startTok.kind() == Token.Kind.L_PAREN || startTok.kind() == Token.Kind.L_BRACE) {
-            Pair<ParamGroup, ParseContext> pg = parseParamGroup(startTok, p1.second());
-            paramGroup = pg.first();
-            ctx = pg.second();
+            paramGroup = parseParamGroup(startTok, stream);
         } else {
-            Pair<ParamGroup, ParseContext> pg = parseSimpleParamGroup(ctx);
-            paramGroup = pg.first();
-            ctx = pg.second();
+            stream.reset(mark);
+            paramGroup = parseSimpleParamGroup(stream);
         }
 
-        Pair<Token, ParseContext> p2 = expectConsume(ctx, Token.Kind.COMMA);
-        Pair<Expr, ParseContext> p3 = parseExprImpl(p2.second());
+        Token comma = expectConsume(stream, Token.Kind.COMMA);
+        Expr body = parseExprImpl(stream);
 
-        return Pair.of(new Expr.Pi(paramGroup, p3.first(), piTok, p2.first()), p3.second());
+        return new Expr.Pi(paramGroup, body, piTok, comma);
     }
 
     /// ```bnf
     /// ann ::= term (":" expr)?
     /// ```
-    private static @NotNull Pair<@NotNull Expr, @NotNull ParseContext>
-    parseAnn(ParseContext ctx) throws ParseException {
-        Pair<Expr, ParseContext> p1 = parseArrow(ctx);
-        Pair<Token, ParseContext> peek = p1.second().nextToken();
-
-        if (peek.first().kind() == Token.Kind.COLON) {
-            Pair<Expr, ParseContext> p2 = parseExprImpl(peek.second());
-            return Pair.of(new Expr.Ann(p1.first(), p2.first(), peek.first()), p2.second());
+    private static @NotNull Expr
+    parseAnn(TokenStream stream) throws ParseException {
+        Expr expr = parseArrow(stream);
+
+        long mark = stream.mark();
+        Token peek = stream.next();
+        if (peek.kind() == Token.Kind.COLON) {
+            Expr ann = parseExprImpl(stream);
+            return new Expr.Ann(expr, ann, peek);
         } else {
-            return p1;
+            stream.reset(mark);
+            return expr;
         }
     }
 
     /// ```bnf
     /// arrow ::= term ("->" arrow)?
     /// ```
-    private static @NotNull Pair<@NotNull Expr, @NotNull ParseContext>
-    parseArrow(ParseContext ctx) throws ParseException {
-        Pair<Expr, ParseContext> p1 = parseTerm(ctx);
-        Expr left = p1.first();
-
-        Pair<Token, ParseContext> peek = p1.second().nextToken();
-        if (peek.first().kind() == Token.Kind.ARROW) {
-            Pair<Expr, ParseContext> p2 = parseArrow(peek.second());
-            Token arrow = peek.first();
-            Expr right = p2.first();
-            return Pair.of(new Expr.Arrow(left, right, arrow), p2.second());
+    private static @NotNull Expr
+    parseArrow(TokenStream stream) throws ParseException {
+        Expr left = parseTerm(stream);
+
+        long mark = stream.mark();
+        Token peek = stream.next();
+        if (peek.kind() == Token.Kind.ARROW) {
+            Expr right = parseArrow(stream);
+            return new Expr.Arrow(left, right, peek);
         } else {
-            return Pair.of(left, p1.second());
+            stream.reset(mark);
+            return left;
         }
     }
 
@@ -281,115 +390,109 @@ public final class Parser {
     /// binary-tail ::= op app
     /// ```
     ///
-    /// Pratt parsing with operator precedence.
-    private static @NotNull Pair<@NotNull Expr, @NotNull ParseContext>
-    parseTerm(ParseContext ctx) throws ParseException {
-        return parseTerm(ctx, Integer.MIN_VALUE);
-    }
-
-    @SuppressWarnings("InfiniteRecursion")
-    private static @NotNull Pair<@NotNull Expr, @NotNull ParseContext>
-    parseTerm(ParseContext ctx, int minPrec) throws ParseException {
-        Pair<Expr, ParseContext> p1 = parseApp(ctx);
-        Expr left = p1.first();
-        ctx = p1.second();
+    /// Operator precedence parsing with explicit operand and operator stacks, so that a chain of
+    /// any length takes constant stack depth. An operator on the stack is reduced as soon as the
+    /// next operator cannot be part of its right operand, see {@link Operator#rightBindingPower}.
+    private static @NotNull Expr
+    parseTerm(TokenStream stream) throws ParseException {
+        Expr first = parseApp(stream);
+        List<Expr> operands = null;
+        List<Token.Infix> operators = null;
 
         while (true) {
-            Pair<Token, ParseContext> peek = ctx.nextToken();
-            Token tok = peek.first();
-
-            if (tok.kind() != Token.Kind.INFIX) {
+            long mark = stream.mark();
+            Token tok = stream.next();
+            if (!(tok instanceof Token.Infix infixTok)) {
+                stream.reset(mark);
                 break;
             }
 
-            Token.Infix infixTok = (Token.Infix) tok;
-            Operator op = infixTok.infixOp();
-
-            if (op.prec() < minPrec) {
-                break;
+            if (operators == null) {
+                operands = new ArrayList<>();
+                operators = new ArrayList<>();
+                operands.add(first);
             }
 
-            ctx = peek.second();
-
-            int nextMinPrec = switch (op.assoc()) {
-                case LEFT, NONE -> op.prec() + 1;
-                case RIGHT -> op.prec();
-            };
-
-            Pair<Expr, ParseContext> p2 = parseTerm(ctx, nextMinPrec);
-            Expr right = p2.first();
-            ctx = p2.second();
+            long power = infixTok.infixOp().leftBindingPower();
+            while (!operators.isEmpty()
+                   && power < operators.getLast().infixOp().rightBindingPower()) {
+                reduceInfix(operands, operators);
+            }
+            operators.add(infixTok);
+            operands.add(parseApp(stream));
+        }
 
-            Expr opExpr = new Expr.Var(tok);
-            left = new Expr.App(opExpr,
-                                ImmSeq.of(new Argument.Explicit(left),
-                                          new Argument.Explicit(right)),
-                                true);
+        if (operators == null) {
+            return first;
+        }
+        while (!operators.isEmpty()) {
+            reduceInfix(operands, operators);
         }
+        return operands.getFirst();
+    }
 
-        return Pair.of(left, ctx);
+    private static void reduceInfix(List<Expr> operands, List<Token.Infix> operators) {
+        Token.Infix op = operators.removeLast();
+        Expr right = operands.removeLast();
+        Expr left = operands.removeLast();
+        Argument[] args = { new Argument.Explicit(left), new Argument.Explicit(right) };
+        operands.add(new Expr.App(new Expr.Var(op), ImmSeq.ofUnsafe(args), true));
     }
 
     /// ```bnf
     /// app ::= atom arg*
     /// arg ::= atom | "_" | "{" expr "}" | "{" name "=" expr "}"
     /// ```
-    private static @NotNull Pair<@NotNull Expr, @NotNull ParseContext>
-    parseApp(ParseContext ctx) throws ParseException {
-        Pair<Expr, ParseContext> p1 = parseAtom(ctx);
-        Expr func = p1.first();
-        ctx = p1.second();
+    private static @NotNull Expr
+    parseApp(TokenStream stream) throws ParseException {
+        Expr func = parseAtom(stream);
 
         List<Argument> args = new ArrayList<>();
 
         while (true) {
-            Pair<Token, ParseContext> peek = ctx.nextToken();
-            Token tok = peek.first();
+            long mark = stream.mark();
+            Token tok = stream.next();
 
             if (tok.kind() == Token.Kind.L_BRACE) {
-                Pair<Argument, ParseContext> argP = parseImplicitArg(tok, peek.second());
-                args.add(argP.first());
-                ctx = argP.second();
+                args.add(parseImplicitArg(tok, stream));
             } else if (isAtomStart(tok)) {
-                Pair<Expr, ParseContext> argExpr = parseAtom(ctx);
-                args.add(new Argument.Explicit(argExpr.first()));
-                ctx = argExpr.second();
+                stream.reset(mark);
+                args.add(new Argument.Explicit(parseAtom(stream)));
             } else {
+                stream.reset(mark);
                 break;
             }
         }
 
         if (args.isEmpty()) {
-            return Pair.of(func, ctx);
+            return func;
         } else {
-            return Pair.of(new Expr.App(func, ImmSeq.of(args), false), ctx);
+            return new Expr.App(func, ImmSeq.of(args), false);
         }
     }
 
     /// ```bnf
     /// implicit-arg ::= "{" expr "}" | "{" name "=" expr "}"
     /// ```
-    private static @NotNull Pair<@NotNull Argument, @NotNull ParseContext>
-    parseImplicitArg(Token lbrace, ParseContext ctx) throws ParseException {
-        Pair<Token, ParseContext> p1 = ctx.nextToken();
-        Token first = p1.first();
+    private static @NotNull Argument
+    parseImplicitArg(Token lbrace, TokenStream stream) throws ParseException {
+        long mark = stream.mark();
+        Token first = stream.next();
 
         if (first.kind() == Token.Kind.IDENT) {
-            Pair<Token, ParseContext> p2 = p1.second().nextToken();
-            if ((p2.first().kind() == Token.Kind.INFIX
-                 || p2.first().kind() == Token.Kind.IDENT)
-                && p2.first().lexeme().equals("=")) {
-                Pair<Expr, ParseContext> p3 = parseExprImpl(p2.second());
-                Pair<Token, ParseContext> p4 = expectConsume(p3.second(), Token.Kind.R_BRACE);
-                return Pair.of(new Argument.NamedImplicit(first, p3.first(),
-                                                          lbrace, p4.first(), p2.first()),
-                               p4.second());
+            Token eq = stream.next();
+            if ((eq.kind() == Token.Kind.INFIX || eq.kind() == Token.Kind.IDENT)
+                && eq.lexeme().equals("=")) {
+                Expr expr = parseExprImpl(stream);
+                Token rbrace = expectConsume(stream, Token.Kind.R_BRACE);
+                return new Argument.NamedImplicit(first, expr, lbrace, rbrace, eq);
             }
         }
 
-        Pair<Expr, ParseContext> exprP = parseExprImpl(ctx);
-        Pair<Token, ParseContext> rbrace = expectConsume(exprP.second(), Token.Kind.R_BRACE);
-        return Pair.of(new Argument.Implicit(exprP.first(), lbrace, rbrace.first()), rbrace.second());
+        stream.reset(mark);
+        Expr expr = parseExprImpl(stream);
+        Token rbrace = expectConsume(stream, Token.Kind.R_BRACE);
+        return new Argument.Implicit(expr, lbrace, rbrace);
     }
 
     private static boolean isAtomStart(Token tok) {
@@ -407,82 +510,75 @@ public final class Parser {
     /// ```bnf
     /// atom ::= univ | var | lit | hole | paren
     /// ```
-    private static @NotNull Pair<@NotNull Expr, @NotNull ParseContext>
-    parseAtom(ParseContext ctx) throws ParseException {
-        Pair<Token, ParseContext> p = ctx.nextToken();
-        Token tok = p.first();
-        ParseContext ctx1 = p.second();
+    private static @NotNull Expr
+    parseAtom(TokenStream stream) throws ParseException {
+        Token tok = stream.next();
 
         return switch (tok.kind()) {
-            case Token.Kind.UNIV -> Pair.of(new Expr.Univ(tok), ctx1);
-            case Token.Kind.IDENT -> Pair.of(new Expr.Var(tok), ctx1);
-            case Token.Kind.LIT_NAT, Token.Kind.LIT_STRING -> Pair.of(new Expr.Lit(tok), ctx1);
-            case Token.Kind.D_QUES -> Pair.of(new Expr.Hole(tok), ctx1);
+            case Token.Kind.UNIV -> new Expr.Univ(tok);
+            case Token.Kind.IDENT -> new Expr.Var(tok);
+            case Token.Kind.LIT_NAT, Token.Kind.LIT_STRING -> new Expr.Lit(tok);
+            case Token.Kind.D_QUES -> new Expr.Hole(tok);
             case Token.Kind.L_PAREN -> {
-                Pair<Expr, ParseContext> innerP = parseExprImpl(ctx1);
-                Pair<Token, ParseContext> rparenP = expectConsume(innerP.second(),
-                                                                  Token.Kind.R_PAREN);
-                yield Pair.of(new Expr.Paren(innerP.first(), tok, rparenP.first()),
-                              rparenP.second());
+                Expr inner = parseExprImpl(stream);
+                Token rParen = expectConsume(stream, Token.Kind.R_PAREN);
+                yield new Expr.Paren(inner, tok, rParen);
             }
-            default -> throw new ParseException(tok.range(), "此处需要表达式，遇到记号 " + tok.kind());
+            default -> throw new ParseException(tok.range(), () -> "此处需要表达式，遇到记号 " + tok.kind());
         };
     }
 
-    private static Pair<ImmSeq<ParamGroup>, ParseContext>
-    parseParamGroupList(ParseContext ctx) throws ParseException {
+    private static ImmSeq<ParamGroup>
+    parseParamGroupList(TokenStream stream) throws ParseException {
         List<ParamGroup> paramGroups = new ArrayList<>();
 
         while (true) {
-            Pair<Token, ParseContext> p = ctx.nextToken();
-            Token tok = p.first();
-            ParseContext ctx1 = p.second();
+            long mark = stream.mark();
+            Token tok = stream.next();
 
             if (tok.kind() != Token.Kind.L_PAREN && tok.kind() != Token.Kind.L_BRACE) {
+                stream.reset(mark);
                 checkNameShadowing(paramGroups);
-                return Pair.of(ImmSeq.of(paramGroups), ctx);
+                return ImmSeq.of(paramGroups);
             }
 
-            Pair<ParamGroup, ParseContext> p2 = parseParamGroup(tok, ctx1);
-            paramGroups.add(p2.first());
-            ctx = p2.second();
+            paramGroups.add(parseParamGroup(tok, stream));
         }
     }
 
-    private static Pair<ParamGroup, ParseContext>
-    parseParamGroup(Token startToken, ParseContext ctx) throws ParseException {
-        Pair<ImmSeq<Token>, ParseContext> p1 = parseIdentList(ctx);
-        Pair<Token, ParseContext> p2 = p1.second().nextToken();
-        Token colonOrEnd = p2.first();
+    private static ParamGroup
+    parseParamGroup(Token startToken, TokenStream stream) throws ParseException {
+        ImmSeq<Token> names = parseIdentList(stream);
+        Token colonOrEnd = stream.next();
         if (colonOrEnd.kind() != Token.Kind.COLON) {
             Token.Kind expectedEnd = matchToken(startToken.kind());
-            if (colonOrEnd.kind() != matchToken(startToken.kind())) {
+            if (colonOrEnd.kind() != expectedEnd) {
                 throw expectedAnyOfGot(colonOrEnd, Token.Kind.COLON, expectedEnd);
             }
             Pair<Token, Token> delim = Pair.of(startToken, colonOrEnd);
-            return Pair.of(new ParamGroup(p1.first(), null, null, delim), p2.second());
+            return new ParamGroup(names, null, null, delim);
         }
 
-        Pair<Expr, ParseContext> p3 = parseExprImpl(p2.second());
-        Pair<Token, ParseContext> p4 = expectConsume(p3.second(),
-                                                     matchToken(startToken.kind()));
-        Pair<Token, Token> delim = Pair.of(startToken, p4.first());
-        return Pair.of(new ParamGroup(p1.first(), p3.first(), colonOrEnd, delim), p4.second());
+        Expr type = parseExprImpl(stream);
+        Token end = expectConsume(stream, matchToken(startToken.kind()));
+        Pair<Token, Token> delim = Pair.of(startToken, end);
+        return new ParamGroup(names, type, colonOrEnd, delim);
     }
 
-    private static Pair<ParamGroup, ParseContext>
-    parseSimpleParamGroup(ParseContext ctx) throws ParseException {
-        Pair<ImmSeq<Token>, ParseContext> p1 = parseIdentList(ctx);
-        Pair<Token, ParseContext> p2 = p1.second().nextToken();
-        Token colonOrEnd = p2.first();
+    private static ParamGroup
+    parseSimpleParamGroup(TokenStream stream) throws ParseException {
+        ImmSeq<Token> names = parseIdentList(stream);
+        long mark = stream.mark();
+        Token colonOrEnd = stream.next();
         if (colonOrEnd.kind() != Token.Kind.COLON) {
-            ParamGroup group = new ParamGroup(p1.first(), null, null, null);
+            stream.reset(mark);
+            ParamGroup group = new ParamGroup(names, null, null, null);
             checkNameShadowing(List.of(group));
-            return Pair.of(group, p1.second());
+            return group;
         }
 
-        Pair<Expr, ParseContext> p3 = parseExprImpl(p2.second());
-        return Pair.of(new ParamGroup(p1.first(), p3.first(), colonOrEnd, null), p3.second());
+        Expr type = parseExprImpl(stream);
+        return new ParamGroup(names, type, colonOrEnd, null);
     }
 
     private static void checkNameShadowing(List<ParamGroup> paramGroups) throws ParseException {
@@ -502,50 +598,55 @@ public final class Parser {
         }
     }
 
-    private static Pair<ImmSeq<Token>, ParseContext>
-    parseIdentList(ParseContext ctx) throws ParseException {
+    private static ImmSeq<Token>
+    parseIdentList(TokenStream stream) throws ParseException {
         List<Token> idents = new ArrayList<>();
         while (true) {
-            Pair<Token, ParseContext> p = ctx.nextToken();
-            Token tok = p.first();
-            ParseContext ctx1 = p.second();
+            long mark = stream.mark();
+            Token tok = stream.next();
 
             if (tok.kind() != Token.Kind.IDENT) {
                 if (idents.isEmpty()) {
-                    throw new ParseException(tok.range(), "此处需要标识符，遇到记号 " + tok.kind());
+                    throw new ParseException(tok.range(), () -> "此处需要标识符，遇到记号 " + tok.kind());
                 } else {
-                    return Pair.of(ImmSeq.of(idents), ctx);
+                    stream.reset(mark);
+                    return ImmSeq.of(idents);
                 }
             }
 
             idents.add(tok);
-            ctx = ctx1;
         }
     }
 
-    private static Pair<Token, ParseContext>
-    expectConsume(ParseContext ctx, Token.Kind expected) throws ParseException {
-        Pair<Token, ParseContext> p = ctx.nextToken();
-        Token got = p.first();
-        ParseContext ctx1 = p.second();
+    private static Token peek(TokenStream stream) throws ParseException {
+        long mark = stream.mark();
+        Token tok = stream.next();
+        stream.reset(mark);
+        return tok;
+    }
 
+    private static Token
+    expectConsume(TokenStream stream, Token.Kind expected) throws ParseException {
+        Token got = stream.next();
         if (got.kind() != expected) {
-            throw new ParseException(got.range(), "此处需要 " + expected + "，遇到 " + got.kind());
+            throw new ParseException(got.range(), () -> "此处需要 " + expected + "，遇到 " + got.kind());
         }
-        return Pair.of(got, ctx1);
+        return got;
     }
 
     private static ParseException expectedAnyOfGot(Token got, Token.Kind ...expected) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < expected.length; i++) {
-            sb.append(expected[i]);
-            if (i < expected.length - 2) {
-                sb.append(", ");
-            } else if (i == expected.length - 2) {
-                sb.append(" 或 ");
+        return new ParseException(got.range(), () -> {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < expected.length; i++) {
+                sb.append(expected[i]);
+                if (i < expected.length - 2) {
+                    sb.append(", ");
+                } else if (i == expected.length - 2) {
+                    sb.append(" 或 ");
+                }
             }
-        }
-        return new ParseException(got.range(), "此处需要 " + sb + "，遇到" + got.kind());
+            return "此处需要 " + sb + "，遇到" + got.kind();
+        });
     }
 
     private static Token.Kind matchToken(Token.Kind startKind) {
@@ -568,6 +669,40 @@ public final class Parser {
         };
     }
 
+    private static final class CommandIterator implements Iterator<Command> {
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                try {
+                    next = parseCommand(stream);
+                } catch (ParseException e) {
+                    done = true;
+                    throw new UncheckedParseException(e);
+                }
+                done = next == null;
+            }
+            return next != null;
+        }
+
+        @Override
+        public @NotNull Command next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Command cmd = next;
+            next = null;
+            return cmd;
+        }
+
+        CommandIterator(TokenStream stream) {
+            this.stream = stream;
+        }
+
+        private final TokenStream stream;
+        private @Nullable Command next;
+        private boolean done;
+    }
+
     private static final Token.Kind[] COMMAND_START = new Token.Kind[] {
         Token.Kind.KW_AXIOM,
         Token.Kind.KW_CHECK,
@@ -0,0 +1,48 @@
+package club.doki7.pl12.syntax;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/// {@link BulkScanner} that looks at one character at a time.
+final class ScalarBulkScanner implements BulkScanner {
+    @Override
+    public int skipWhitespace(char @NotNull[] buf, int from, int to) {
+        int i = from;
+        while (i < to && BulkScanner.isAsciiWhitespace(buf[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    @Override
+    public int skipWhitespace(@NotNull MemorySegment segment, int from, int to) {
+        int i = from;
+        while (i < to && BulkScanner.isAsciiWhitespace(segment.get(ValueLayout.JAVA_BYTE, i))) {
+            i++;
+        }
+        return i;
+    }
+
+    @Override
+    public int findCommentEnd(char @NotNull[] buf, int from, int to) {
+        for (int i = from; i + 1 < to; i++) {
+            if (buf[i] == '*' && buf[i + 1] == ')') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    @Override
+    public int findCommentEnd(@NotNull MemorySegment segment, int from, int to) {
+        for (int i = from; i + 1 < to; i++) {
+            if (segment.get(ValueLayout.JAVA_BYTE, i) == '*'
+                && segment.get(ValueLayout.JAVA_BYTE, i + 1) == ')') {
+                return i;
+            }
+        }
+        return to;
+    }
+}
@@ -0,0 +1,41 @@
+package club.doki7.pl12.syntax;
+
+import org.jetbrains.annotations.NotNull;
+
+/// Replacement of the text `[start, end)` by `text`. Offsets are `char` indices into the text
+/// before the edit.
+public record TextEdit(int start, int end, @NotNull String text) {
+    public TextEdit {
+        assert 0 <= start && start <= end;
+    }
+
+    /// The smallest single edit that turns `before` into `after`, found by trimming their common
+    /// prefix and suffix.
+    public static @NotNull TextEdit between(@NotNull String before, @NotNull String after) {
+        int limit = Math.min(before.length(), after.length());
+        int prefix = 0;
+        while (prefix < limit && before.charAt(prefix) == after.charAt(prefix)) {
+            prefix++;
+        }
+
+        int suffix = 0;
+        while (suffix < limit - prefix
+               && before.charAt(before.length() - 1 - suffix)
+                  == after.charAt(after.length() - 1 - suffix)) {
+            suffix++;
+        }
+
+        return new TextEdit(prefix,
+                            before.length() - suffix,
+                            after.substring(prefix, after.length() - suffix));
+    }
+
+    /// How far text after the edit moves.
+    public int delta() {
+        return text.length() - (end - start);
+    }
+
+    public @NotNull String apply(@NotNull String before) {
+        return before.substring(0, start) + text + before.substring(end);
+    }
+}
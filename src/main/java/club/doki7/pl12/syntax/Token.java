@@ -1,7 +1,9 @@
 package club.doki7.pl12.syntax;
 
+import club.doki7.pl12.exc.SourceFile;
 import club.doki7.pl12.exc.SourceLocation;
 import club.doki7.pl12.exc.SourceRange;
+import club.doki7.pl12.prim.PrimNat;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.TestOnly;
 
@@ -108,31 +110,63 @@ public sealed interface Token {
             Map.entry("return", KW_BVR_RETURN),
             Map.entry("end", KW_BVR_END)
         );
+
+        /// Whether this kind is only produced in {@link ParseContext.Mode#BVR} mode.
+        public boolean isBvrKeyword() {
+            return compareTo(KW_BVR_LET) >= 0 && compareTo(KW_BVR_END) <= 0;
+        }
     }
 
     @NotNull Kind kind();
 
     @NotNull String lexeme();
 
-    @NotNull String file();
+    @NotNull SourceFile source();
 
     int pos();
 
-    int line();
+    default @NotNull String file() {
+        return source().name();
+    }
+
+    default int line() {
+        return source().line(pos());
+    }
 
-    int col();
+    default int col() {
+        return source().col(pos());
+    }
 
     default @NotNull SourceLocation location() {
-        return new SourceLocation(file(), pos(), line(), col());
+        return new SourceLocation(source(), pos());
     }
 
     default @NotNull SourceLocation locationEnd() {
-        int len = lexeme().length();
-        return new SourceLocation(file(), pos() + len, line(), col() + len);
+        return new SourceLocation(source(), source().advance(pos(), lexeme()));
     }
 
     default @NotNull SourceRange range() {
-        return new SourceRange(location(), locationEnd());
+        return new SourceRange(source(), pos(), source().advance(pos(), lexeme()));
+    }
+
+    /// {@link #range()}, packed, see {@link SourceRange#packed()}.
+    default long packedRange() {
+        return SourceRange.pack(source(), pos(), source().advance(pos(), lexeme()));
+    }
+
+    /// The same token, moved by `delta` into `source`. Used to keep syntax trees from before an
+    /// edit that did not touch them.
+    default @NotNull Token relocate(@NotNull SourceFile source, int delta) {
+        return switch (this) {
+            case Simple(Kind kind, String lexeme, _, int pos) ->
+                new Simple(kind, lexeme, source, pos + delta);
+            case LitString(Kind kind, String string, String lexeme, _, int pos) ->
+                new LitString(kind, string, lexeme, source, pos + delta);
+            case LitNat(Kind kind, PrimNat value, String lexeme, _, int pos) ->
+                new LitNat(kind, value, lexeme, source, pos + delta);
+            case Infix(Kind kind, Operator infixOp, _, int pos) ->
+                new Infix(kind, infixOp, source, pos + delta);
+        };
     }
 
     @Override
@@ -140,10 +174,8 @@ public sealed interface Token {
 
     record Simple(@NotNull Kind kind,
                   @NotNull String lexeme,
-                  @NotNull String file,
-                  int pos,
-                  int line,
-                  int col)
+                  @NotNull SourceFile source,
+                  int pos)
         implements Token
     {
         @Override
@@ -154,7 +186,7 @@ public sealed interface Token {
         @Override
         public boolean equals(Object obj) {
             if (this == obj) return true;
-            if (!(obj instanceof Simple(Kind kind1, String lexeme1, _, _, _, _))) return false;
+            if (!(obj instanceof Simple(Kind kind1, String lexeme1, _, _))) return false;
             if (kind == Kind.IDENT) {
                 return kind == kind1 && lexeme.equals(lexeme1);
             } else {
@@ -175,10 +207,8 @@ public sealed interface Token {
     record LitString(@NotNull Kind kind,
                      @NotNull String string,
                      @NotNull String lexeme,
-                     @NotNull String file,
-                     int pos,
-                     int line,
-                     int col)
+                     @NotNull SourceFile source,
+                     int pos)
         implements Token
     {
         @Override
@@ -189,7 +219,7 @@ public sealed interface Token {
         @Override
         public boolean equals(Object obj) {
             if (this == obj) return true;
-            if (!(obj instanceof LitString(Kind kind1, String string1, _, _, _, _, _))) {
+            if (!(obj instanceof LitString(Kind kind1, String string1, _, _, _))) {
                 return false;
             }
             return kind == kind1 && string.equals(string1);
@@ -202,12 +232,10 @@ public sealed interface Token {
     }
 
     record LitNat(@NotNull Kind kind,
-                  @NotNull BigInteger value,
+                  @NotNull PrimNat value,
                   @NotNull String lexeme,
-                  @NotNull String file,
-                  int pos,
-                  int line,
-                  int col)
+                  @NotNull SourceFile source,
+                  int pos)
         implements Token
     {
         @Override
@@ -218,7 +246,7 @@ public sealed interface Token {
         @Override
         public boolean equals(Object obj) {
             if (this == obj) return true;
-            if (!(obj instanceof LitNat(Kind kind1, BigInteger value1, _, _, _, _, _))) {
+            if (!(obj instanceof LitNat(Kind kind1, PrimNat value1, _, _, _))) {
                 return false;
             }
             return kind == kind1 && value.equals(value1);
@@ -232,10 +260,8 @@ public sealed interface Token {
 
     record Infix(@NotNull Kind kind,
                  @NotNull Operator infixOp,
-                 @NotNull String file,
-                 int pos,
-                 int line,
-                 int col)
+                 @NotNull SourceFile source,
+                 int pos)
         implements Token
     {
         @Override
@@ -251,7 +277,7 @@ public sealed interface Token {
         @Override
         public boolean equals(Object obj) {
             if (this == obj) return true;
-            if (!(obj instanceof Infix(Kind kind1, Operator infixOp1, _, _, _, _))) {
+            if (!(obj instanceof Infix(Kind kind1, Operator infixOp1, _, _))) {
                 return false;
             }
             return kind == kind1 && infixOp.equals(infixOp1);
@@ -263,80 +289,73 @@ public sealed interface Token {
         }
     }
 
-    static Token ident(@NotNull String lexeme, @NotNull String file, int pos, int line, int col) {
-        return new Simple(Kind.IDENT, lexeme, file, pos, line, col);
+    static Token ident(@NotNull String lexeme, @NotNull SourceFile source, int pos) {
+        return new Simple(Kind.IDENT, lexeme, source, pos);
     }
 
     static Token string(@NotNull String string,
                         @NotNull String lexeme,
-                        @NotNull String file,
-                        int pos,
-                        int line,
-                        int col)
+                        @NotNull SourceFile source,
+                        int pos)
     {
-        return new LitString(Kind.LIT_STRING, string, lexeme, file, pos, line, col);
+        return new LitString(Kind.LIT_STRING, string, lexeme, source, pos);
     }
 
-    static Token nat(@NotNull BigInteger value,
+    static Token nat(@NotNull PrimNat value,
                      @NotNull String lexeme,
-                     @NotNull String file,
-                     int pos,
-                     int line,
-                     int col)
+                     @NotNull SourceFile source,
+                     int pos)
     {
-        return new LitNat(Kind.LIT_NAT, value, lexeme, file, pos, line, col);
+        return new LitNat(Kind.LIT_NAT, value, lexeme, source, pos);
     }
 
     static Token sym(@NotNull Kind kind,
                      @NotNull String lexeme,
-                     @NotNull String file,
-                     int pos,
-                     int line,
-                     int col)
+                     @NotNull SourceFile source,
+                     int pos)
     {
-        return new Simple(kind, lexeme, file, pos, line, col);
+        return new Simple(kind, lexeme, source, pos);
     }
 
-    static Token infixOp(@NotNull Operator infixOp,
-                         @NotNull String file,
-                         int pos,
-                         int line,
-                         int col)
-    {
-        return new Infix(Kind.INFIX, infixOp, file, pos, line, col);
+    static Token infixOp(@NotNull Operator infixOp, @NotNull SourceFile source, int pos) {
+        return new Infix(Kind.INFIX, infixOp, source, pos);
     }
 
-    static Token eoi(@NotNull String file, int pos, int line, int col) {
-        return new Simple(Kind.EOI, "<EOI>", file, pos, line, col);
+    static Token eoi(@NotNull SourceFile source, int pos) {
+        return new Simple(Kind.EOI, "<EOI>", source, pos);
     }
 
     @TestOnly
     static Token ident(@NotNull String lexeme) {
-        return new Simple(Kind.IDENT, lexeme, "<test>", 0, 0, 0);
+        return new Simple(Kind.IDENT, lexeme, SourceFile.INVALID, 0);
     }
 
     @TestOnly
     static Token sym(@NotNull Kind kind) {
-        return new Simple(kind, kind.toString(), "<test>", 0, 0, 0);
+        return new Simple(kind, kind.toString(), SourceFile.INVALID, 0);
     }
 
     @TestOnly
     static Token string(@NotNull String string) {
-        return new LitString(Kind.LIT_STRING, string, "\"" + string + "\"", "<test>", 0, 0, 0);
+        return new LitString(Kind.LIT_STRING, string, "\"" + string + "\"", SourceFile.INVALID, 0);
     }
 
     @TestOnly
     static Token nat(@NotNull BigInteger value) {
-        return new LitNat(Kind.LIT_NAT, value, value.toString(), "<test>", 0, 0, 0);
+        return new LitNat(Kind.LIT_NAT,
+                          PrimNat.of(value),
+                          value.toString(),
+                          SourceFile.INVALID,
+                          0);
     }
 
     @TestOnly
     static Token infixOp(@NotNull Operator infixOp) {
-        return new Infix(Kind.INFIX, infixOp, "<test>", 0, 0, 0);
+        return new Infix(Kind.INFIX, infixOp, SourceFile.INVALID, 0);
     }
 
     @TestOnly
     static Token eoi() {
-        return new Simple(Kind.EOI, "<EOI>", "<test>", 0, 0, 0);
+        return new Simple(Kind.EOI, "<EOI>", SourceFile.INVALID, 0);
     }
 }
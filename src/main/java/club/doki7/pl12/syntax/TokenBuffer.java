@@ -0,0 +1,296 @@
+package club.doki7.pl12.syntax;
+
+import club.doki7.pl12.exc.LexicalException;
+import club.doki7.pl12.exc.SourceFile;
+import club.doki7.pl12.prim.PrimNat;
+import club.doki7.pl12.util.Symbol;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/// A whole source file, tokenized up front into packed primitive arrays.
+///
+/// Token `i` is described by its kind ordinal, its start offset and length in the source, and the
+/// id of its lexeme. Lines and columns are not stored at all; tokens only carry their offset into
+/// the {@link SourceFile}.
+///
+/// Words and symbols are interned as {@link Symbol}s, and their id is the symbol id. Literals are
+/// not: every number or string in every file would otherwise stay in the global symbol table for
+/// good. They are pooled per buffer instead, and their id is the complement (`~i`, always negative)
+/// of their index in the pool.
+///
+/// Tokenization happens before parsing, so it cannot know the lexer mode or which user operators
+/// are in scope. Keywords are stored with their keyword kind, and everything else as
+/// {@link Token.Kind#IDENT}. {@link Cursor} demotes BVR keywords outside BVR mode, and looks plain
+/// words up in the operator table each time they are read.
+public final class TokenBuffer {
+    public static @NotNull TokenBuffer tokenize(@NotNull String content, @NotNull String file)
+        throws LexicalException
+    {
+        return tokenize(content.toCharArray(), file);
+    }
+
+    public static @NotNull TokenBuffer tokenize(char @NotNull[] buf, @NotNull String file)
+        throws LexicalException
+    {
+        return tokenize(Lexer.of(buf, file));
+    }
+
+    /// Tokenize the rest of the input of `ctx`, from its current position on.
+    public static @NotNull TokenBuffer tokenize(@NotNull ParseContext ctx) throws LexicalException {
+        return tokenize(Lexer.of(ctx));
+    }
+
+    private static @NotNull TokenBuffer tokenize(Lexer lexer) throws LexicalException {
+        char[] buf = lexer.buf();
+
+        int capacity = Math.max(16, buf.length / 4);
+        byte[] kinds = new byte[capacity];
+        int[] starts = new int[capacity];
+        int[] lengths = new int[capacity];
+        int[] ids = new int[capacity];
+        int size = 0;
+        List<String> literals = new ArrayList<>();
+        Map<String, Integer> literalIds = new HashMap<>();
+
+        while (true) {
+            Token.Kind kind = lexer.scan();
+            int start = lexer.tokenStart();
+            int end = lexer.pos();
+
+            int id = switch (kind) {
+                case IDENT -> {
+                    @Nullable Keyword keyword = Keyword.match(buf, start, end);
+                    if (keyword != null) {
+                        kind = keyword.kind;
+                    }
+                    yield Symbol.intern(buf, start, end).id;
+                }
+                case LIT_NAT -> literal(literals, literalIds, new String(buf, start, end - start));
+                case LIT_STRING ->
+                    literal(literals, literalIds, new String(buf, start + 1, end - start - 2));
+                case EOI -> EOI_LEXEME.id;
+                default -> Symbol.intern(Lexer.symbolLexeme(kind, buf[start])).id;
+            };
+
+            if (size == kinds.length) {
+                int newCapacity = capacity * 2;
+                kinds = Arrays.copyOf(kinds, newCapacity);
+                starts = Arrays.copyOf(starts, newCapacity);
+                lengths = Arrays.copyOf(lengths, newCapacity);
+                ids = Arrays.copyOf(ids, newCapacity);
+                capacity = newCapacity;
+            }
+
+            kinds[size] = (byte) kind.ordinal();
+            starts[size] = start;
+            lengths[size] = end - start;
+            ids[size] = id;
+            size++;
+
+            if (kind == Token.Kind.EOI) {
+                break;
+            }
+        }
+
+        return new TokenBuffer(lexer.source(),
+                               Arrays.copyOf(kinds, size),
+                               Arrays.copyOf(starts, size),
+                               Arrays.copyOf(lengths, size),
+                               Arrays.copyOf(ids, size),
+                               literals.toArray(String[]::new));
+    }
+
+    private static int literal(List<String> literals, Map<String, Integer> ids, String lexeme) {
+        return ids.computeIfAbsent(lexeme, _ -> {
+            literals.add(lexeme);
+            return ~(literals.size() - 1);
+        });
+    }
+
+    public @NotNull SourceFile source() {
+        return source;
+    }
+
+    public @NotNull String file() {
+        return source.name();
+    }
+
+    /// Number of tokens, including the trailing {@link Token.Kind#EOI}.
+    public int size() {
+        return kinds.length;
+    }
+
+    /// The kind of token `index` as recorded at tokenization time. BVR keywords are reported with
+    /// their keyword kind regardless of the mode they are later read in.
+    public @NotNull Token.Kind kind(int index) {
+        return KINDS[kinds[index]];
+    }
+
+    public int start(int index) {
+        return starts[index];
+    }
+
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    /// The {@link Symbol} id of the lexeme of token `index`, or, for a literal, the complement of
+    /// its index in the literal pool of this buffer.
+    public int lexemeId(int index) {
+        return lexemeIds[index];
+    }
+
+    public @NotNull String lexeme(int index) {
+        int id = lexemeIds[index];
+        return id >= 0 ? Symbol.byId(id).name : literals[~id];
+    }
+
+    /// The index of the token starting at offset `pos`, or `-1` if no token starts there.
+    public int indexAt(int pos) {
+        int index = Arrays.binarySearch(starts, pos);
+        return index >= 0 ? index : -1;
+    }
+
+    public int line(int index) {
+        return source.line(starts[index]);
+    }
+
+    public int col(int index) {
+        return source.col(starts[index]);
+    }
+
+    /// Build the {@link Token} object for token `index`, classifying words according to `mode` and
+    /// `infixOps`.
+    public @NotNull Token token(int index,
+                                @NotNull ParseContext.Mode mode,
+                                @NotNull OperatorTable infixOps) {
+        Token.Kind kind = kind(index);
+        if (kind.isBvrKeyword() && mode != ParseContext.Mode.BVR) {
+            kind = Token.Kind.IDENT;
+        }
+        String lexeme = lexeme(index);
+        int pos = starts[index];
+
+        return switch (kind) {
+            case IDENT -> Lexer.operatorOrIdent(lexeme, infixOps, source, pos);
+            case LIT_NAT -> {
+                char[] digits = lexeme.toCharArray();
+                yield Token.nat(PrimNat.ofDigits(digits, 0, digits.length), lexeme, source, pos);
+            }
+            case LIT_STRING -> Token.string(Lexer.unescape(lexeme), lexeme, source, pos);
+            case EOI -> Token.eoi(source, pos);
+            default -> Token.sym(kind, lexeme, source, pos);
+        };
+    }
+
+    public @NotNull Cursor cursor() {
+        return cursor(OperatorTable.empty());
+    }
+
+    public @NotNull Cursor cursor(@NotNull OperatorTable infixOps) {
+        return cursor(0, infixOps);
+    }
+
+    /// A cursor positioned at token `index`.
+    public @NotNull Cursor cursor(int index, @NotNull OperatorTable infixOps) {
+        return new Cursor(this, index, ParseContext.Mode.IDLE, infixOps);
+    }
+
+    /// A {@link TokenStream} over a {@link TokenBuffer}. Marks are token indices, so lookahead and
+    /// backtracking never lex anything.
+    public static final class Cursor implements TokenStream {
+        public @NotNull TokenBuffer buffer() {
+            return buffer;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        @Override
+        public @NotNull Token next() {
+            Token tok = buffer.token(index, mode, infixOps);
+            if (index < buffer.size() - 1) {
+                index++;
+            }
+            return tok;
+        }
+
+        @Override
+        public long mark() {
+            return index;
+        }
+
+        @Override
+        public void reset(long mark) {
+            index = (int) mark;
+        }
+
+        @Override
+        public @NotNull ParseContext.Mode mode() {
+            return mode;
+        }
+
+        @Override
+        public @NotNull ParseContext.Mode setMode(@NotNull ParseContext.Mode mode) {
+            ParseContext.Mode previous = this.mode;
+            this.mode = mode;
+            return previous;
+        }
+
+        @Override
+        public @NotNull OperatorTable infixOps() {
+            return infixOps;
+        }
+
+        @Override
+        public void setInfixOps(@NotNull OperatorTable infixOps) {
+            this.infixOps = infixOps;
+        }
+
+        private Cursor(@NotNull TokenBuffer buffer,
+                       int index,
+                       @NotNull ParseContext.Mode mode,
+                       @NotNull OperatorTable infixOps) {
+            this.buffer = buffer;
+            this.index = index;
+            this.mode = mode;
+            this.infixOps = infixOps;
+        }
+
+        private final @NotNull TokenBuffer buffer;
+        private int index;
+        private @NotNull OperatorTable infixOps;
+        private @NotNull ParseContext.Mode mode;
+    }
+
+    private TokenBuffer(@NotNull SourceFile source,
+                        byte[] kinds,
+                        int[] starts,
+                        int[] lengths,
+                        int[] lexemeIds,
+                        String[] literals) {
+        this.source = source;
+        this.kinds = kinds;
+        this.starts = starts;
+        this.lengths = lengths;
+        this.lexemeIds = lexemeIds;
+        this.literals = literals;
+    }
+
+    private static final Token.Kind[] KINDS = Token.Kind.values();
+    private static final Symbol EOI_LEXEME = Symbol.intern("<EOI>");
+
+    private final @NotNull SourceFile source;
+    private final byte @NotNull[] kinds;
+    private final int @NotNull[] starts;
+    private final int @NotNull[] lengths;
+    private final int @NotNull[] lexemeIds;
+    private final @NotNull String @NotNull[] literals;
+}
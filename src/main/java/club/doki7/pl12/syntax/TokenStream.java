@@ -0,0 +1,33 @@
+package club.doki7.pl12.syntax;
+
+import club.doki7.pl12.exc.LexicalException;
+import org.jetbrains.annotations.NotNull;
+
+/// A mutable, rewindable source of tokens, consumed by {@link Parser}.
+public sealed interface TokenStream
+    permits Lexer, Utf8Lexer, MemoTokenStream, TokenBuffer.Cursor
+{
+    @NotNull Token next() throws LexicalException;
+
+    /// Capture the current position. Marks are opaque and only meaningful to the stream that
+    /// produced them.
+    long mark();
+
+    void reset(long mark);
+
+    @NotNull ParseContext.Mode mode();
+
+    /// Switch the lexer mode, returning the previous one so that it can be restored later.
+    @NotNull ParseContext.Mode setMode(@NotNull ParseContext.Mode mode);
+
+    /// The user operators in scope.
+    @NotNull OperatorTable infixOps();
+
+    /// Replace the operators in scope, for words lexed from now on. `Notation` commands do this as
+    /// they are parsed.
+    void setInfixOps(@NotNull OperatorTable infixOps);
+
+    static @NotNull MemoTokenStream memoize(@NotNull TokenStream source) {
+        return new MemoTokenStream(source);
+    }
+}
@@ -0,0 +1,407 @@
+package club.doki7.pl12.syntax;
+
+import club.doki7.pl12.exc.LexicalException;
+import club.doki7.pl12.exc.SourceFile;
+import club.doki7.pl12.exc.SourceRange;
+import club.doki7.pl12.prim.PrimNat;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/// A mutable lexer cursor over UTF-8 bytes, typically a memory-mapped source file.
+///
+/// Produces the same tokens as {@link Lexer}, except that token positions are byte offsets. The
+/// source is never decoded as a whole: ASCII bytes are classified directly, and
+/// multibyte sequences are only decoded where they can start a token or continue an identifier.
+/// Unlike the `char` based lexer, supplementary characters such as `𝒰` are handled as single code
+/// points.
+public final class Utf8Lexer implements TokenStream {
+    /// Map `path` read-only and lex it in place. The mapping is released once the lexer and
+    /// everything derived from the segment become unreachable.
+    public static @NotNull Utf8Lexer map(@NotNull Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY,
+                                                0,
+                                                channel.size(),
+                                                Arena.ofAuto());
+            return of(segment, path.toString());
+        }
+    }
+
+    public static @NotNull Utf8Lexer of(byte @NotNull[] bytes, @NotNull String file) {
+        return of(MemorySegment.ofArray(bytes), file);
+    }
+
+    public static @NotNull Utf8Lexer of(@NotNull MemorySegment segment, @NotNull String file) {
+        if (segment.byteSize() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Source file too large: " + file);
+        }
+        return new Utf8Lexer(segment,
+                             SourceFile.ofUtf8(file, segment),
+                             ParseContext.Mode.IDLE,
+                             OperatorTable.empty());
+    }
+
+    public @NotNull SourceFile source() {
+        return source;
+    }
+
+    public @NotNull String file() {
+        return source.name();
+    }
+
+    /// Current byte offset.
+    public int pos() {
+        return pos;
+    }
+
+    public int line() {
+        return source.line(pos);
+    }
+
+    /// Current column, counted in code points.
+    public int col() {
+        return source.col(pos);
+    }
+
+    @Override
+    public @NotNull ParseContext.Mode mode() {
+        return mode;
+    }
+
+    @Override
+    public @NotNull ParseContext.Mode setMode(@NotNull ParseContext.Mode mode) {
+        ParseContext.Mode previous = this.mode;
+        this.mode = mode;
+        return previous;
+    }
+
+    @Override
+    public @NotNull OperatorTable infixOps() {
+        return infixOps;
+    }
+
+    @Override
+    public void setInfixOps(@NotNull OperatorTable infixOps) {
+        this.infixOps = infixOps;
+    }
+
+    /// Capture the cursor position, which is the byte offset.
+    @Override
+    public long mark() {
+        return pos;
+    }
+
+    @Override
+    public void reset(long mark) {
+        pos = (int) mark;
+    }
+
+    @Override
+    public @NotNull Token next() throws LexicalException {
+        Token.Kind kind = scan();
+
+        return switch (kind) {
+            case IDENT -> {
+                int length = tokenChars();
+                yield Lexer.word(charBuf, 0, length, mode, infixOps, source, tokenStart);
+            }
+            case LIT_NAT -> {
+                int length = tokenChars();
+                yield Token.nat(PrimNat.ofDigits(charBuf, 0, length),
+                                new String(charBuf, 0, length),
+                                source,
+                                tokenStart);
+            }
+            case LIT_STRING -> {
+                String lexeme = decode(tokenStart + 1, pos - 1);
+                yield Token.string(Lexer.unescape(lexeme), lexeme, source, tokenStart);
+            }
+            case EOI -> Token.eoi(source, tokenStart);
+            default -> {
+                String lexeme = Lexer.symbolLexeme(kind, (char) codePointAt(tokenStart));
+                yield Token.sym(kind, lexeme, source, tokenStart);
+            }
+        };
+    }
+
+    /// See {@link Lexer#scan()}.
+    Token.Kind scan() throws LexicalException {
+        while (true) {
+            pos = BulkScanner.INSTANCE.skipWhitespace(segment, pos, limit);
+            if (pos < limit && at(pos) < 0 && Character.isWhitespace(codePointAt(pos))) {
+                pos += utf8Length(codePointAt(pos));
+            } else {
+                break;
+            }
+        }
+
+        tokenStart = pos;
+        if (pos >= limit) {
+            return Token.Kind.EOI;
+        }
+
+        byte b = at(pos);
+        if (b < 0) {
+            int cp = codePointAt(pos);
+            return switch (cp) {
+                case 'λ' -> advance(Token.Kind.FUN, utf8Length(cp));
+                case '∀', 'Π' -> advance(Token.Kind.PI, utf8Length(cp));
+                case '→' -> advance(Token.Kind.ARROW, utf8Length(cp));
+                case '⇒' -> advance(Token.Kind.D_ARROW, utf8Length(cp));
+                default -> scanWord();
+            };
+        }
+
+        return switch ((char) b) {
+            case '0', '1', '2', '3', '4',
+                 '5', '6', '7', '8', '9' -> scanNat();
+            case '"' -> scanString();
+            case ')' -> advance(Token.Kind.R_PAREN, 1);
+            case '[' -> advance(Token.Kind.L_BRACKET, 1);
+            case ']' -> advance(Token.Kind.R_BRACKET, 1);
+            case '{' -> advance(Token.Kind.L_BRACE, 1);
+            case '}' -> advance(Token.Kind.R_BRACE, 1);
+            case '.' -> advance(Token.Kind.DOT, 1);
+            case ',' -> advance(Token.Kind.COMMA, 1);
+            case ':' ->
+                (pos + 1 < limit && at(pos + 1) == '=')
+                    ? advance(Token.Kind.COLON_EQ, 2)
+                    : advance(Token.Kind.COLON, 1);
+            case '-' ->
+                (pos + 1 < limit && at(pos + 1) == '>')
+                    ? advance(Token.Kind.ARROW, 2)
+                    : scanWord();
+            case '(' ->
+                (pos + 1 < limit && at(pos + 1) == '*')
+                    ? skipComment()
+                    : advance(Token.Kind.L_PAREN, 1);
+            case '=' ->
+                (pos + 1 < limit && at(pos + 1) == '>')
+                    ? advance(Token.Kind.D_ARROW, 2)
+                    : scanWord();
+            case '?' -> {
+                if (pos + 1 < limit && at(pos + 1) == '?') {
+                    yield advance(Token.Kind.D_QUES, 2);
+                } else {
+                    throw new LexicalException(SourceRange.of(source, pos),
+                                               "变量名不能以问号 '?' 开头，"
+                                               + "若要输入 Hole，请使用 '??'");
+                }
+            }
+            default -> scanWord();
+        };
+    }
+
+    private Token.Kind advance(Token.Kind kind, int length) {
+        pos += length;
+        return kind;
+    }
+
+    private Token.Kind scanWord() throws LexicalException {
+        boolean ascii = true;
+        while (pos < limit) {
+            byte b = at(pos);
+            if (b >= 0) {
+                if (!ParseContext.isIdentChar((char) b)) {
+                    break;
+                }
+                pos++;
+            } else {
+                int cp = codePointAt(pos);
+                if (!Character.isLetterOrDigit(cp)) {
+                    break;
+                }
+                ascii = false;
+                pos += utf8Length(cp);
+            }
+        }
+
+        if (pos == tokenStart) {
+            throw new LexicalException(SourceRange.of(source, tokenStart),
+                                       "无效的字符：'"
+                                       + Character.toString(codePointAt(tokenStart))
+                                       + "'");
+        }
+        tokenAscii = ascii;
+        return Token.Kind.IDENT;
+    }
+
+    private Token.Kind scanNat() throws LexicalException {
+        boolean ascii = true;
+        while (pos < limit) {
+            byte b = at(pos);
+            if (b >= '0' && b <= '9') {
+                pos++;
+            } else if (b < 0 && Character.isDigit(codePointAt(pos))) {
+                ascii = false;
+                pos += utf8Length(codePointAt(pos));
+            } else {
+                break;
+            }
+        }
+        tokenAscii = ascii;
+        return Token.Kind.LIT_NAT;
+    }
+
+    private Token.Kind scanString() throws LexicalException {
+        pos++;
+
+        while (pos < limit && at(pos) != '"' && at(pos) != '\n') {
+            if (at(pos) == '\\') {
+                pos++;
+                if (pos >= limit) {
+                    throw new LexicalException(SourceRange.of(source, tokenStart),
+                                               "未终止的字符串字面量");
+                }
+                switch (at(pos)) {
+                    case 'n', 't', '"', '\\' -> {}
+                    default -> throw new LexicalException(
+                        SourceRange.of(source, pos),
+                        "无效的转义字序列：'\\" + Character.toString(codePointAt(pos)) + "'"
+                    );
+                }
+            }
+            pos++;
+        }
+
+        if (pos >= limit || at(pos) != '"') {
+            throw new LexicalException(SourceRange.of(source, tokenStart),
+                                       "未终止的字符串字面量");
+        }
+
+        pos++;
+        return Token.Kind.LIT_STRING;
+    }
+
+    private Token.Kind skipComment() throws LexicalException {
+        int startPos = pos;
+        pos += 2;
+
+        // '*', ')' and '\n' never occur inside a multibyte sequence, so bytes can be scanned as is
+        int end = BulkScanner.INSTANCE.findCommentEnd(segment, pos, limit);
+        if (end < limit) {
+            pos = end + 2;
+            return scan();
+        }
+
+        throw new LexicalException(SourceRange.of(source, startPos),
+                                   "未终止的注释");
+    }
+
+    private byte at(int index) {
+        return segment.get(ValueLayout.JAVA_BYTE, index);
+    }
+
+    /// Copy the word or number that was just scanned into {@link #charBuf} as UTF-16, returning its
+    /// length. ASCII tokens are widened byte by byte, without building a {@link String}.
+    private int tokenChars() {
+        if (tokenAscii) {
+            int length = pos - tokenStart;
+            if (charBuf.length < length) {
+                charBuf = new char[Math.max(length, charBuf.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                charBuf[i] = (char) at(tokenStart + i);
+            }
+            return length;
+        }
+
+        String word = decode(tokenStart, pos);
+        if (charBuf.length < word.length()) {
+            charBuf = new char[Math.max(word.length(), charBuf.length * 2)];
+        }
+        word.getChars(0, word.length(), charBuf, 0);
+        return word.length();
+    }
+
+    private String decode(int start, int end) {
+        byte[] bytes = segment.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int codePointAt(int index) throws LexicalException {
+        int lead = at(index) & 0xFF;
+        if (lead < 0x80) {
+            return lead;
+        }
+
+        int length;
+        int cp;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            length = 2;
+            cp = lead & 0x1F;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            length = 3;
+            cp = lead & 0x0F;
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            length = 4;
+            cp = lead & 0x07;
+        } else {
+            throw invalidUtf8(index);
+        }
+
+        if (index + length > limit) {
+            throw invalidUtf8(index);
+        }
+        for (int i = 1; i < length; i++) {
+            int cont = at(index + i) & 0xFF;
+            if ((cont & 0xC0) != 0x80) {
+                throw invalidUtf8(index);
+            }
+            cp = (cp << 6) | (cont & 0x3F);
+        }
+
+        if (utf8Length(cp) != length
+            || cp > Character.MAX_CODE_POINT
+            || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+            throw invalidUtf8(index);
+        }
+        return cp;
+    }
+
+    private LexicalException invalidUtf8(int index) {
+        return new LexicalException(SourceRange.of(source, index),
+                                    "无效的 UTF-8 字节序列");
+    }
+
+    private static int utf8Length(int cp) {
+        if (cp < 0x80) {
+            return 1;
+        } else if (cp < 0x800) {
+            return 2;
+        } else if (cp < 0x10000) {
+            return 3;
+        } else {
+            return 4;
+        }
+    }
+
+    private Utf8Lexer(@NotNull MemorySegment segment,
+                      @NotNull SourceFile source,
+                      @NotNull ParseContext.Mode mode,
+                      @NotNull OperatorTable infixOps) {
+        this.segment = segment;
+        this.limit = (int) segment.byteSize();
+        this.source = source;
+        this.mode = mode;
+        this.infixOps = infixOps;
+    }
+
+    private final @NotNull MemorySegment segment;
+    private final int limit;
+    private final @NotNull SourceFile source;
+    private @NotNull OperatorTable infixOps;
+    private int pos;
+    private int tokenStart;
+    private boolean tokenAscii;
+    private char[] charBuf = new char[32];
+    private @NotNull ParseContext.Mode mode;
+}
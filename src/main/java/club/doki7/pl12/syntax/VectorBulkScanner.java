@@ -0,0 +1,102 @@
+package club.doki7.pl12.syntax;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+
+/// {@link BulkScanner} that classifies a whole vector of characters at a time.
+///
+/// `char`s are loaded as `short` lanes. Non-ASCII characters are negative or above `0x20` in
+/// either case, so signed comparisons are enough to tell ASCII whitespace apart. Whatever does not
+/// fill a whole vector at the end of a range is left to {@link ScalarBulkScanner}.
+///
+/// Only loaded by {@link BulkScanner#INSTANCE} when `jdk.incubator.vector` is available.
+final class VectorBulkScanner implements BulkScanner {
+    @Override
+    public int skipWhitespace(char @NotNull[] buf, int from, int to) {
+        int i = from;
+        int bound = from + CHARS.loopBound(to - from);
+        for (; i < bound; i += CHARS.length()) {
+            ShortVector v = ShortVector.fromCharArray(CHARS, buf, i);
+            VectorMask<Short> ws = whitespace(v);
+            if (!ws.allTrue()) {
+                return i + ws.not().firstTrue();
+            }
+        }
+
+        return SCALAR.skipWhitespace(buf, i, to);
+    }
+
+    @Override
+    public int skipWhitespace(@NotNull MemorySegment segment, int from, int to) {
+        int i = from;
+        int bound = from + BYTES.loopBound(to - from);
+        for (; i < bound; i += BYTES.length()) {
+            ByteVector v = ByteVector.fromMemorySegment(BYTES, segment, i, ByteOrder.nativeOrder());
+            VectorMask<Byte> ws = whitespace(v);
+            if (!ws.allTrue()) {
+                return i + ws.not().firstTrue();
+            }
+        }
+
+        return SCALAR.skipWhitespace(segment, i, to);
+    }
+
+    @Override
+    public int findCommentEnd(char @NotNull[] buf, int from, int to) {
+        int i = from;
+        // Each block also reads the vector starting one character later, to match the ')'
+        int bound = from + CHARS.loopBound(Math.max(0, to - 1 - from));
+        for (; i < bound; i += CHARS.length()) {
+            ShortVector v = ShortVector.fromCharArray(CHARS, buf, i);
+            ShortVector next = ShortVector.fromCharArray(CHARS, buf, i + 1);
+            VectorMask<Short> end = v.eq((short) '*').and(next.eq((short) ')'));
+            if (end.anyTrue()) {
+                return i + end.firstTrue();
+            }
+        }
+
+        return SCALAR.findCommentEnd(buf, i, to);
+    }
+
+    @Override
+    public int findCommentEnd(@NotNull MemorySegment segment, int from, int to) {
+        int i = from;
+        int bound = from + BYTES.loopBound(Math.max(0, to - 1 - from));
+        for (; i < bound; i += BYTES.length()) {
+            ByteVector v = ByteVector.fromMemorySegment(BYTES, segment, i, ByteOrder.nativeOrder());
+            ByteVector next =
+                ByteVector.fromMemorySegment(BYTES, segment, i + 1, ByteOrder.nativeOrder());
+            VectorMask<Byte> end = v.eq((byte) '*').and(next.eq((byte) ')'));
+            if (end.anyTrue()) {
+                return i + end.firstTrue();
+            }
+        }
+
+        return SCALAR.findCommentEnd(segment, i, to);
+    }
+
+    private static VectorMask<Short> whitespace(ShortVector v) {
+        return v.compare(VectorOperators.GE, (short) 0x09)
+            .and(v.compare(VectorOperators.LE, (short) 0x0D))
+            .or(v.compare(VectorOperators.GE, (short) 0x1C)
+                    .and(v.compare(VectorOperators.LE, (short) 0x20)));
+    }
+
+    private static VectorMask<Byte> whitespace(ByteVector v) {
+        return v.compare(VectorOperators.GE, (byte) 0x09)
+            .and(v.compare(VectorOperators.LE, (byte) 0x0D))
+            .or(v.compare(VectorOperators.GE, (byte) 0x1C)
+                    .and(v.compare(VectorOperators.LE, (byte) 0x20)));
+    }
+
+    private static final VectorSpecies<Short> CHARS = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final ScalarBulkScanner SCALAR = new ScalarBulkScanner();
+}
@@ -0,0 +1,191 @@
+package club.doki7.pl12.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/// A document for Wadler-style pretty printing.
+///
+/// A document is text with {@link Line}s that are either rendered flat, as their `flat` text, or
+/// as a newline followed by the current {@link Nest nesting}. All the lines directly inside a
+/// {@link Group} are broken together, and only if the group does not fit in what is left of the
+/// current line.
+///
+/// {@link #render} streams the layout to an {@link Appendable} in a single pass, with an explicit
+/// stack, so neither deep documents nor long output are a problem. Deciding whether a group fits
+/// looks at most one line width ahead. With an unbounded width everything is flat, and nothing is
+/// looked ahead at all.
+public sealed interface Doc {
+    record Text(@NotNull String text) implements Doc {}
+
+    record Line(@NotNull String flat) implements Doc {}
+
+    record Cat(@NotNull ImmSeq<Doc> docs) implements Doc {}
+
+    record Nest(int indent, @NotNull Doc doc) implements Doc {}
+
+    record Group(@NotNull Doc doc) implements Doc {}
+
+    static @NotNull Doc text(@NotNull String text) {
+        return text.isEmpty() ? EMPTY : new Text(text);
+    }
+
+    /// A space, or a line break.
+    static @NotNull Doc line() {
+        return LINE;
+    }
+
+    /// Nothing, or a line break.
+    static @NotNull Doc softLine() {
+        return SOFT_LINE;
+    }
+
+    static @NotNull Doc cat(@NotNull Doc... docs) {
+        return new Cat(ImmSeq.of(docs));
+    }
+
+    static @NotNull Doc cat(@NotNull List<Doc> docs) {
+        return new Cat(ImmSeq.of(docs));
+    }
+
+    static @NotNull Doc nest(int indent, @NotNull Doc doc) {
+        return new Nest(indent, doc);
+    }
+
+    static @NotNull Doc group(@NotNull Doc doc) {
+        return new Group(doc);
+    }
+
+    /// Lay out within `width` columns, and stop after `maxChars` characters, ending with `…`.
+    default void render(@NotNull Appendable out, int width, long maxChars) throws IOException {
+        new Renderer(out, width, maxChars).render(this);
+    }
+
+    default @NotNull String render(int width) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            render(sb, width, Long.MAX_VALUE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /// The document on a single line.
+    default @NotNull String renderFlat() {
+        return render(UNBOUNDED);
+    }
+
+    int UNBOUNDED = Integer.MAX_VALUE;
+
+    Doc EMPTY = new Text("");
+    Doc LINE = new Line(" ");
+    Doc SOFT_LINE = new Line("");
+}
+
+final class Renderer {
+    Renderer(@NotNull Appendable out, int width, long maxChars) {
+        this.out = out;
+        this.width = width;
+        this.maxChars = maxChars;
+    }
+
+    void render(@NotNull Doc doc) throws IOException {
+        push(0, width != Doc.UNBOUNDED, doc);
+        while (!stack.isEmpty() && !truncated) {
+            Frame frame = stack.removeLast();
+            switch (frame.doc) {
+                case Doc.Text(String text) -> emit(text);
+                case Doc.Line(String flat) -> {
+                    if (frame.broken) {
+                        emit("\n");
+                        emit(" ".repeat(frame.indent));
+                        column = frame.indent;
+                    } else {
+                        emit(flat);
+                    }
+                }
+                case Doc.Cat(ImmSeq<Doc> docs) -> {
+                    for (int i = docs.size() - 1; i >= 0; i--) {
+                        push(frame.indent, frame.broken, docs.get(i));
+                    }
+                }
+                case Doc.Nest(int indent, Doc inner) ->
+                    push(frame.indent + indent, frame.broken, inner);
+                case Doc.Group(Doc inner) -> push(
+                    frame.indent,
+                    frame.broken && !fits(width - column, inner),
+                    inner
+                );
+            }
+        }
+    }
+
+    /// Whether `doc`, laid out flat, and whatever follows it up to the next possible line break,
+    /// fit in `remaining` columns.
+    private boolean fits(long remaining, @NotNull Doc doc) {
+        scratch.clear();
+        scratch.add(new Frame(0, false, doc));
+        int rest = stack.size() - 1;
+
+        while (remaining >= 0) {
+            if (scratch.isEmpty()) {
+                if (rest < 0) {
+                    return true;
+                }
+                scratch.add(stack.get(rest--));
+                continue;
+            }
+
+            Frame frame = scratch.removeLast();
+            switch (frame.doc) {
+                case Doc.Text(String text) -> remaining -= text.length();
+                case Doc.Line(String flat) -> {
+                    if (frame.broken) {
+                        return true;
+                    }
+                    remaining -= flat.length();
+                }
+                case Doc.Cat(ImmSeq<Doc> docs) -> {
+                    for (int i = docs.size() - 1; i >= 0; i--) {
+                        scratch.add(new Frame(frame.indent, frame.broken, docs.get(i)));
+                    }
+                }
+                case Doc.Nest(_, Doc inner) -> scratch.add(new Frame(0, frame.broken, inner));
+                case Doc.Group(Doc inner) -> scratch.add(new Frame(0, frame.broken, inner));
+            }
+        }
+        return false;
+    }
+
+    private void push(int indent, boolean broken, @NotNull Doc doc) {
+        stack.add(new Frame(indent, broken, doc));
+    }
+
+    private void emit(@NotNull String text) throws IOException {
+        if (written + text.length() > maxChars) {
+            out.append(text, 0, (int) (maxChars - written)).append('…');
+            truncated = true;
+            return;
+        }
+        out.append(text);
+        written += text.length();
+        if (text.indexOf('\n') < 0) {
+            column += text.length();
+        }
+    }
+
+    private record Frame(int indent, boolean broken, @NotNull Doc doc) {}
+
+    private final @NotNull Appendable out;
+    private final int width;
+    private final long maxChars;
+    private final List<Frame> stack = new ArrayList<>();
+    private final List<Frame> scratch = new ArrayList<>();
+    private long column;
+    private long written;
+    private boolean truncated;
+}
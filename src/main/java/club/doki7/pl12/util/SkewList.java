@@ -0,0 +1,146 @@
+package club.doki7.pl12.util;
+
+import club.doki7.pl12.ann.PreferStaticMethod;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/// A persistent list with `O(1)` {@link #push} and `O(log n)` {@link #get}, counting from the
+/// element pushed last, as de Bruijn indices do.
+///
+/// This is Okasaki's skew binary random-access list: a list of complete binary trees whose sizes
+/// are of the form `2^k - 1`, strictly increasing except that the first two may be equal. Pushing
+/// either starts a new one-element tree, or joins the first two trees under a new root. Lookup
+/// skips whole trees, of which there are at most `O(log n)`, and then descends a single one.
+///
+/// Like {@link SnocList}, a list is never modified, so extensions share everything with the list
+/// they extend.
+@PreferStaticMethod({"nil", "of"})
+public final class SkewList<T> {
+    public static <T> @NotNull SkewList<T> nil() {
+        @SuppressWarnings("unchecked")
+        SkewList<T> nil = (SkewList<T>) NIL;
+        return nil;
+    }
+
+    @SafeVarargs
+    public static <T> @NotNull SkewList<T> of(@NotNull T... elements) {
+        return SkewList.<T>nil().pushAll(List.of(elements));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public @NotNull SkewList<T> push(@NotNull T value) {
+        if (rest != null && rest.tree != null && treeSize == rest.treeSize) {
+            return new SkewList<>(new Tree<>(value, tree, rest.tree),
+                                  2 * treeSize + 1,
+                                  rest.rest,
+                                  size + 1);
+        }
+        return new SkewList<>(new Tree<>(value, null, null), 1, this, size + 1);
+    }
+
+    /// Push every element of `values` in order, so that the last one ends up at index 0.
+    public @NotNull SkewList<T> pushAll(@NotNull List<T> values) {
+        SkewList<T> list = this;
+        for (T value : values) {
+            list = list.push(value);
+        }
+        return list;
+    }
+
+    /// The element pushed `index` pushes before the last one.
+    public @NotNull T get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        SkewList<T> list = this;
+        while (index >= list.treeSize) {
+            index -= list.treeSize;
+            list = list.rest;
+            assert list != null;
+        }
+
+        Tree<T> tree = list.tree;
+        int treeSize = list.treeSize;
+        while (index != 0) {
+            assert tree != null;
+            treeSize /= 2;
+            if (index <= treeSize) {
+                tree = tree.left;
+                index -= 1;
+            } else {
+                tree = tree.right;
+                index -= 1 + treeSize;
+            }
+        }
+        assert tree != null;
+        return tree.value;
+    }
+
+    /// All elements, the one pushed first first.
+    public @NotNull List<T> toList() {
+        List<T> elements = new ArrayList<>(size);
+        for (int i = size - 1; i >= 0; i--) {
+            elements.add(get(i));
+        }
+        return elements;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SkewList<?> other) || other.size != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!get(i).equals(other.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + get(i).hashCode();
+        }
+        return Objects.hash(SkewList.class, hash);
+    }
+
+    @Override
+    public @NotNull String toString() {
+        return toList().toString();
+    }
+
+    /// A complete binary tree, in preorder: the root is the element pushed last.
+    private record Tree<T>(@NotNull T value, @Nullable Tree<T> left, @Nullable Tree<T> right) {}
+
+    private SkewList(@Nullable Tree<T> tree, int treeSize, @Nullable SkewList<T> rest, int size) {
+        this.tree = tree;
+        this.treeSize = treeSize;
+        this.rest = rest;
+        this.size = size;
+    }
+
+    private static final SkewList<?> NIL = new SkewList<>(null, 0, null, 0);
+
+    private final @Nullable Tree<T> tree;
+    private final int treeSize;
+    private final @Nullable SkewList<T> rest;
+    private final int size;
+}
@@ -0,0 +1,168 @@
+package club.doki7.pl12.util;
+
+import club.doki7.pl12.ann.ObjectIdentity;
+import club.doki7.pl12.ann.PreferStaticMethod;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/// An interned name.
+///
+/// There is exactly one {@link Symbol} per distinct name in the whole process, so symbols can be
+/// compared by identity and used as small dense integer keys through {@link #id}. The hash code is
+/// computed once, and is the same as {@link String#hashCode()} of the name.
+///
+/// Symbols are looked up directly from a `char[]` range, so interning a name that has been seen
+/// before does not allocate. The canonical {@link #name} is also interned in the JVM string pool,
+/// so it is identical to any string literal with the same contents.
+///
+/// Interning is thread-safe. Lookups of existing symbols do not lock; only insertions do.
+@ObjectIdentity
+@PreferStaticMethod("intern")
+public final class Symbol {
+    public final int id;
+    public final @NotNull String name;
+
+    public static @NotNull Symbol intern(char @NotNull[] buf, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buf[i];
+        }
+
+        Symbol[] t = table;
+        int mask = t.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Symbol sym = t[i];
+            if (sym == null) {
+                break;
+            }
+            if (sym.hash == hash && sym.matches(buf, start, end)) {
+                return sym;
+            }
+        }
+
+        return insert(new String(buf, start, end - start), hash);
+    }
+
+    public static @NotNull Symbol intern(@NotNull String name) {
+        int hash = name.hashCode();
+
+        Symbol[] t = table;
+        int mask = t.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Symbol sym = t[i];
+            if (sym == null) {
+                break;
+            }
+            if (sym.hash == hash && sym.name.equals(name)) {
+                return sym;
+            }
+        }
+
+        return insert(name, hash);
+    }
+
+    public static @NotNull Symbol byId(int id) {
+        Symbol[] ids = byId;
+        if (id < ids.length && ids[id] != null) {
+            return ids[id];
+        }
+
+        synchronized (LOCK) {
+            if (id >= count) {
+                throw new IndexOutOfBoundsException(id);
+            }
+            return byId[id];
+        }
+    }
+
+    /// Number of symbols interned so far. Symbol ids are dense in `[0, count())`.
+    public static int count() {
+        synchronized (LOCK) {
+            return count;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public @NotNull String toString() {
+        return name;
+    }
+
+    private static Symbol insert(String name, int hash) {
+        synchronized (LOCK) {
+            Symbol[] t = table;
+            int mask = t.length - 1;
+            int i = hash & mask;
+            for (; t[i] != null; i = (i + 1) & mask) {
+                Symbol sym = t[i];
+                if (sym.hash == hash && sym.name.equals(name)) {
+                    return sym;
+                }
+            }
+
+            Symbol sym = new Symbol(count, name.intern(), hash);
+            if (count == byId.length) {
+                byId = Arrays.copyOf(byId, count * 2);
+            }
+            byId[count] = sym;
+            count++;
+
+            if (count * 2 > t.length) {
+                table = rehash(t, sym);
+            } else {
+                t[i] = sym;
+            }
+            return sym;
+        }
+    }
+
+    private static Symbol[] rehash(Symbol[] old, Symbol extra) {
+        Symbol[] t = new Symbol[old.length * 2];
+        int mask = t.length - 1;
+        for (Symbol sym : old) {
+            if (sym != null) {
+                put(t, mask, sym);
+            }
+        }
+        put(t, mask, extra);
+        return t;
+    }
+
+    private static void put(Symbol[] t, int mask, Symbol sym) {
+        int i = sym.hash & mask;
+        while (t[i] != null) {
+            i = (i + 1) & mask;
+        }
+        t[i] = sym;
+    }
+
+    private boolean matches(char[] buf, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (name.charAt(i - start) != buf[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Symbol(int id, @NotNull String name, int hash) {
+        this.id = id;
+        this.name = name;
+        this.hash = hash;
+    }
+
+    private final int hash;
+
+    private static final Object LOCK = new Object();
+    private static volatile Symbol[] table = new Symbol[1024];
+    private static volatile Symbol[] byId = new Symbol[512];
+    private static int count;
+}
@@ -0,0 +1,61 @@
+package club.doki7.pl12.elab;
+
+import club.doki7.pl12.core.Term;
+import club.doki7.pl12.util.Bench;
+import club.doki7.pl12.util.ImmSeq;
+
+import static club.doki7.pl12.elab.EvalTest.ADD;
+import static club.doki7.pl12.elab.EvalTest.MUL;
+import static club.doki7.pl12.elab.EvalTest.churchNat;
+
+/// Evaluates and normalises terms with a strict {@link Eval} and with a {@link Eval#makeLazy lazy}
+/// one: first a term that ignores an expensive argument, where laziness saves the work, then terms
+/// whose every argument ends up in the normal form, where it only adds thunks.
+///
+/// Reading back a Church numeral recurses once per application, so this runs in a thread with a
+/// large stack.
+public final class EvalBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        Thread thread = new Thread(null, EvalBenchmark::run, "EvalBenchmark", STACK_SIZE);
+        thread.start();
+        thread.join();
+    }
+
+    private static void run() {
+        Term second = new Term.Lam(ImmSeq.of("x", "y"), new Term.Bound(0, "y"));
+        Term mul100 = new Term.App(MUL, churchNat(100), churchNat(100));
+        Term[] terms = {
+            new Term.App(second, mul100, churchNat(1)),
+            mul100,
+            new Term.App(ADD, mul100, churchNat(5))
+        };
+        String[] names = {
+            "(fun x y => y) (mul 100 100) 1",
+            "mul 100 100",
+            "add (mul 100 100) 5"
+        };
+
+        Env env = Env.empty(Backend.INTERPRETER);
+        Eval strict = Eval.make(env);
+        Eval lazy = Eval.makeLazy(env);
+        System.out.printf("%-32s %10s %10s   (us per eval and reify)%n", "", "strict", "lazy");
+        for (int i = 0; i < terms.length; i++) {
+            Term term = terms[i];
+            if (!strict.reify(strict.eval(term)).equals(lazy.reify(lazy.eval(term)))) {
+                throw new AssertionError("strict and lazy disagree on " + names[i]);
+            }
+
+            double strictNanos =
+                Bench.bestNanos(ROUNDS, CALLS, () -> strict.reify(strict.eval(term)));
+            double lazyNanos = Bench.bestNanos(ROUNDS, CALLS, () -> lazy.reify(lazy.eval(term)));
+            System.out.printf("%-32s %10.1f %10.1f%n",
+                              names[i],
+                              strictNanos / 1000,
+                              lazyNanos / 1000);
+        }
+    }
+
+    private static final long STACK_SIZE = 1L << 28;
+    private static final int ROUNDS = 20;
+    private static final int CALLS = 50;
+}
@@ -1,7 +1,16 @@
 package club.doki7.pl12.elab;
 
+import club.doki7.pl12.core.Name;
 import club.doki7.pl12.core.Term;
+import club.doki7.pl12.core.TermPrinter;
+import club.doki7.pl12.core.Type;
 import club.doki7.pl12.core.Value;
+import club.doki7.pl12.exc.ParseException;
+import club.doki7.pl12.exc.TypeCheckException;
+import club.doki7.pl12.syntax.Expr;
+import club.doki7.pl12.syntax.ParseContext;
+import club.doki7.pl12.syntax.Parser;
+import club.doki7.pl12.syntax.Token;
 import club.doki7.pl12.util.ImmSeq;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -90,4 +99,307 @@ class EvalTest {
         Term mulOneThree = new Term.App(MUL, churchNat(1), three);
         Assertions.assertEquals(churchNat(3), eval.reify(eval.eval(mulOneThree)));
     }
+
+    @Test
+    void testDeepBinders() {
+        // fun x0 => fun x1 => ... => fun x499 => (fun y => x0) x499, where every lookup of x0 has
+        // to get past hundreds of binder groups
+        int depth = 500;
+        Term body = new Term.App(new Term.Lam(ImmSeq.of("y"), new Term.Bound(depth, "x0")),
+                                 new Term.Bound(0, "x499"));
+        Term term = body;
+        for (int i = depth - 1; i >= 0; i--) {
+            term = new Term.Lam(ImmSeq.of("x" + i), term);
+        }
+
+        Env env = Env.empty();
+        Eval eval = Eval.make(env);
+        Term reified = eval.reify(eval.eval(term));
+        Term.Lam lam = (Term.Lam) reified;
+        Assertions.assertEquals(depth, lam.paramNames().size());
+        Assertions.assertEquals(new Term.Bound(depth - 1, "x0"), lam.body());
+    }
+
+    static Term NIL = new Term.Lam(ImmSeq.of("c", "n"), new Term.Bound(0, "n"));
+    static Term CONS = new Term.Lam(ImmSeq.of("h", "t", "c", "n"),
+                                    new Term.App(new Term.Bound(1, "c"),
+                                                 new Term.Bound(3, "h"),
+                                                 new Term.App(new Term.Bound(2, "t"),
+                                                              new Term.Bound(1, "c"),
+                                                              new Term.Bound(0, "n"))));
+    static Term MAP = new Term.Lam(ImmSeq.of("f", "l", "c", "n"),
+                                   new Term.App(new Term.Bound(2, "l"),
+                                                new Term.Lam(ImmSeq.of("x"),
+                                                             new Term.App(
+                                                                 new Term.Bound(2, "c"),
+                                                                 new Term.App(
+                                                                     new Term.Bound(4, "f"),
+                                                                     new Term.Bound(0, "x")
+                                                                 )
+                                                             )),
+                                                new Term.Bound(0, "n")));
+    static Term SUM = new Term.Lam(ImmSeq.of("l"), new Term.App(new Term.Bound(0, "l"), ADD, ZERO));
+
+    static Term churchList(int... elements) {
+        Term result = NIL;
+        for (int i = elements.length - 1; i >= 0; i--) {
+            result = new Term.App(CONS, churchNat(elements[i]), result);
+        }
+        return result;
+    }
+
+    @Test
+    void testBackendsAgree() throws ParseException, TypeCheckException {
+        Eval eval = Eval.make(Env.empty(Backend.INTERPRETER));
+
+        Term sumOfSuccs = new Term.App(SUM, new Term.App(MAP, SUCC, churchList(1, 2, 3)));
+        Term[] terms = {
+            new Term.App(ADD, churchNat(2), churchNat(3)),
+            new Term.App(MUL, churchNat(2), churchNat(3)),
+            new Term.App(MUL, new Term.App(ADD, churchNat(1), churchNat(2)), churchNat(4)),
+            new Term.App(ADD, churchNat(1)),
+            MUL,
+            sumOfSuccs,
+            new Term.App(MAP, new Term.App(MUL, churchNat(2)), churchList(0, 1, 2)),
+            new Term.App(new Term.Meta(0, "f"), new Term.App(SUCC, ZERO)),
+            new Term.Pi("A", Term.UNIV, new Term.Pi(null, new Term.Bound(0, "A"),
+                                                    new Term.Bound(1, "A"))),
+            // variables from every enclosing binder group
+            new Term.Lam(ImmSeq.of("a", "b"), new Term.Lam(ImmSeq.of("c"), new Term.Lam(
+                ImmSeq.of("d", "e"),
+                new Term.App(new Term.Bound(4, "a"),
+                             new Term.App(new Term.Bound(3, "b"), new Term.Bound(2, "c")),
+                             new Term.Bound(0, "e"),
+                             new Term.Bound(1, "d"))
+            )))
+        };
+        for (Backend backend : Backend.values()) {
+            Env env = Env.empty(backend);
+            for (int i = 0; i < terms.length; i++) {
+                Assertions.assertEquals(eval.reify(eval.eval(terms[i])),
+                                        eval.reify(define(env, "t" + i, terms[i])),
+                                        backend + ": " + terms[i]);
+            }
+            Assertions.assertEquals(churchNat(9), eval.reify(define(env, "sum", sumOfSuccs)));
+
+            // compiled once, when defined, and kept in the value
+            Value add = define(env, "add", ADD);
+            Assertions.assertEquals(eval.eval(ADD), add);
+            Value.Code code = ((Value.Lam) ((Value.Rigid) add).head()).code();
+            Assertions.assertEquals(backend != Backend.INTERPRETER, code != null, backend.name());
+            if (backend == Backend.BYTECODE) {
+                Assertions.assertTrue(code.getClass().isHidden());
+            }
+        }
+    }
+
+    @Test
+    void testBackendNames() {
+        Assertions.assertEquals(Backend.CLOSURE, Backend.named("closure"));
+        Assertions.assertEquals(Backend.BYTECODE, Backend.named("ByteCode"));
+        Assertions.assertNull(Backend.named("jit"));
+    }
+
+    @Test
+    void testLazyEval() {
+        Env env = Env.empty();
+        Eval strict = Eval.make(env);
+        Eval lazy = Eval.makeLazy(env);
+
+        Term[] terms = {
+            new Term.App(MUL, new Term.App(ADD, churchNat(1), churchNat(2)), churchNat(4)),
+            new Term.App(SUM, new Term.App(MAP, SUCC, churchList(1, 2, 3))),
+            new Term.App(ADD, new Term.App(SUCC, ZERO)),
+            new Term.App(new Term.Meta(0, "f"), new Term.App(SUCC, ZERO))
+        };
+        for (Term term : terms) {
+            Assertions.assertEquals(strict.reify(strict.eval(term)),
+                                    lazy.reify(lazy.eval(term)),
+                                    term.toString());
+        }
+
+        // fun x y => y, applied to something that fails if it is ever evaluated
+        Term second = new Term.Lam(ImmSeq.of("x", "y"), new Term.Bound(0, "y"));
+        Term boom = new Term.App(new Term.Free(new Name.Global("boom")), ZERO);
+        Term ignored = new Term.App(second, boom, new Term.App(SUCC, ZERO));
+        Assertions.assertThrows(IllegalStateException.class, () -> strict.eval(ignored));
+        Assertions.assertEquals(churchNat(1), lazy.reify(lazy.eval(ignored)));
+    }
+
+    @Test
+    void testUnusedArgumentIsNeverForced() {
+        Eval lazy = Eval.makeLazy(Env.empty());
+        Term one = new Term.App(SUCC, ZERO);
+
+        // (fun x => fun y => y) (succ zero): x is captured, but never used
+        Term ignoring = new Term.App(
+            new Term.Lam(ImmSeq.of("x"), new Term.Lam(ImmSeq.of("y"), new Term.Bound(0, "y"))),
+            one
+        );
+        Value value = lazy.eval(ignoring);
+        Value.Thunk x = (Value.Thunk) ((Value.Lam) ((Value.Rigid) value).head()).localEnv().get(0);
+        Assertions.assertEquals(new Term.Lam(ImmSeq.of("y"), new Term.Bound(0, "y")),
+                                lazy.reify(value));
+        Assertions.assertFalse(x.isForced());
+
+        // (fun x => fun y => x) (succ zero): reading it back needs x
+        Term using = new Term.App(
+            new Term.Lam(ImmSeq.of("x"), new Term.Lam(ImmSeq.of("y"), new Term.Bound(1, "x"))),
+            one
+        );
+        value = lazy.eval(using);
+        x = (Value.Thunk) ((Value.Lam) ((Value.Rigid) value).head()).localEnv().get(0);
+        Assertions.assertFalse(x.isForced());
+        lazy.reify(value);
+        Assertions.assertTrue(x.isForced());
+    }
+
+    @Test
+    void testThunkIsForcedOnce() {
+        int[] count = {0};
+        Value.Thunk thunk = new Value.Thunk(() -> {
+            count[0] += 1;
+            return Value.UNIV;
+        });
+
+        // comparing, hashing and printing leave it alone
+        Assertions.assertNotEquals(Value.UNIV, thunk);
+        Assertions.assertEquals(System.identityHashCode(thunk), thunk.hashCode());
+        Assertions.assertEquals("<thunk>", thunk.toString());
+        Assertions.assertFalse(thunk.isForced());
+
+        Assertions.assertSame(Value.UNIV, thunk.force());
+        Assertions.assertSame(Value.UNIV, Value.force(thunk));
+        Assertions.assertEquals("type", thunk.toString());
+        Assertions.assertEquals(1, count[0]);
+        Assertions.assertTrue(Conv.make(Eval.make(Env.empty())).conv(thunk, Value.UNIV));
+    }
+
+    static Value define(Env env, String name, Term term)
+        throws ParseException, TypeCheckException
+    {
+        Token location = ((Expr.Var) Parser.parseExpr(ParseContext.of(name, "<test>")).first())
+            .name();
+        return env.define(name, Type.UNIV, term, location).value();
+    }
+
+    static Term global(String name) {
+        return new Term.Free(new Name.Global(name));
+    }
+
+    @Test
+    void testGluedGlobals() throws ParseException, TypeCheckException {
+        Env env = Env.empty(Backend.CLOSURE);
+        define(env, "add", ADD);
+        define(env, "two", churchNat(2));
+        Eval eval = Eval.make(env);
+        Conv conv = Conv.make(eval);
+
+        // defined once, compiled once: applying add runs its compiled body
+        Env.Entry add = env.lookup("add");
+        Assertions.assertNotNull(add);
+        Value.Rigid addValue = (Value.Rigid) add.value();
+        Assertions.assertNotNull(((Value.Lam) addValue.head()).code());
+
+        Term addTwoTwo = new Term.App(global("add"), global("two"), global("two"));
+        Value value = eval.eval(addTwoTwo);
+        Assertions.assertEquals("add two two", value.toString());
+        Assertions.assertEquals(addTwoTwo, eval.reifyFolded(value));
+
+        // the same global applied to the same arguments: no unfolding needed
+        Value same = eval.eval(addTwoTwo);
+        Assertions.assertTrue(conv.conv(value, same));
+        Assertions.assertFalse(((Value.Glued) value).unfolded().isForced());
+        Assertions.assertFalse(((Value.Glued) same).unfolded().isForced());
+
+        Assertions.assertEquals(churchNat(4), eval.reify(value));
+        // compiled code keeps globals folded too, under lambdas as well
+        Term addTwo = new Term.Lam(ImmSeq.of("m"),
+                                   new Term.App(global("add"),
+                                                new Term.Bound(0, "m"),
+                                                global("two")));
+        for (Backend backend : Backend.values()) {
+            Env other = Env.empty(backend);
+            define(other, "add", ADD);
+            define(other, "two", churchNat(2));
+            Value four = define(other, "four", addTwoTwo);
+            Assertions.assertEquals(value, four, backend.name());
+            Assertions.assertEquals(addTwoTwo, eval.reifyFolded(four), backend.name());
+            Assertions.assertEquals(churchNat(4), eval.reify(four), backend.name());
+            Assertions.assertEquals(addTwo,
+                                    eval.reifyFolded(define(other, "addTwo", addTwo)),
+                                    backend.name());
+        }
+        Assertions.assertTrue(conv.conv(value, eval.eval(churchNat(4))));
+        Assertions.assertTrue(conv.conv(eval.eval(new Term.App(ADD, churchNat(1), churchNat(3))),
+                                        value));
+        Assertions.assertFalse(conv.conv(value, eval.eval(churchNat(3))));
+
+        // η: fun m => add m is add
+        Term etaAdd = new Term.Lam(ImmSeq.of("m"),
+                                   new Term.App(global("add"), new Term.Bound(0, "m")));
+        Assertions.assertTrue(conv.conv(eval.eval(etaAdd), eval.eval(global("add"))));
+        Assertions.assertFalse(conv.conv(eval.eval(global("add")), Value.UNIV));
+    }
+
+    @Test
+    void testLinkedGlobalsAreCalledDirectly() throws ParseException, TypeCheckException {
+        Eval eval = Eval.make(Env.empty(Backend.INTERPRETER));
+        Term twice = new Term.Lam(ImmSeq.of("n"),
+                                  new Term.App(global("add"),
+                                               new Term.Bound(0, "n"),
+                                               new Term.Bound(0, "n")));
+        Term twiceTwo = new Term.App(global("twice"), global("two"));
+        Term twiceTwoApplied = new Term.App(global("twice"), global("two"), SUCC, ZERO);
+        Term quadruple = new Term.Lam(ImmSeq.of("m"),
+                                      new Term.App(global("twice"),
+                                                   new Term.App(global("twice"),
+                                                                new Term.Bound(0, "m"))));
+
+        for (Backend backend : Backend.values()) {
+            Env env = Env.empty(backend);
+            define(env, "add", ADD);
+            define(env, "two", churchNat(2));
+            define(env, "twice", twice);
+
+            // the same glued value either way, but compiled code has already run the body of twice
+            Value.Glued four = (Value.Glued) define(env, "four", twiceTwo);
+            Assertions.assertEquals(twiceTwo, eval.reifyFolded(four), backend.name());
+            Assertions.assertEquals(backend != Backend.INTERPRETER,
+                                    four.unfolded().isForced(),
+                                    backend.name());
+            Assertions.assertEquals(churchNat(4), eval.reify(four), backend.name());
+
+            // more arguments than twice takes
+            Value applied = define(env, "four'", twiceTwoApplied);
+            Assertions.assertEquals(twiceTwoApplied, eval.reifyFolded(applied), backend.name());
+            Assertions.assertEquals(churchNat(4), eval.reify(applied), backend.name());
+
+            // under a lambda, with its parameter as the argument
+            Value eight = Eval.make(env).apply(define(env, "quadruple", quadruple),
+                                               ImmSeq.of(eval.eval(churchNat(2))));
+            Assertions.assertEquals(churchNat(8), eval.reify(eight), backend.name());
+        }
+    }
+
+    @Test
+    void testGlobalsCannotBeRedefined() throws ParseException, TypeCheckException {
+        Env env = Env.empty();
+        Value two = define(env, "two", churchNat(2));
+        TypeCheckException exc = Assertions.assertThrows(TypeCheckException.class,
+                                                         () -> define(env, "two", churchNat(3)));
+        Assertions.assertEquals(1, exc.trace.size());
+        Env.Entry entry = env.lookup("two");
+        Assertions.assertNotNull(entry);
+        Assertions.assertSame(two, entry.value());
+    }
+
+    @Test
+    void testPrintTerms() {
+        Assertions.assertEquals("fun n f x => f₁ (n₂ f₁ x₀)", SUCC.toString());
+        Assertions.assertEquals("fun f x =>\n  f₁ (f₁ x₀)",
+                                TermPrinter.doc(churchNat(2)).render(14));
+        Assertions.assertEquals("fun m n f x => m₃ f₁ (… … …)",
+                                TermPrinter.doc(ADD, 2).renderFlat());
+    }
 }
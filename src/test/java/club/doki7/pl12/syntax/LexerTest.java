@@ -1,12 +1,20 @@
 package club.doki7.pl12.syntax;
 
 import club.doki7.pl12.exc.LexicalException;
+import club.doki7.pl12.exc.SourceFile;
+import club.doki7.pl12.exc.SourceRange;
+import club.doki7.pl12.prim.PrimNat;
 import club.doki7.pl12.util.Pair;
+import club.doki7.pl12.util.Symbol;
 import org.junit.jupiter.api.Test;
 
+import java.lang.foreign.MemorySegment;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import static club.doki7.pl12.syntax.Token.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -88,6 +96,18 @@ class LexerTest {
                      tokenize("0 42 12345678901234567890"));
     }
 
+    @Test
+    void testNaturalNumberRepresentation() throws LexicalException {
+        List<Token> tokens = tokenize("42 0042 9223372036854775807 9223372036854775808");
+        assertEquals(new PrimNat.Long(42), ((Token.LitNat) tokens.get(0)).value());
+        assertEquals(new PrimNat.Long(42), ((Token.LitNat) tokens.get(1)).value());
+        assertEquals("0042", tokens.get(1).lexeme());
+        assertEquals(new PrimNat.Long(Long.MAX_VALUE), ((Token.LitNat) tokens.get(2)).value());
+        assertEquals(new PrimNat.Big(new BigInteger("9223372036854775808")),
+                     ((Token.LitNat) tokens.get(3)).value());
+        assertEquals(tokens.get(1), nat(BigInteger.valueOf(42)));
+    }
+
     @Test
     void testStringLiterals() throws LexicalException {
         assertEquals(List.of(string("hello"), string("world"), eoi()),
@@ -178,6 +198,27 @@ class LexerTest {
         assertEquals(1, tok2.col());
     }
 
+    @Test
+    void testPackedRange() throws LexicalException {
+        ParseContext ctx = ParseContext.of("foo\n  barbaz", "<test>");
+        Token tok = ctx.nextToken().second().nextToken().first();
+
+        long packed = tok.packedRange();
+        assertEquals(tok.range(), SourceRange.unpack(packed));
+        assertEquals(6, SourceRange.startPos(packed));
+        assertEquals(12, SourceRange.endPos(packed));
+        assertSame(tok.source(), SourceFile.byId(SourceRange.fileId(packed)));
+
+        SourceRange range = SourceRange.unpack(packed);
+        assertEquals(2, range.line());
+        assertEquals(3, range.col());
+        assertSame(SourceFile.INVALID, SourceRange.unpack(SourceRange.INVALID.packed()).source());
+
+        // Ids are handed out in order and never reused
+        SourceFile next = SourceFile.of("<next>", new char[0]);
+        assertTrue(next.id() > tok.source().id());
+    }
+
     @Test
     void testOperatorChars() throws LexicalException {
         // 运算符字符在没有注册中缀运算符时作为标识符处理
@@ -203,4 +244,225 @@ class LexerTest {
         assertEquals(List.of(sym(Kind.D_QUES), eoi()),
                      tokenize("??"));
     }
+
+    @Test
+    void testLexerMatchesParseContext() throws LexicalException {
+        String input = "Definition two {X : type} (f : X -> X) (x : X) : X := f (f x).\n"
+                       + "(* comment\n spanning lines *) Check \"str\\n\" 42 : ??.";
+        Lexer lexer = Lexer.of(input, "<test>");
+        for (Token expected : tokenize(input)) {
+            Token got = lexer.next();
+            assertEquals(expected, got);
+            assertEquals(expected.pos(), got.pos());
+            assertEquals(expected.line(), got.line());
+            assertEquals(expected.col(), got.col());
+        }
+    }
+
+    @Test
+    void testLexerMarkReset() throws LexicalException {
+        Lexer lexer = Lexer.of("foo\n  bar baz", "<test>");
+        assertEquals(ident("foo"), lexer.next());
+
+        long mark = lexer.mark();
+        Token bar = lexer.next();
+        assertEquals(ident("baz"), lexer.next());
+
+        lexer.reset(mark);
+        Token bar1 = lexer.next();
+        assertEquals(bar, bar1);
+        assertEquals(2, bar1.line());
+        assertEquals(3, bar1.col());
+        assertEquals(6, lexer.col());
+    }
+
+    @Test
+    void testTokenBufferMatchesLexer() throws LexicalException {
+        String input = "Notation left 50 (+) := add.\n"
+                       + "  (* c *) Check λ x => \"a\\tb\" + 12345678901234567890 → ⇒ -> Π.";
+        TokenBuffer buffer = TokenBuffer.tokenize(input, "<test>");
+        List<Token> expected = tokenize(input);
+        assertEquals(expected.size(), buffer.size());
+
+        TokenBuffer.Cursor cursor = buffer.cursor();
+        for (int i = 0; i < expected.size(); i++) {
+            Token got = cursor.next();
+            assertEquals(expected.get(i), got);
+            assertEquals(expected.get(i).lexeme(), got.lexeme());
+            assertEquals(expected.get(i).pos(), got.pos());
+            assertEquals(expected.get(i).line(), got.line());
+            assertEquals(expected.get(i).col(), got.col());
+        }
+        assertEquals(eoi(), cursor.next());
+    }
+
+    @Test
+    void testTokenBufferDoesNotInternLiterals() throws LexicalException {
+        String input = "Check f 98765432109876543210 \"never interned\" 98765432109876543210.";
+        TokenBuffer.tokenize("Check f.", "<test>");
+        int symbols = Symbol.count();
+        TokenBuffer buffer = TokenBuffer.tokenize(input, "<test>");
+        assertEquals(symbols, Symbol.count());
+
+        assertEquals("98765432109876543210", buffer.lexeme(2));
+        assertEquals("never interned", buffer.lexeme(3));
+        assertTrue(buffer.lexemeId(2) < 0);
+        assertEquals(buffer.lexemeId(2), buffer.lexemeId(4));
+        assertEquals(Symbol.intern("f").id, buffer.lexemeId(1));
+    }
+
+    @Test
+    void testUtf8LexerMatchesLexer() throws LexicalException {
+        String input = "Notation left 50 (+) := add.\n"
+                       + "  (* ∀ c *) Check λ x => \"a\\tλ\" + 12345678901234567890 → ⇒ -> Π.";
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        Utf8Lexer lexer = Utf8Lexer.of(bytes, "<test>");
+
+        for (Token expected : tokenize(input)) {
+            Token got = lexer.next();
+            assertEquals(expected, got);
+            assertEquals(expected.lexeme(), got.lexeme());
+            assertEquals(expected.line(), got.line());
+
+            String prefix = input.substring(0, expected.pos());
+            int bytePos = prefix.getBytes(StandardCharsets.UTF_8).length;
+            assertEquals(bytePos, got.pos());
+        }
+    }
+
+    @Test
+    void testUtf8LexerSupplementaryUniverse() throws LexicalException {
+        Utf8Lexer lexer = Utf8Lexer.of("𝒰 x𝒰".getBytes(StandardCharsets.UTF_8), "<test>");
+        assertEquals(Kind.UNIV, lexer.next().kind());
+        assertEquals(ident("x𝒰"), lexer.next());
+        assertEquals(eoi(), lexer.next());
+    }
+
+    @Test
+    void testUtf8LexerInvalidBytes() {
+        byte[] bytes = { 'a', ' ', (byte) 0xC3, '(' };
+        Utf8Lexer lexer = Utf8Lexer.of(bytes, "<test>");
+        assertDoesNotThrow(lexer::next);
+        assertThrows(LexicalException.class, lexer::next);
+    }
+
+    @Test
+    void testBulkScannersAgree() {
+        BulkScanner scalar = new ScalarBulkScanner();
+        BulkScanner vector = BulkScanner.vector();
+        assertNotNull(vector, "tests run with --add-modules jdk.incubator.vector");
+        String alphabet = "  \t\n\n\r*)(x\u00A0\u3000λ";
+        Random random = new Random(12);
+
+        for (int n = 0; n < 300; n++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(200);
+            for (int i = 0; i < length; i++) {
+                // Mostly whitespace, so that runs longer than one vector are common
+                sb.append(random.nextInt(8) == 0
+                          ? alphabet.charAt(random.nextInt(alphabet.length()))
+                          : alphabet.charAt(random.nextInt(4)));
+            }
+            char[] chars = sb.toString().toCharArray();
+            MemorySegment bytes =
+                MemorySegment.ofArray(sb.toString().getBytes(StandardCharsets.UTF_8));
+            int byteLength = (int) bytes.byteSize();
+
+            for (int from = 0; from <= Math.min(chars.length, 5); from++) {
+                assertEquals(scalar.skipWhitespace(chars, from, chars.length),
+                             vector.skipWhitespace(chars, from, chars.length));
+                assertEquals(scalar.findCommentEnd(chars, from, chars.length),
+                             vector.findCommentEnd(chars, from, chars.length));
+            }
+            for (int from = 0; from <= Math.min(byteLength, 5); from++) {
+                assertEquals(scalar.skipWhitespace(bytes, from, byteLength),
+                             vector.skipWhitespace(bytes, from, byteLength));
+                assertEquals(scalar.findCommentEnd(bytes, from, byteLength),
+                             vector.findCommentEnd(bytes, from, byteLength));
+            }
+        }
+    }
+
+    @Test
+    void testLongIndentationAndComments() throws LexicalException {
+        String indent = "\n" + " ".repeat(100);
+        String input = "Check" + indent + "(* " + "comment\n".repeat(40) + "*)"
+                       + indent + "\u3000x" + indent + "(**)";
+        List<Token> tokens = tokenize(input);
+        assertEquals(List.of(sym(Kind.KW_CHECK), ident("x"), eoi()), tokens);
+        assertEquals(43, tokens.get(1).line());
+        assertEquals(102, tokens.get(1).col());
+
+        Utf8Lexer lexer = Utf8Lexer.of(input.getBytes(StandardCharsets.UTF_8), "<test>");
+        lexer.next();
+        Token x = lexer.next();
+        assertEquals(43, x.line());
+        assertEquals(102, x.col());
+    }
+
+    @Test
+    void testUtf8LexerColumnsCountCodePoints() throws LexicalException {
+        Utf8Lexer lexer = Utf8Lexer.of("λx\n  𝒰 y".getBytes(StandardCharsets.UTF_8), "<test>");
+        lexer.next();
+        lexer.next();
+
+        Token univ = lexer.next();
+        assertEquals(6, univ.pos());
+        assertEquals(2, univ.line());
+        assertEquals(3, univ.col());
+        assertEquals(10, univ.locationEnd().pos());
+        assertEquals(4, univ.locationEnd().col());
+
+        Token y = lexer.next();
+        assertEquals(11, y.pos());
+        assertEquals(5, y.col());
+    }
+
+    @Test
+    void testKeywordMatchAgreesWithMaps() {
+        for (Map.Entry<String, Kind> entry : Kind.KEYWORDS_MAP.entrySet()) {
+            char[] buf = (" " + entry.getKey() + " ").toCharArray();
+            Keyword keyword = Keyword.match(buf, 1, buf.length - 1);
+            assertNotNull(keyword, entry.getKey());
+            assertEquals(entry.getValue(), keyword.kind);
+            assertFalse(keyword.bvr);
+        }
+        for (Map.Entry<String, Kind> entry : Kind.BVR_KEYWORDS_MAP.entrySet()) {
+            char[] buf = entry.getKey().toCharArray();
+            Keyword keyword = Keyword.match(buf, 0, buf.length);
+            assertNotNull(keyword, entry.getKey());
+            assertEquals(entry.getValue(), keyword.kind);
+            assertTrue(keyword.bvr);
+        }
+        assertEquals(Kind.KEYWORDS_MAP.size() + Kind.BVR_KEYWORDS_MAP.size(),
+                     Keyword.values().length);
+
+        for (String word : List.of("", "i", "io", "typo", "thin", "Checks", "check", "ends")) {
+            char[] buf = word.toCharArray();
+            assertNull(Keyword.match(buf, 0, buf.length), word);
+        }
+    }
+
+    @Test
+    void testOperatorTable() {
+        OperatorTable empty = OperatorTable.empty();
+        assertTrue(empty.isEmpty());
+
+        Operator plus = new Operator("+", 50, Operator.Assoc.LEFT);
+        Operator plusPlus = new Operator("++", 60, Operator.Assoc.RIGHT);
+        OperatorTable withPlus = empty.put("+", plus);
+        OperatorTable table = withPlus.put("++", plusPlus).put("+", plus);
+        assertEquals(2, table.size());
+        assertTrue(empty.isEmpty());
+        assertEquals(1, withPlus.size());
+        assertNull(withPlus.get("++"));
+
+        char[] buf = "a ++ +++".toCharArray();
+        assertEquals(plusPlus, table.get(buf, 2, 4));
+        assertEquals(plus, table.get(buf, 2, 3));
+        assertNull(table.get(buf, 5, 8));
+        assertNull(table.get(buf, 0, 1));
+        assertEquals(plus, table.get("+"));
+        assertNull(table.get(""));
+    }
 }
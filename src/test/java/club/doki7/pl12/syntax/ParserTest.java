@@ -1,9 +1,26 @@
 package club.doki7.pl12.syntax;
 
+import club.doki7.pl12.exc.LexicalException;
 import club.doki7.pl12.exc.ParseException;
+import club.doki7.pl12.exc.UncheckedParseException;
 import club.doki7.pl12.util.Pair;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.RecordComponent;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -14,6 +31,12 @@ class ParserTest {
         return result.first();
     }
 
+    private static String readChurch() throws Exception {
+        try (var in = ParserTest.class.getResourceAsStream("/resources/sample/Church.pl12")) {
+            return new String(Objects.requireNonNull(in).readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
     private Expr parseExpr(String input) throws Exception {
         ParseContext ctx = ParseContext.of(input, "<test>");
         Pair<Expr, ParseContext> result = Parser.parseExpr(ctx);
@@ -424,6 +447,14 @@ class ParserTest {
         void testInvalidAssoc() {
             assertThrows(ParseException.class, () -> parseCommand("Notation invalid 50 (+) := add."));
         }
+
+        @Test
+        void testErrorsAreStackless() {
+            ParseException e = assertThrows(ParseException.class, () -> parseCommand("Axiom x A."));
+            assertEquals(0, e.getStackTrace().length);
+            assertEquals("此处需要 COLON，遇到 DOT", e.message());
+            assertEquals("<test>:1:10: ParseException: 此处需要 COLON，遇到 DOT", e.getMessage());
+        }
     }
 
     @Nested
@@ -490,7 +521,7 @@ class ParserTest {
         private Expr parseExprWithOperators(String input, Operator... operators) throws Exception {
             ParseContext ctx = ParseContext.of(input, "<test>");
             for (Operator op : operators) {
-                ctx.infixOps().put(op.lexeme(), op);
+                ctx = ctx.withOperator(op);
             }
             Pair<Expr, ParseContext> result = Parser.parseExpr(ctx);
             return result.first();
@@ -612,11 +643,64 @@ class ParserTest {
             assertEquals("-", ((Expr.Var) outer.func()).name().lexeme());
         }
 
+        @Test
+        void testMixedAssociativityChain() throws Exception {
+            Operator plus = new Operator("+", 50, Operator.Assoc.LEFT);
+            Operator times = new Operator("*", 60, Operator.Assoc.LEFT);
+            Operator cons = new Operator("++", 40, Operator.Assoc.RIGHT);
+            Operator pow = new Operator("^", 70, Operator.Assoc.RIGHT);
+            Expr expr = parseExprWithOperators("a + b * c ^ d ^ e ++ f * g + h ++ i",
+                                               plus, times, cons, pow);
+            assertEquals("(++) ((+) a ((*) b ((^) c ((^) d e)))) "
+                         + "((++) ((+) ((*) f g) h) i)",
+                         prefixForm(expr));
+        }
+
+        @Test
+        void testLongChainsDoNotRecurse() throws Exception {
+            Operator plus = new Operator("+", 50, Operator.Assoc.LEFT);
+            Operator cons = new Operator("++", 40, Operator.Assoc.RIGHT);
+            int n = 20000;
+            String sum = "x0" + IntStream.range(1, n)
+                .mapToObj(i -> " + x" + i)
+                .collect(Collectors.joining());
+            Expr expr = parseExprWithOperators(sum, plus);
+            for (int i = n - 1; i > 0; i--) {
+                Expr.App app = (Expr.App) expr;
+                Expr right = ((Argument.Explicit) app.args().get(1)).expr();
+                assertEquals("x" + i, ((Expr.Var) right).name().lexeme());
+                expr = ((Argument.Explicit) app.args().get(0)).expr();
+            }
+            assertEquals("x0", ((Expr.Var) expr).name().lexeme());
+
+            Expr list = parseExprWithOperators(sum.replace("+", "++"), cons);
+            for (int i = 0; i < n - 1; i++) {
+                Expr.App app = (Expr.App) list;
+                Expr left = ((Argument.Explicit) app.args().get(0)).expr();
+                assertEquals("x" + i, ((Expr.Var) left).name().lexeme());
+                list = ((Argument.Explicit) app.args().get(1)).expr();
+            }
+            assertEquals("x" + (n - 1), ((Expr.Var) list).name().lexeme());
+        }
+
+        /// Fully parenthesized prefix form, which is unambiguous about grouping.
+        private static String prefixForm(Expr expr) {
+            if (expr instanceof Expr.App app && app.infix()) {
+                return "(" + ((Expr.Var) app.func()).name().lexeme() + ") "
+                       + prefixArg(((Argument.Explicit) app.args().get(0)).expr()) + " "
+                       + prefixArg(((Argument.Explicit) app.args().get(1)).expr());
+            }
+            return expr.toString();
+        }
+
+        private static String prefixArg(Expr expr) {
+            return expr instanceof Expr.App ? "(" + prefixForm(expr) + ")" : prefixForm(expr);
+        }
+
         @Test
         void testInfixInFunBody() throws Exception {
             Operator plus = new Operator("+", 50, Operator.Assoc.LEFT);
-            ParseContext ctx = ParseContext.of("fun x y => x + y", "<test>");
-            ctx.infixOps().put(plus.lexeme(), plus);
+            ParseContext ctx = ParseContext.of("fun x y => x + y", "<test>").withOperator(plus);
             Pair<Expr, ParseContext> result = Parser.parseExpr(ctx);
             Expr expr = result.first();
             assertInstanceOf(Expr.Fun.class, expr);
@@ -626,11 +710,27 @@ class ParserTest {
             assertTrue(app.infix());
         }
 
+        @Test
+        void testNotationDoesNotLeakIntoSnapshot() throws Exception {
+            ParseContext ctx =
+                ParseContext.of("Notation left 50 (+) := add. Check a + b.", "<test>");
+            Pair<Command, ParseContext> first = Parser.parseCommand(ctx);
+            assertInstanceOf(Command.Notation.class, first.first());
+            assertTrue(ctx.infixOps().isEmpty());
+
+            ParseContext after = first.second();
+            assertNotNull(after.infixOps().get("+"));
+            Command.Check check = (Command.Check) Parser.parseCommand(after).first();
+            assertTrue(((Expr.App) check.expr()).infix());
+            ParseContext snapshot = ctx.clone(after.pos());
+            Command.Check plain = (Command.Check) Parser.parseCommand(snapshot).first();
+            assertFalse(((Expr.App) plain.expr()).infix());
+        }
+
         @Test
         void testInfixInPiBody() throws Exception {
             Operator plus = new Operator("+", 50, Operator.Assoc.LEFT);
-            ParseContext ctx = ParseContext.of("∀ x, x + x", "<test>");
-            ctx.infixOps().put(plus.lexeme(), plus);
+            ParseContext ctx = ParseContext.of("∀ x, x + x", "<test>").withOperator(plus);
             Pair<Expr, ParseContext> result = Parser.parseExpr(ctx);
             Expr expr = result.first();
             assertInstanceOf(Expr.Pi.class, expr);
@@ -638,4 +738,506 @@ class ParserTest {
             assertInstanceOf(Expr.App.class, pi.body());
         }
     }
+
+    @Nested
+    class TokenStreamTests {
+        @Test
+        void testMemoTokenStreamLexesEachTokenOnce() throws Exception {
+            Lexer lexer = Lexer.of("Definition f {X : type} (g : X -> X) (x : X) : X := "
+                                   + "g (g {X} x) : X.", "<test>");
+            MemoTokenStream stream = TokenStream.memoize(lexer);
+            Command cmd = Parser.parseCommand(stream);
+            assertInstanceOf(Command.Definition.class, cmd);
+
+            MemoTokenStream.Stats stats = stream.stats();
+            assertTrue(stats.requests() > stats.lexes());
+            assertEquals(0, stats.relexes());
+            assertEquals(1.0, stats.relexRatio());
+        }
+
+        @Test
+        void testMemoTokenStreamForgetsTokensOnNewOperators() throws Exception {
+            MemoTokenStream stream = TokenStream.memoize(Lexer.of("a + b", "<test>"));
+            stream.next();
+            long mark = stream.mark();
+            assertEquals(Token.Kind.IDENT, stream.next().kind());
+
+            stream.reset(mark);
+            Operator plus = new Operator("+", 50, Operator.Assoc.LEFT);
+            stream.setInfixOps(stream.infixOps().put("+", plus));
+            assertEquals(Token.Kind.INFIX, stream.next().kind());
+        }
+
+        @Test
+        void testPlainLexerParsesSameAsMemo() throws Exception {
+            String input = "Check fun (x : type) => x x.";
+            Command plain = Parser.parseCommand(Lexer.of(input, "<test>"));
+            Command memo = Parser.parseCommand(TokenStream.memoize(Lexer.of(input, "<test>")));
+            assertEquals(plain, memo);
+        }
+
+        @Test
+        void testTokenBufferCursorParsesSameAsLexer() throws Exception {
+            String input = readChurch();
+            Program expected = Parser.parseProgram(ParseContext.of(input, "Church.pl12"));
+            TokenBuffer buffer = TokenBuffer.tokenize(input, "Church.pl12");
+            Program got = Parser.parseProgram(buffer.cursor());
+            assertEquals(expected, got);
+        }
+    }
+
+    @Nested
+    class StreamingTests {
+        @Test
+        void testStreamMatchesParseProgram() throws Exception {
+            String input = readChurch();
+            Program expected = Parser.parseProgram(ParseContext.of(input, "Church.pl12"));
+            List<Command> got = Parser.commands(ParseContext.of(input, "Church.pl12")).toList();
+            assertEquals(expected.commands().size(), got.size());
+            assertEquals(expected, Program.of(got));
+        }
+
+        @Test
+        void testNotationRegistersOperatorInOrder() {
+            Iterator<Command> commands = Parser.commandIterator(
+                Lexer.of("Check a + b. Notation left 50 (+) := add. Check a + b.", "<test>")
+            );
+
+            Expr.App before = (Expr.App) ((Command.Check) commands.next()).expr();
+            assertFalse(before.infix());
+            assertInstanceOf(Command.Notation.class, commands.next());
+            Expr.App after = (Expr.App) ((Command.Check) commands.next()).expr();
+            assertTrue(after.infix());
+            assertFalse(commands.hasNext());
+        }
+
+        @Test
+        void testNotationMayRedeclareOperator() {
+            List<Command> commands = Parser.commands(ParseContext.of(
+                "Notation left 50 (+) := add. Notation right 60 (+) := plus.", "<test>"
+            )).toList();
+            Command.Notation second = (Command.Notation) commands.get(1);
+            assertEquals(Operator.Assoc.RIGHT, second.assoc());
+            assertEquals(60, second.prec());
+        }
+
+        @Test
+        void testErrorIsReportedLazily() {
+            Iterator<Command> commands = Parser.commandIterator(
+                Lexer.of("Check a. Check .", "<test>")
+            );
+
+            assertInstanceOf(Command.Check.class, commands.next());
+            UncheckedParseException e =
+                assertThrows(UncheckedParseException.class, commands::hasNext);
+            assertInstanceOf(ParseException.class, e.getCause());
+            assertFalse(commands.hasNext());
+        }
+    }
+
+    @Nested
+    class ParallelTests {
+        /// Enough commands for {@link ParallelParser} to actually fork, with an operator declared
+        /// every so often, so each batch sees different operators.
+        private static String notationHeavy() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 400; i++) {
+                if (i % 50 == 0) {
+                    sb.append("Notation left ").append(i).append(" (+").append(i / 50)
+                        .append(") := add.\n");
+                }
+                sb.append("Check a +0 b +").append(i / 50).append(" c.\n");
+            }
+            return sb.toString();
+        }
+
+        @Test
+        void testParallelMatchesSequential() throws Exception {
+            String church = readChurch();
+            try (ForkJoinPool pool = new ForkJoinPool(4)) {
+                for (String input : List.of(church, church.repeat(20), notationHeavy())) {
+                    Program expected = Parser.parseProgram(ParseContext.of(input, "<test>"));
+                    Program got =
+                        Parser.parseProgramParallel(ParseContext.of(input, "<test>"), pool);
+                    assertEquals(expected, got);
+                }
+            }
+        }
+
+        @Test
+        void testParallelLeavesContextUntouched() throws Exception {
+            ParseContext ctx = ParseContext.of(notationHeavy(), "<test>");
+            Parser.parseProgramParallel(ctx);
+            assertTrue(ctx.infixOps().isEmpty());
+        }
+
+        @Test
+        void testParallelReportsFirstError() {
+            String input = "Check a.\n".repeat(100) + "Check .\n" + "Check a.\n".repeat(100)
+                + "Axiom .\n" + "Check a.\n".repeat(100);
+            ParseException expected = assertThrows(
+                ParseException.class,
+                () -> Parser.parseProgram(ParseContext.of(input, "<test>"))
+            );
+            ParseException got = assertThrows(
+                ParseException.class,
+                () -> Parser.parseProgramParallel(ParseContext.of(input, "<test>"))
+            );
+            assertEquals(expected.getMessage(), got.getMessage());
+        }
+    }
+
+    @Nested
+    class IncrementalTests {
+        /// Reparse `before` after `edit`, and check the result against a parse from scratch, down
+        /// to the position of every command. Returns the reparsed program.
+        private Program check(String before, TextEdit edit) throws Exception {
+            return check(Parser.parseProgram(ParseContext.of(before, "<test>")), before, edit);
+        }
+
+        private Program check(Program previous, String before, TextEdit edit) throws Exception {
+            Program expected = Parser.parseProgram(ParseContext.of(edit.apply(before), "<test>"));
+            Program got = Parser.reparse(previous, before, edit, "<test>");
+
+            assertEquals(expected, got);
+            for (int i = 0; i < expected.commands().size(); i++) {
+                Token expectedDot = expected.commands().get(i).dot();
+                Token gotDot = got.commands().get(i).dot();
+                assertEquals(expectedDot.pos(), gotDot.pos());
+                assertEquals(expectedDot.line(), gotDot.line());
+                assertEquals(expectedDot.col(), gotDot.col());
+            }
+
+            List<Token> tokens = new ArrayList<>();
+            collectTokens(got, tokens);
+            for (Token token : tokens) {
+                assertSame(tokens.getFirst().source(), token.source(), token.toString());
+            }
+            return got;
+        }
+
+        /// Every token in `node`, which is a syntax tree or some part of one.
+        private static void collectTokens(Object node, List<Token> tokens) throws Exception {
+            switch (node) {
+                case Token token -> tokens.add(token);
+                case Iterable<?> items -> {
+                    for (Object item : items) {
+                        collectTokens(item, tokens);
+                    }
+                }
+                case Record record -> {
+                    for (RecordComponent component : record.getClass().getRecordComponents()) {
+                        collectTokens(component.getAccessor().invoke(record), tokens);
+                    }
+                }
+                case null, default -> {}
+            }
+        }
+
+        @Test
+        void testEditKeepsUnaffectedCommands() throws Exception {
+            String before = readChurch();
+            int at = before.indexOf("f (f x)");
+            Program previous = Parser.parseProgram(ParseContext.of(before, "<test>"));
+            Program got = check(previous, before, new TextEdit(at, at + 7, "f (f (f x))"));
+
+            assertEquals(previous.commands().get(0), got.commands().get(0));
+            assertEquals(previous.commands().get(4), got.commands().get(4));
+            assertNotEquals(previous.commands().get(5), got.commands().get(5));
+            assertNotSame(previous.commands().get(6), got.commands().get(6));
+            assertEquals(previous.commands().get(6), got.commands().get(6));
+        }
+
+        @Test
+        void testInsertAndDeleteCommands() throws Exception {
+            String before = readChurch();
+            int at = before.indexOf("Check one : nat.");
+            check(before, new TextEdit(at, at, "Check zero.\n(* new *) Check one.\n"));
+            check(before, new TextEdit(at, at + "Check one : nat.".length(), ""));
+            check(before, new TextEdit(before.length(), before.length(), "Check nat."));
+            check(before, new TextEdit(0, 0, "Axiom a : type.\n"));
+        }
+
+        @Test
+        void testCommentOutCommand() throws Exception {
+            String before = readChurch();
+            int at = before.indexOf("Check zero : nat.");
+            int end = at + "Check zero : nat.".length();
+            Program previous = Parser.parseProgram(ParseContext.of(before, "<test>"));
+            Program got = check(previous, before, new TextEdit(at, end, "(* Check zero : nat. *)"));
+            assertEquals(previous.commands().size() - 1, got.commands().size());
+        }
+
+        @Test
+        void testChangedNotationReparsesLaterCommands() throws Exception {
+            String before =
+                "Notation left 50 (+) := add.\nCheck a.\nCheck a + b.\nCheck a + b + c.\n";
+            int at = before.indexOf("(+)");
+            Program got = check(before, new TextEdit(at, at + 3, "(++)"));
+            assertFalse(((Expr.App) ((Command.Check) got.commands().get(2)).expr()).infix());
+
+            at = before.indexOf("50");
+            check(before, new TextEdit(at, at + 2, "60"));
+            check(before, new TextEdit(at, at + 2, "50"));
+        }
+
+        @Test
+        void testTextEditBetween() {
+            TextEdit edit = TextEdit.between("Check a + b.", "Check a * b.");
+            assertEquals(new TextEdit(8, 9, "*"), edit);
+            assertEquals("Check a * b.", edit.apply("Check a + b."));
+            assertEquals(new TextEdit(3, 3, ""), TextEdit.between("aaa", "aaa"));
+            assertEquals(new TextEdit(2, 2, "a"), TextEdit.between("aa", "aaa"));
+            assertEquals(new TextEdit(0, 1, ""), TextEdit.between("ab", "b"));
+        }
+    }
+
+    @Nested
+    class FlatTests {
+        @Test
+        void testFlatRoundTrip() throws Exception {
+            String church = readChurch();
+            String notations = "Notation left 50 (+) := add.\nCheck a + b.\n"
+                + "Notation right 60 (+) := plus.\nCheck f {x} {X = nat} (a + b + c) ??.\n"
+                + "Axiom p q : forall (A B : type), A -> (B : type).\n"
+                + "Definition k {C : type} (x : C) : C := fun y => x.\n"
+                + "Notation noassoc 2147483647 (^) := pow.\nCheck a ^ b.\n";
+            for (String input : List.of(church, notations)) {
+                Program expected = Parser.parseProgram(ParseContext.of(input, "<test>"));
+                FlatProgram flat = FlatProgram.parse(ParseContext.of(input, "<test>"));
+                Program got = flat.toProgram();
+
+                assertEquals(expected, got);
+                assertEquals(expected.toString(), got.toString());
+                for (int i = 0; i < expected.commands().size(); i++) {
+                    assertEquals(expected.commands().get(i).dot().pos(),
+                                 got.commands().get(i).dot().pos());
+                }
+            }
+        }
+
+        @Test
+        void testFlatOperatorsPerCommand() throws Exception {
+            FlatProgram flat = FlatProgram.parse(ParseContext.of(
+                "Check a + b. Notation left 50 (+) := add. Check a + b.", "<test>"
+            ));
+            assertEquals(3, flat.commandCount());
+
+            int before = flat.child(flat.command(0), 0);
+            int after = flat.child(flat.command(2), 0);
+            assertEquals(FlatProgram.Tag.APP, flat.tag(after));
+            assertEquals(1, flat.extra(after));
+            assertFalse(((Expr.App) flat.toExpr(before)).infix());
+            Expr.App app = (Expr.App) flat.toExpr(after);
+            assertInstanceOf(Token.Infix.class, ((Expr.Var) app.func()).name());
+        }
+
+        @Test
+        void testFlatWalk() throws Exception {
+            FlatProgram flat = FlatProgram.parse(ParseContext.of(
+                "Check f x (g y). Definition k (x : A) : A := fun y => x.", "<test>"
+            ));
+            List<String> vars = new ArrayList<>();
+            int[] depth = new int[1];
+            flat.walk(new FlatProgram.Visitor() {
+                @Override
+                public boolean enter(FlatProgram program, int node) {
+                    depth[0]++;
+                    if (program.tag(node) == FlatProgram.Tag.VAR) {
+                        vars.add(program.buffer().lexeme(program.token(node, 0)));
+                    }
+                    // Skip what is inside functions
+                    return program.tag(node) != FlatProgram.Tag.FUN;
+                }
+
+                @Override
+                public void exit(FlatProgram program, int node) {
+                    depth[0]--;
+                }
+            });
+
+            assertEquals(List.of("f", "x", "g", "y", "A", "A"), vars);
+            assertEquals(1, depth[0]);
+        }
+    }
+
+    @Nested
+    class CacheTests {
+        @TempDir
+        Path dir;
+
+        private static Expr checkedExpr(Program program) {
+            return ((Command.Check) program.commands().getFirst()).expr();
+        }
+
+        @Test
+        void testCacheRoundTrip() throws Exception {
+            Path file = dir.resolve("Church.pl12");
+            Files.writeString(file, readChurch() + "Check \"λ\\n\" 18446744073709551616.\n");
+            ParseCache cache = ParseCache.besideSources();
+
+            Program parsed = cache.parse(file, OperatorTable.empty());
+            assertTrue(Files.exists(dir.resolve("Church.pl12" + ParseCache.SUFFIX)));
+            Program decoded = cache.parse(file, OperatorTable.empty());
+
+            assertEquals(parsed, decoded);
+            assertEquals(parsed.toString(), decoded.toString());
+            for (int i = 0; i < parsed.commands().size(); i++) {
+                Token expected = parsed.commands().get(i).dot();
+                Token got = decoded.commands().get(i).dot();
+                assertEquals(expected.pos(), got.pos());
+                assertEquals(expected.line(), got.line());
+                assertEquals(expected.col(), got.col());
+                assertEquals(file.toString(), got.file());
+            }
+        }
+
+        @Test
+        void testCacheKeyedOnContentAndOperators() throws Exception {
+            Path file = dir.resolve("src").resolve("a.pl12");
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, "Check a + b.");
+            ParseCache cache = ParseCache.in(dir.resolve("cache"));
+            OperatorTable plus = OperatorTable.empty()
+                .put("+", new Operator("+", 50, Operator.Assoc.LEFT));
+
+            Program withPlus = cache.parse(file, plus);
+            assertTrue(((Expr.App) checkedExpr(withPlus)).infix());
+            Program without = cache.parse(file, OperatorTable.empty());
+            assertFalse(((Expr.App) checkedExpr(without)).infix());
+
+            Files.writeString(file, "Check a.");
+            Program changed = cache.parse(file, OperatorTable.empty());
+            assertInstanceOf(Expr.Var.class, checkedExpr(changed));
+            try (var entries = Files.list(dir.resolve("cache"))) {
+                assertEquals(2, entries.count());
+            }
+        }
+
+        @Test
+        void testDamagedCacheIsIgnored() throws Exception {
+            Path file = dir.resolve("Church.pl12");
+            Files.writeString(file, readChurch());
+            ParseCache cache = ParseCache.besideSources();
+            Program parsed = cache.parse(file, OperatorTable.empty());
+
+            Path entry = dir.resolve("Church.pl12" + ParseCache.SUFFIX);
+            byte[] bytes = Files.readAllBytes(entry);
+            Files.write(entry, Arrays.copyOf(bytes, bytes.length / 2));
+            assertEquals(parsed, cache.parse(file, OperatorTable.empty()));
+            assertEquals(bytes.length, Files.size(entry));
+        }
+
+        @Test
+        void testUnwritableCacheStillParses() throws Exception {
+            Path file = dir.resolve("Church.pl12");
+            Files.writeString(file, readChurch());
+            // A file where the cache directory should be
+            Path notDirectory = Files.writeString(dir.resolve("cache"), "");
+            ParseCache cache = ParseCache.in(notDirectory);
+
+            Program expected = Parser.parseProgram(ParseContext.of(readChurch(), "<test>"));
+            assertEquals(expected, cache.parse(file, OperatorTable.empty()));
+            assertThrows(IOException.class, () -> cache.parse(dir.resolve("missing.pl12"),
+                                                              OperatorTable.empty()));
+        }
+    }
+
+    @Nested
+    class RecoveryTests {
+        private ParseResult parseRecovering(String input) {
+            return Parser.parseProgramRecovering(ParseContext.of(input, "<test>"));
+        }
+
+        @Test
+        void testValidProgramHasNoErrors() throws Exception {
+            ParseResult result = parseRecovering(readChurch());
+            assertFalse(result.hasErrors());
+            assertEquals(Parser.parseProgram(ParseContext.of(readChurch(), "<test>")),
+                         result.program());
+        }
+
+        @Test
+        void testSkipsToDot() {
+            ParseResult result = parseRecovering("""
+                Check a.
+                Check (b.
+                Definition x : A := y.
+                Check ) c.
+                Axiom z : A.""");
+
+            List<String> commands = result.program().commands().stream()
+                .map(Command::toString)
+                .toList();
+            assertEquals(List.of("Check a.",
+                                 "Check ( b.",
+                                 "Definition x : A := y.",
+                                 "Check ) c.",
+                                 "Axiom z : A."), commands);
+            assertInstanceOf(Command.Invalid.class, result.program().commands().get(1));
+            assertInstanceOf(Command.Invalid.class, result.program().commands().get(3));
+
+            assertEquals(2, result.diagnostics().size());
+            assertEquals(2, result.diagnostics().get(0).location.line());
+            assertEquals(4, result.diagnostics().get(1).location.line());
+        }
+
+        @Test
+        void testResumesAtCommandStart() {
+            ParseResult result = parseRecovering("Check a := b Check c.");
+            assertEquals(2, result.program().commands().size());
+            Command.Invalid invalid = (Command.Invalid) result.program().commands().get(0);
+            assertEquals(4, invalid.tokens().size());
+            assertEquals("b", invalid.dot().lexeme());
+            assertEquals("Check c.", result.program().commands().get(1).toString());
+            assertEquals(1, result.diagnostics().size());
+        }
+
+        @Test
+        void testLexicalErrorEndsProgram() {
+            ParseResult result = parseRecovering("Check a. Check \"oops. Check b.");
+            assertEquals(1, result.program().commands().size());
+            assertEquals(1, result.diagnostics().size());
+            assertInstanceOf(LexicalException.class, result.diagnostics().getFirst());
+        }
+    }
+
+    @Nested
+    class PrettyTests {
+        @Test
+        void testFlatMatchesToString() throws Exception {
+            for (Command cmd : Parser.parseProgram(ParseContext.of(readChurch(), "<test>"))
+                                     .commands()) {
+                assertEquals(cmd.toString(), ExprPrinter.doc(cmd).renderFlat());
+                assertEquals(cmd, parseCommand(ExprPrinter.doc(cmd).render(20)));
+            }
+        }
+
+        @Test
+        void testBreaksLongApplication() throws Exception {
+            Expr expr = parseExpr("compose (fun (x : A) => f x) (fun (y : B) => g y) z");
+            assertEquals("""
+                compose
+                  (fun (x : A) => f x)
+                  (fun (y : B) => g y)
+                  z""", ExprPrinter.doc(expr).render(40));
+        }
+
+        @Test
+        void testPartialApp() throws Exception {
+            // The parser does not produce partial applications yet
+            Expr.App app = (Expr.App) parseExpr("f {A} x");
+            Token paren = Token.sym(Token.Kind.L_PAREN);
+            Expr expr = new Expr.PartialApp(app.func(), app.args(), paren, paren,
+                                            Token.sym(Token.Kind.R_PAREN));
+            assertEquals("@(f {A} x)", expr.toString());
+        }
+
+        @Test
+        void testMaxDepth() throws Exception {
+            Expr expr = parseExpr("f (g (h x)) y");
+            assertEquals("f (g (…)) y", ExprPrinter.doc(expr, 3).renderFlat());
+            assertEquals("f (… …) y", ExprPrinter.doc(expr, 2).renderFlat());
+        }
+    }
 }
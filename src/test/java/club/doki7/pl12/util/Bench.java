@@ -0,0 +1,40 @@
+package club.doki7.pl12.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Supplier;
+
+/// A minimal harness for the benchmarks in the test sources. They are plain `main` classes, which
+/// the test runner leaves alone, and are run by hand after `mvn test-compile`, e.g.
+///
+/// ```
+/// java -cp target/classes:target/test-classes club.doki7.pl12.util.SkewListBenchmark
+/// ```
+///
+/// Every measurement warms the task up, then times it in rounds and keeps the fastest round, which
+/// is the one least disturbed by garbage collection and compilation. That is no substitute for JMH,
+/// but it is enough to compare two implementations side by side in the same JVM.
+public final class Bench {
+    /// The fastest time of one call of `task`, in nanoseconds, over `rounds` rounds of `calls`
+    /// calls each, after as many rounds to warm up.
+    public static double bestNanos(int rounds, int calls, @NotNull Supplier<?> task) {
+        long best = Long.MAX_VALUE;
+        for (int round = -rounds; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                sink = task.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round >= 0) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        return (double) best / calls;
+    }
+
+    private Bench() {}
+
+    /// Keeps the results of tasks alive, so that the JIT cannot drop the work that computes them.
+    @SuppressWarnings("unused")
+    private static volatile Object sink;
+}
@@ -0,0 +1,73 @@
+package club.doki7.pl12.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocTest {
+    private static Doc call(String func, String... args) {
+        Doc[] docs = new Doc[args.length * 2 + 1];
+        docs[0] = Doc.text(func);
+        for (int i = 0; i < args.length; i++) {
+            docs[i * 2 + 1] = Doc.line();
+            docs[i * 2 + 2] = Doc.text(args[i]);
+        }
+        return Doc.group(Doc.nest(2, Doc.cat(docs)));
+    }
+
+    @Test
+    void testFitsOnOneLine() {
+        Doc doc = call("f", "a", "b", "c");
+        assertEquals("f a b c", doc.render(7));
+        assertEquals("f a b c", doc.renderFlat());
+    }
+
+    @Test
+    void testBreaksWholeGroup() {
+        Doc doc = call("f", "a", "b", "c");
+        assertEquals("f\n  a\n  b\n  c", doc.render(6));
+    }
+
+    @Test
+    void testInnerGroupStaysFlat() {
+        Doc doc = Doc.group(Doc.nest(2, Doc.cat(
+            Doc.text("outer"),
+            Doc.line(),
+            call("inner", "x", "y"),
+            Doc.line(),
+            Doc.text("z")
+        )));
+        assertEquals("outer\n  inner x y\n  z", doc.render(12));
+        assertEquals("outer\n  inner\n    x\n    y\n  z", doc.render(8));
+    }
+
+    @Test
+    void testTrailingTextCountsTowardsFit() {
+        Doc doc = Doc.cat(call("f", "a"), Doc.text("......"));
+        assertEquals("f a......", doc.render(9));
+        assertEquals("f\n  a......", doc.render(8));
+    }
+
+    @Test
+    void testTruncation() throws Exception {
+        Doc doc = call("f", "alpha", "beta", "gamma");
+        StringBuilder sb = new StringBuilder();
+        doc.render(sb, Doc.UNBOUNDED, 9);
+        assertEquals("f alpha b…", sb.toString());
+
+        sb.setLength(0);
+        doc.render(sb, Doc.UNBOUNDED, 100);
+        assertEquals("f alpha beta gamma", sb.toString());
+    }
+
+    @Test
+    void testDeepDocument() {
+        Doc doc = Doc.text("x");
+        for (int i = 0; i < 100000; i++) {
+            doc = Doc.group(Doc.cat(Doc.text("("), doc, Doc.text(")")));
+        }
+        String flat = doc.renderFlat();
+        assertEquals(200001, flat.length());
+        assertEquals(flat, doc.render(80).replace("\n", ""));
+    }
+}
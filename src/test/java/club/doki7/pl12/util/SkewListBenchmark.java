@@ -0,0 +1,58 @@
+package club.doki7.pl12.util;
+
+import club.doki7.pl12.core.Name;
+import club.doki7.pl12.core.Term;
+import club.doki7.pl12.core.Value;
+import club.doki7.pl12.elab.DBI;
+
+import java.util.Random;
+
+/// Looks up variables at every depth of a local environment of `n` binder groups, one variable
+/// each: the worst case for the `SnocList<ImmSeq<Value>>` of binder groups that environments used
+/// to be, read with {@link DBI#get}, against the {@link SkewList} they are now.
+public final class SkewListBenchmark {
+    public static void main(String[] args) {
+        System.out.println("     n   SnocList   SkewList   (ns per lookup)");
+        for (int n : new int[] { 16, 128, 512, 2048 }) {
+            SnocList<ImmSeq<Value>> groups = SnocList.nil();
+            SkewList<Value> skewList = SkewList.nil();
+            for (int i = 0; i < n; i++) {
+                Value var = new Value.Rigid(new Term.Free(new Name.Quote(i, "x" + i)),
+                                            ImmSeq.nil());
+                groups = SnocList.snoc(groups, ImmSeq.of(var));
+                skewList = skewList.push(var);
+            }
+
+            Random random = new Random(n);
+            int[] indices = new int[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++) {
+                indices[i] = random.nextInt(n);
+                if (DBI.get(groups, indices[i]) != skewList.get(indices[i])) {
+                    throw new AssertionError("lookups disagree at " + indices[i]);
+                }
+            }
+
+            SnocList<ImmSeq<Value>> groups1 = groups;
+            SkewList<Value> skewList1 = skewList;
+            double snoc = Bench.bestNanos(ROUNDS, CALLS, () -> {
+                Value value = null;
+                for (int index : indices) {
+                    value = DBI.get(groups1, index);
+                }
+                return value;
+            });
+            double skew = Bench.bestNanos(ROUNDS, CALLS, () -> {
+                Value value = null;
+                for (int index : indices) {
+                    value = skewList1.get(index);
+                }
+                return value;
+            });
+            System.out.printf("%6d %10.1f %10.1f%n", n, snoc / LOOKUPS, skew / LOOKUPS);
+        }
+    }
+
+    private static final int LOOKUPS = 1024;
+    private static final int ROUNDS = 20;
+    private static final int CALLS = 200;
+}
@@ -0,0 +1,67 @@
+package club.doki7.pl12.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SkewListTest {
+    @Test
+    void testNil() {
+        SkewList<Integer> nil = SkewList.nil();
+        assertEquals(0, nil.size());
+        assertTrue(nil.isEmpty());
+        assertThrows(IndexOutOfBoundsException.class, () -> nil.get(0));
+        assertEquals(List.of(), nil.toList());
+    }
+
+    @Test
+    void testGetCountsFromLastPushed() {
+        SkewList<String> list = SkewList.of("a", "b", "c");
+        assertEquals("c", list.get(0));
+        assertEquals("b", list.get(1));
+        assertEquals("a", list.get(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.get(3));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.get(-1));
+    }
+
+    @Test
+    void testEverySize() {
+        SkewList<Integer> list = SkewList.nil();
+        for (int n = 0; n < 300; n++) {
+            assertEquals(n, list.size());
+            for (int i = 0; i < n; i++) {
+                assertEquals(n - 1 - i, list.get(i));
+            }
+            list = list.push(n);
+        }
+    }
+
+    @Test
+    void testPersistence() {
+        SkewList<Integer> base = SkewList.<Integer>nil().pushAll(List.of(0, 1, 2, 3, 4, 5));
+        SkewList<Integer> left = base.push(10);
+        SkewList<Integer> right = base.pushAll(List.of(20, 21));
+
+        assertEquals(List.of(0, 1, 2, 3, 4, 5), base.toList());
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 10), left.toList());
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 20, 21), right.toList());
+    }
+
+    @Test
+    void testEquality() {
+        List<Integer> elements = IntStream.range(0, 50).boxed().toList();
+        SkewList<Integer> pushed = SkewList.nil();
+        for (int element : elements) {
+            pushed = pushed.push(element);
+        }
+        SkewList<Integer> pushedAll = SkewList.<Integer>nil().pushAll(new ArrayList<>(elements));
+
+        assertEquals(pushed, pushedAll);
+        assertEquals(pushed.hashCode(), pushedAll.hashCode());
+        assertNotEquals(pushed, pushedAll.push(50));
+    }
+}
@@ -0,0 +1,85 @@
+package club.doki7.pl12.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SymbolTest {
+    @Test
+    void testInternRangeIsCanonical() {
+        char[] buf = "foo bar foo".toCharArray();
+        Symbol foo1 = Symbol.intern(buf, 0, 3);
+        Symbol bar = Symbol.intern(buf, 4, 7);
+        Symbol foo2 = Symbol.intern(buf, 8, 11);
+
+        assertSame(foo1, foo2);
+        assertNotSame(foo1, bar);
+        assertEquals("foo", foo1.name);
+        assertSame(foo1, Symbol.intern("foo"));
+    }
+
+    @Test
+    void testHashMatchesString() {
+        Symbol sym = Symbol.intern("symbol-test-hash");
+        assertEquals("symbol-test-hash".hashCode(), sym.hashCode());
+    }
+
+    @Test
+    void testNameIsJvmInterned() {
+        Symbol sym = Symbol.intern("symbolTestLiteral".toCharArray(), 0, 17);
+        assertSame("symbolTestLiteral", sym.name);
+    }
+
+    @Test
+    void testById() {
+        Symbol sym = Symbol.intern("symbol-test-by-id");
+        assertSame(sym, Symbol.byId(sym.id));
+        assertTrue(sym.id < Symbol.count());
+        assertThrows(IndexOutOfBoundsException.class, () -> Symbol.byId(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void testGrowth() {
+        List<Symbol> symbols = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            symbols.add(Symbol.intern("symbol-test-growth-" + i));
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertSame(symbols.get(i), Symbol.intern("symbol-test-growth-" + i));
+            assertSame(symbols.get(i), Symbol.byId(symbols.get(i).id));
+        }
+    }
+
+    @Test
+    void testConcurrentIntern() throws Exception {
+        int threads = 8;
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            List<Future<Symbol[]>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    Symbol[] result = new Symbol[2000];
+                    for (int i = 0; i < result.length; i++) {
+                        result[i] = Symbol.intern(("symbol-test-concurrent-" + i).toCharArray(),
+                                                  0,
+                                                  ("symbol-test-concurrent-" + i).length());
+                    }
+                    return result;
+                }));
+            }
+
+            Symbol[] first = futures.getFirst().get();
+            for (Future<Symbol[]> future : futures) {
+                Symbol[] other = future.get();
+                for (int i = 0; i < first.length; i++) {
+                    assertSame(first[i], other[i]);
+                }
+            }
+        }
+    }
+}